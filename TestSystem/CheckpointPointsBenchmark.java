@@ -0,0 +1,79 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Awards the points and mountain points of a high-mountain stage with many climbs, placing its checkpoints one after
+ * another and then in parallel, at several peloton sizes.
+ */
+public class CheckpointPointsBenchmark {
+	static final int[] RIDERS = { 10_000, 100_000, 500_000 };
+	static final CheckpointType[] CHECKPOINTS = { CheckpointType.SPRINT, CheckpointType.C4, CheckpointType.C3,
+			CheckpointType.SPRINT, CheckpointType.C2, CheckpointType.C1, CheckpointType.C1, CheckpointType.HC };
+	static final int RUNS = 9;
+	public static void main(String[] args) throws DuplicatedResultException {
+		System.out.printf("%d cores; median time to award a stage's points, in ms%n",
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("%10s %12s %12s%n", "riders", "sequential", "parallel");
+		int threshold = ParallelRanking.getThreshold();
+		for (int numRiders : RIDERS) {
+			Stage stage = stage(numRiders, new Random(numRiders));
+			ResultTable results = stage.getResults();
+			int[] rows = new int[results.size()];
+			long[] elapsedTimes = new long[rows.length];
+			for (int row = 0; row < rows.length; row++) {
+				rows[row] = row;
+				elapsedTimes[row] = stage.elapsedTime(row);
+			}
+			Arrays.sort(elapsedTimes);
+			PointsEngine engine = stage.getPointsEngine();
+			ParallelRanking.setThreshold(Integer.MAX_VALUE);
+			double sequential = time(engine, results, rows, elapsedTimes);
+			ParallelRanking.setThreshold(1);
+			double parallel = time(engine, results, rows, elapsedTimes);
+			ParallelRanking.setThreshold(threshold);
+			System.out.printf("%10d %12.2f %12.2f%n", numRiders, sequential, parallel);
+		}
+	}
+
+	/**
+	 * @return the median time to award the points and mountain points, in milliseconds.
+	 */
+	private static double time(PointsEngine engine, ResultTable results, int[] rows, long[] elapsedTimes) {
+		double[] times = new double[RUNS];
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			engine.points(results, rows, elapsedTimes);
+			engine.mountainPoints(results, rows);
+			times[run] = (System.nanoTime() - start) / 1e6;
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+
+	private static Stage stage(int numRiders, Random random) throws DuplicatedResultException {
+		Stage stage = new Stage(1, "Egg", "Carry an egg", 200, LocalDateTime.of(2024, 7, 1, 12, 0),
+				StageType.HIGH_MOUNTAIN);
+		int id = 2;
+		for (int i = 0; i < CHECKPOINTS.length; i++) {
+			stage.addCheckpoint(CHECKPOINTS[i] == CheckpointType.SPRINT
+					? new Checkpoint(id++, "", CHECKPOINTS[i], 10 + i * 20)
+					: new Climb(id++, "", CHECKPOINTS[i], 10 + i * 20, 7, 9));
+		}
+		stage.setState("waiting for results");
+		int numCriticalPoints = stage.numCriticalPoints();
+		Rider[] riders = new Rider[numRiders];
+		long[] criticalTimes = new long[numRiders * numCriticalPoints];
+		for (int rider = 0; rider < numRiders; rider++) {
+			riders[rider] = new Rider(id++, "Rider", 1990);
+			for (int i = 1; i < numCriticalPoints; i++) {
+				int k = rider * numCriticalPoints + i;
+				criticalTimes[k] = criticalTimes[k - 1] + 1_800_000_000_000L + random.nextInt(600) * 1_000_000_000L;
+			}
+		}
+		stage.addResults(riders, criticalTimes);
+		return stage;
+	}
+}
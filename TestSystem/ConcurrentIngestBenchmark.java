@@ -0,0 +1,77 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Registers results one at a time from growing numbers of threads, each registering the results of its own stages,
+ * into a {@link ConcurrentCyclingPortal} and into a {@link CyclingPortalImpl} behind one global lock, printing the
+ * throughput of each. Scaling is bounded by the number of cores available.
+ */
+public class ConcurrentIngestBenchmark {
+	static final int[] THREADS = { 1, 2, 4, 8 };
+	static final int STAGES_PER_THREAD = 2;
+	static final int RIDERS = 50_000;
+	static final int RUNS = 3;
+	public static void main(String[] args) throws Exception {
+		System.out.printf("%d cores%n", Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %22s %22s%n", "threads", "global lock (res/s)", "striped (res/s)");
+		for (int threads : THREADS) {
+			double global = 0, striped = 0;
+			for (int run = 0; run < RUNS; run++) {
+				global = Math.max(global, run(new CyclingPortalImpl(), true, threads));
+				striped = Math.max(striped, run(new ConcurrentCyclingPortal(), false, threads));
+			}
+			System.out.printf("%8d %22.0f %22.0f%n", threads, global, striped);
+		}
+	}
+
+	/**
+	 * @return the number of results registered per second.
+	 */
+	private static double run(MiniCyclingPortal portal, boolean globalLock, int threads) throws Exception {
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		int[] riderIds = new int[RIDERS];
+		for (int i = 0; i < RIDERS; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i % 1000, 1990);
+		int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+		LocalDateTime start = LocalDateTime.of(2024, 7, 1, 8, 0);
+		int[] stageIds = new int[threads * STAGES_PER_THREAD];
+		for (int s = 0; s < stageIds.length; s++) {
+			stageIds[s] = portal.addStageToRace(raceId, "Stage" + s, "Carry an egg", 200, start, StageType.FLAT);
+			portal.addIntermediateSprintToStage(stageIds[s], 100);
+			portal.concludeStagePreparation(stageIds[s]);
+		}
+		LocalTime noon = start.toLocalTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<>();
+			long begin = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int r = 0; r < RIDERS; r++) {
+						for (int s = thread * STAGES_PER_THREAD; s < (thread + 1) * STAGES_PER_THREAD; s++) {
+							LocalTime[] times = { noon, noon.plusSeconds(3600 + r % 600), noon.plusSeconds(7200 + r) };
+							if (globalLock) {
+								synchronized (portal) {
+									portal.registerRiderResultsInStage(stageIds[s], riderIds[r], times);
+								}
+							} else {
+								portal.registerRiderResultsInStage(stageIds[s], riderIds[r], times);
+							}
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) future.get();
+			return (double) RIDERS * stageIds.length / ((System.nanoTime() - begin) / 1e9);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Creates teams, races and stages in blocks, printing the creation throughput of each block, which should stay
+ * flat as the portal grows.
+ */
+public class CreationBenchmark {
+	static final int BLOCKS = 10;
+	static final int BLOCK_SIZE = 20_000;
+	public static void main(String[] args) throws InvalidNameException, IllegalNameException, IDNotRecognisedException,
+			InvalidLengthException {
+		MiniCyclingPortal portal = new CyclingPortalImpl();
+		LocalDateTime start = LocalDateTime.now().plusDays(1);
+		int n = 0;
+		System.out.printf("%12s %16s %16s%n", "entities", "teams/s", "races+stages/s");
+		for (int block = 0; block < BLOCKS; block++) {
+			long teamsStart = System.nanoTime();
+			for (int i = 0; i < BLOCK_SIZE; i++) portal.createTeam("Team" + (n + i), "");
+			long teamsElapsed = System.nanoTime() - teamsStart;
+			long racesStart = System.nanoTime();
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				int raceId = portal.createRace("Race" + (n + i), "");
+				portal.addStageToRace(raceId, "Stage" + (n + i), "", 100, start, StageType.FLAT);
+			}
+			long racesElapsed = System.nanoTime() - racesStart;
+			n += BLOCK_SIZE;
+			System.out.printf("%12d %16.0f %16.0f%n", n * 3,
+					BLOCK_SIZE * 1e9 / teamsElapsed, BLOCK_SIZE * 1e9 / racesElapsed);
+		}
+	}
+}
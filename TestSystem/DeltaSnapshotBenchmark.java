@@ -0,0 +1,85 @@
+import cycling.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Random;
+
+/**
+ * Saves a portal of many concluded stages after each of a series of new stages is added and its results registered,
+ * both in full and as a {@link DeltaSnapshot}, printing the mean time of each save, then the time to load and
+ * compact the chain of deltas.
+ */
+public class DeltaSnapshotBenchmark {
+	static final int STAGES = 40;
+	static final int NEW_STAGES = 10;
+	static final int RIDERS = 20_000;
+	static final int SPRINTS = 3;
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("portal", ".snapshot");
+		try {
+			Random random = new Random(1);
+			CyclingPortalImpl full = new CyclingPortalImpl();
+			CyclingPortalImpl delta = new CyclingPortalImpl();
+			int[] fullRiders = riders(full);
+			int[] deltaRiders = riders(delta);
+			int fullRace = full.createRace("Egg&Spoon", "...on a bike");
+			int deltaRace = delta.createRace("Egg&Spoon", "...on a bike");
+			for (int s = 0; s < STAGES; s++) {
+				addStage(full, fullRace, fullRiders, s, new Random(s));
+				addStage(delta, deltaRace, deltaRiders, s, new Random(s));
+			}
+			delta.saveCyclingPortalDelta(file.getPath());
+			double fullTime = 0, deltaTime = 0;
+			for (int s = STAGES; s < STAGES + NEW_STAGES; s++) {
+				long seed = random.nextLong();
+				addStage(full, fullRace, fullRiders, s, new Random(seed));
+				addStage(delta, deltaRace, deltaRiders, s, new Random(seed));
+				long start = System.nanoTime();
+				full.saveCyclingPortal(file.getPath() + ".full");
+				long saved = System.nanoTime();
+				delta.saveCyclingPortalDelta(file.getPath());
+				long deltaSaved = System.nanoTime();
+				fullTime += (saved - start) / 1e6 / NEW_STAGES;
+				deltaTime += (deltaSaved - saved) / 1e6 / NEW_STAGES;
+			}
+			System.out.printf("%d stages of %d results, then %d more%n", STAGES, RIDERS, NEW_STAGES);
+			System.out.printf("full save:  %8.1f ms%n", fullTime);
+			System.out.printf("delta save: %8.1f ms%n", deltaTime);
+			long start = System.nanoTime();
+			new CyclingPortalImpl().loadCyclingPortal(file.getPath());
+			long loaded = System.nanoTime();
+			delta.compactCyclingPortal(file.getPath());
+			long compacted = System.nanoTime();
+			System.out.printf("load chain: %8.1f ms%n", (loaded - start) / 1e6);
+			System.out.printf("compact:    %8.1f ms%n", (compacted - loaded) / 1e6);
+		} finally {
+			DeltaSnapshot.deleteChain(file.toPath());
+			file.delete();
+			Path.of(file.getPath() + ".full").toFile().delete();
+		}
+	}
+
+	private static int[] riders(CyclingPortalImpl portal) throws Exception {
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		int[] riderIds = new int[RIDERS];
+		for (int i = 0; i < RIDERS; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i % 1000, 1990);
+		return riderIds;
+	}
+	private static void addStage(CyclingPortalImpl portal, int raceId, int[] riderIds, int s, Random random)
+			throws Exception {
+		LocalDateTime start = LocalDateTime.of(2024, 7, 1, 8, 0).plusDays(s);
+		int stageId = portal.addStageToRace(raceId, "Stage" + s, "Carry an egg", 200, start, StageType.FLAT);
+		for (int i = 0; i < SPRINTS; i++) portal.addIntermediateSprintToStage(stageId, 10 + i * 40);
+		portal.concludeStagePreparation(stageId);
+		ResultBatch batch = new ResultBatch(RIDERS, RIDERS * (SPRINTS + 2));
+		LocalTime[] times = new LocalTime[SPRINTS + 2];
+		for (int riderId : riderIds) {
+			times[0] = start.toLocalTime();
+			for (int i = 1; i < times.length; i++) times[i] = times[i - 1].plusSeconds(1800 + random.nextInt(1800));
+			batch.add(riderId, times);
+		}
+		portal.registerRiderResultsInStage(stageId, batch);
+	}
+}
@@ -0,0 +1,124 @@
+import cycling.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a portal with {@link PortalHttpServer} on localhost and drives it with many concurrent clients, each on its
+ * own virtual thread: first registering every rider's results with PUTs, then querying rankings and points with
+ * GETs. Prints the throughput and the p50, p99 and maximum latency of each phase.
+ * <p>
+ * Arguments: clients (default 1000), stages (default 20), riders (default 500), queries per client (default 50).
+ */
+public class HttpLoadBenchmark {
+	static final String[] QUERIES = { "rank", "points", "mountain-points", "adjusted-elapsed-times" };
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int numStages = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int numRiders = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		int queriesPerClient = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+		ConcurrentCyclingPortal portal = new ConcurrentCyclingPortal();
+		LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		int[] riderIds = new int[numRiders];
+		for (int i = 0; i < numRiders; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990);
+		int raceId = portal.createRace("Egg&Spoon", null);
+		int[] stageIds = new int[numStages];
+		for (int s = 0; s < numStages; s++) {
+			stageIds[s] = portal.addStageToRace(raceId, "Stage" + s, null, 150, start, StageType.HIGH_MOUNTAIN);
+			portal.addIntermediateSprintToStage(stageIds[s], 40);
+			portal.addCategorizedClimbToStage(stageIds[s], 80.0, CheckpointType.C1, 7.0, 10.0);
+			portal.addCategorizedClimbToStage(stageIds[s], 140.0, CheckpointType.HC, 8.0, 12.0);
+			portal.concludeStagePreparation(stageIds[s]);
+		}
+		System.out.printf("%d cores, %d clients, %d stages of %d riders%n", Runtime.getRuntime().availableProcessors(),
+				clients, numStages, numRiders);
+		try (PortalHttpServer server = new PortalHttpServer(portal, new InetSocketAddress("localhost", 0));
+				ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			HttpClient client = HttpClient.newBuilder().executor(executor).connectTimeout(Duration.ofSeconds(30)).build();
+			String base = "http://localhost:" + server.getPort() + "/stages/";
+			int puts = numStages * numRiders;
+			report("PUT results", run(executor, clients, puts, i -> {
+				int stage = i % numStages, rider = i / numStages;
+				Random random = new Random(i);
+				LocalTime time = LocalTime.NOON;
+				StringBuilder body = new StringBuilder("[\"").append(time).append('"');
+				for (int c = 0; c < 4; c++) {
+					time = time.plusSeconds(3000 + random.nextInt(120));
+					body.append(",\"").append(time).append('"');
+				}
+				return send(client, HttpRequest.newBuilder(URI.create(base + stageIds[stage] + "/results/" + riderIds[rider]))
+						.PUT(HttpRequest.BodyPublishers.ofString(body.append(']').toString())).build(), 204);
+			}));
+			report("GET queries", run(executor, clients, clients * queriesPerClient, i -> {
+				String query = QUERIES[i % QUERIES.length];
+				return send(client, HttpRequest.newBuilder(URI.create(base + stageIds[(i / QUERIES.length) % numStages]
+						+ "/" + query)).build(), 200);
+			}));
+		}
+	}
+
+	interface Call {
+		long run(int i) throws Exception;
+	}
+
+	/**
+	 * Sends a request and checks its status.
+	 *
+	 * @return the latency of the request, in nanoseconds.
+	 */
+	private static long send(HttpClient client, HttpRequest request, int expectedStatus) throws Exception {
+		long start = System.nanoTime();
+		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		long latency = System.nanoTime() - start;
+		if (response.statusCode() != expectedStatus) {
+			throw new IllegalStateException(request.uri() + " answered " + response.statusCode() + ": " + response.body());
+		}
+		return latency;
+	}
+
+	/**
+	 * Makes a number of calls from a number of clients, each taking the next call as soon as its last one is answered.
+	 *
+	 * @return the latency of each call, in nanoseconds, followed by the wall-clock time of the whole run.
+	 */
+	private static long[] run(ExecutorService executor, int clients, int calls, Call call) throws Exception {
+		AtomicInteger next = new AtomicInteger();
+		long[] latencies = new long[calls + 1];
+		long start = System.nanoTime();
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int c = 0; c < clients; c++) {
+			futures.add(executor.submit(() -> {
+				for (int i = next.getAndIncrement(); i < calls; i = next.getAndIncrement()) latencies[i] = call.run(i);
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) future.get();
+		latencies[calls] = System.nanoTime() - start;
+		return latencies;
+	}
+	private static void report(String phase, long[] latencies) {
+		int calls = latencies.length - 1;
+		double seconds = latencies[calls] / 1e9;
+		long[] sorted = Arrays.copyOf(latencies, calls);
+		Arrays.sort(sorted);
+		System.out.printf("%-12s %8d calls %10.0f/s  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n", phase, calls,
+				calls / seconds, percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6, sorted[calls - 1] / 1e6);
+	}
+	private static long percentile(long[] sorted, double percent) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percent / 100 * sorted.length) - 1)];
+	}
+}
@@ -0,0 +1,64 @@
+import cycling.*;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Generates a chip-timing file of two million riders, then imports it into a fresh stage with
+ * {@link ResultFileImporter} a few times and prints each run's throughput.
+ */
+public class ImportBenchmark {
+	static final int RIDERS = 2_000_000;
+	static final int CHECKPOINTS = 3;
+	static final int RUNS = 5;
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempFile("results", ".csv");
+		try {
+			write(file, new Random(1));
+			System.out.printf("%d rows, %d MB%n", RIDERS, Files.size(file) >> 20);
+			for (int run = 0; run < RUNS; run++) {
+				CyclingPortalImpl portal = new CyclingPortalImpl();
+				int stageId = stage(portal);
+				System.out.println(new ResultFileImporter(portal).importResults(stageId, file));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static int stage(CyclingPortalImpl portal) throws Exception {
+		int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+		int stageId = portal.addStageToRace(raceId, "Egg", "Carry an egg", 200, LocalDateTime.of(2024, 7, 1, 8, 0),
+				StageType.FLAT);
+		for (int i = 0; i < CHECKPOINTS; i++) {
+			portal.addIntermediateSprintToStage(stageId, 10 + i * 40);
+		}
+		portal.concludeStagePreparation(stageId);
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		for (int i = 0; i < RIDERS; i++) portal.createRider(teamId, "Rider", 1990);
+		return stageId;
+	}
+
+	/**
+	 * Writes one row per rider, whose ids are those the portal will give them: one after the race, stage,
+	 * checkpoints and team.
+	 */
+	private static void write(Path file, Random random) throws Exception {
+		int firstRiderId = 1 + 1 + CHECKPOINTS + 1 + 1;
+		try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+			for (int i = 0; i < RIDERS; i++) {
+				writer.write(Integer.toString(firstRiderId + i));
+				int seconds = 8 * 3600;
+				for (int j = 0; j < CHECKPOINTS + 2; j++) {
+					writer.write(String.format(",%02d:%02d:%02d.%03d", seconds / 3600, seconds / 60 % 60, seconds % 60,
+							random.nextInt(1000)));
+					seconds += 1800 + random.nextInt(1800);
+				}
+				writer.newLine();
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+import cycling.*;
+
+import java.io.File;
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Random;
+
+/**
+ * Loads a portal of many stages both in full and lazily, printing the time each takes, the time of a first query on
+ * one stage, and the heap in use after each.
+ */
+public class LazyLoadBenchmark {
+	static final int STAGES = 100;
+	static final int RIDERS = 50_000;
+	static final int SPRINTS = 3;
+	static final int RUNS = 3;
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("portal", ".snapshot");
+		try {
+			int stageId = save(file, new Random(1));
+			System.out.printf("%d results, %.1f MB%n", STAGES * RIDERS, file.length() / 1e6);
+			System.out.printf("%8s %12s %16s %12s%n", "load", "load (ms)", "first query (ms)", "heap (MB)");
+			for (int run = 0; run < RUNS; run++) {
+				run(file, stageId, false);
+				run(file, stageId, true);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void run(File file, int stageId, boolean lazy) throws Exception {
+		System.gc();
+		long before = usedHeap();
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		long start = System.nanoTime();
+		if (lazy) {
+			portal.mapCyclingPortal(file.getPath());
+		} else {
+			portal.loadCyclingPortal(file.getPath());
+		}
+		long loaded = System.nanoTime();
+		portal.getRidersRankInStage(stageId);
+		long queried = System.nanoTime();
+		System.gc();
+		long heap = usedHeap() - before;
+		Reference.reachabilityFence(portal);
+		System.out.printf("%8s %12.1f %16.1f %12.1f%n", lazy ? "lazy" : "full", (loaded - start) / 1e6,
+				(queried - loaded) / 1e6, heap / 1e6);
+	}
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Saves a portal of one race of many stages.
+	 *
+	 * @return the id of the last stage.
+	 */
+	private static int save(File file, Random random) throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		int[] riderIds = new int[RIDERS];
+		for (int i = 0; i < RIDERS; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i % 1000, 1990);
+		int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+		LocalDateTime start = LocalDateTime.of(2024, 7, 1, 8, 0);
+		int stageId = 0;
+		for (int s = 0; s < STAGES; s++) {
+			stageId = portal.addStageToRace(raceId, "Stage" + s, "Carry an egg", 200, start.plusDays(s),
+					StageType.FLAT);
+			for (int i = 0; i < SPRINTS; i++) portal.addIntermediateSprintToStage(stageId, 10 + i * 40);
+			portal.concludeStagePreparation(stageId);
+			ResultBatch batch = new ResultBatch(RIDERS, RIDERS * (SPRINTS + 2));
+			LocalTime[] times = new LocalTime[SPRINTS + 2];
+			for (int riderId : riderIds) {
+				times[0] = start.toLocalTime();
+				for (int i = 1; i < times.length; i++) times[i] = times[i - 1].plusSeconds(1800 + random.nextInt(1800));
+				batch.add(riderId, times);
+			}
+			portal.registerRiderResultsInStage(stageId, batch);
+		}
+		portal.saveCyclingPortal(file.getPath());
+		return stageId;
+	}
+}
@@ -0,0 +1,69 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Ranks stages of growing numbers of riders sequentially and then in parallel in pools of growing numbers of threads,
+ * printing the median time of each as a table of rider count against thread count.
+ */
+public class ParallelRankingBenchmark {
+	static final int[] RIDERS = { 10_000, 50_000, 200_000, 1_000_000 };
+	static final int[] THREADS = { 1, 2, 4, 8 };
+	static final int RUNS = 7;
+	public static void main(String[] args) throws Exception {
+		System.out.printf("%d cores; median time to rank a stage, in ms%n", Runtime.getRuntime().availableProcessors());
+		System.out.printf("%10s %12s", "riders", "sequential");
+		for (int threads : THREADS) System.out.printf(" %10s", threads + " threads");
+		System.out.println();
+		int threshold = ParallelRanking.getThreshold();
+		for (int numRiders : RIDERS) {
+			Random random = new Random(numRiders);
+			Rider[] riders = new Rider[numRiders];
+			long[] criticalTimes = new long[numRiders * 2];
+			long finish = 4 * 3_600_000_000_000L;
+			for (int i = 0; i < numRiders; i++) {
+				int j = random.nextInt(i + 1);
+				riders[i] = riders[j];
+				riders[j] = new Rider(i + 1, "Rider", 1990);
+			}
+			for (int i = 0; i < numRiders; i++) {
+				finish += random.nextInt(3) * 500_000_000L;
+				criticalTimes[i * 2 + 1] = finish - random.nextInt(60) * 1_000_000_000L;
+			}
+			ParallelRanking.setThreshold(Integer.MAX_VALUE);
+			System.out.printf("%10d %12.1f", numRiders, time(null, riders, criticalTimes));
+			ParallelRanking.setThreshold(1);
+			for (int threads : THREADS) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				System.out.printf(" %10.1f", time(pool, riders, criticalTimes));
+				pool.shutdown();
+			}
+			ParallelRanking.setThreshold(threshold);
+			System.out.println();
+		}
+	}
+
+	/**
+	 * @return the median time to rank a fresh stage of the results, in milliseconds.
+	 */
+	private static double time(ForkJoinPool pool, Rider[] riders, long[] criticalTimes) throws Exception {
+		double[] times = new double[RUNS];
+		for (int run = 0; run < RUNS; run++) {
+			Stage stage = new Stage(1, "Egg", "Carry an egg", 100, LocalDateTime.of(2024, 7, 1, 8, 0), StageType.FLAT);
+			stage.setState("waiting for results");
+			stage.addResults(riders, criticalTimes);
+			long start = System.nanoTime();
+			if (pool == null) {
+				new StageRanking(stage);
+			} else {
+				pool.submit(() -> new StageRanking(stage)).get();
+			}
+			times[run] = (System.nanoTime() - start) / 1e6;
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+}
@@ -0,0 +1,100 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Compares ranking a stage and awarding its points and mountain points with {@link PointsEngine} against the
+ * indexOf-based placing it replaced, at several peloton sizes.
+ */
+public class PointsBenchmark {
+	static final int[] RIDERS = { 200, 1_000, 5_000, 20_000 };
+	static final int SPRINTS = 3;
+	static final CheckpointType[] CLIMBS = { CheckpointType.C4, CheckpointType.C3, CheckpointType.C2,
+			CheckpointType.C1, CheckpointType.HC };
+	public static void main(String[] args) throws DuplicatedResultException {
+		System.out.printf("%8s %16s %16s %10s%n", "riders", "indexOf (us)", "engine (us)", "speed-up");
+		for (int numRiders : RIDERS) {
+			Stage stage = stage(numRiders, new Random(numRiders));
+			int iterations = Math.max(3, 2_000_000 / numRiders / (numRiders > 1_000 ? 20 : 1));
+			double legacy = time(() -> indexOfPoints(stage), Math.max(1, iterations / 50));
+			double engine = time(() -> {
+				StageRanking ranking = new StageRanking(stage);
+				ranking.getPoints();
+				ranking.getMountainPoints();
+			}, iterations);
+			System.out.printf("%8d %16.1f %16.1f %9.1fx%n", numRiders, legacy / 1e3, engine / 1e3, legacy / engine);
+		}
+	}
+
+	/**
+	 * @return the mean time of an iteration, in nanoseconds, after as many warm-up iterations.
+	 */
+	private static double time(Runnable task, int iterations) {
+		for (int i = 0; i < iterations; i++) task.run();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) task.run();
+		return (double) (System.nanoTime() - start) / iterations;
+	}
+
+	private static Stage stage(int numRiders, Random random) throws DuplicatedResultException {
+		Stage stage = new Stage(1, "Egg", "Carry an egg", 200, LocalDateTime.of(2024, 7, 1, 12, 0),
+				StageType.MEDIUM_MOUNTAIN);
+		int id = 2;
+		for (int i = 0; i < SPRINTS; i++) stage.addCheckpoint(new Checkpoint(id++, "", CheckpointType.SPRINT, 10 + i * 40));
+		for (int i = 0; i < CLIMBS.length; i++) stage.addCheckpoint(new Climb(id++, "", CLIMBS[i], 30 + i * 30, 6, 8));
+		stage.setState("waiting for results");
+		int numCriticalPoints = stage.numCriticalPoints();
+		for (int rider = 0; rider < numRiders; rider++) {
+			long[] times = new long[numCriticalPoints];
+			for (int i = 1; i < numCriticalPoints; i++) {
+				times[i] = times[i - 1] + 1_800_000_000_000L + random.nextInt(600) * 1_000_000_000L;
+			}
+			stage.addResult(new Rider(id++, "Rider", 1990), times);
+		}
+		return stage;
+	}
+
+	/**
+	 * Ranks the riders, then places them at the finish and at every checkpoint by searching a sorted list of
+	 * times for each of their own, as the portal did before {@link PointsEngine}.
+	 */
+	private static void indexOfPoints(Stage stage) {
+		ResultTable results = stage.getResults();
+		int last = results.width() - 1;
+		ArrayList<Integer> rows = new ArrayList<>();
+		for (int row = 0; row < results.size(); row++) rows.add(row);
+		rows.sort(Comparator.comparingLong(row -> results.getTime(row, last)));
+		ArrayList<Long> elapsedTimes = rows.stream().map(row -> results.getTime(row, last))
+				.collect(Collectors.toCollection(ArrayList::new));
+		ArrayList<Long> rankedElapsedTimes = elapsedTimes.stream().sorted()
+				.collect(Collectors.toCollection(ArrayList::new));
+		ArrayList<Integer> finishPoints = Stage.SPRINTER_POINTS.get(stage.getType());
+		int[] points = new int[rows.size()];
+		int[] mountainPoints = new int[rows.size()];
+		for (int i = 0; i < points.length; i++) {
+			int place = rankedElapsedTimes.indexOf(elapsedTimes.get(i));
+			if (place < finishPoints.size()) points[i] += finishPoints.get(place);
+		}
+		ArrayList<Checkpoint> checkpoints = stage.getChildren();
+		for (Checkpoint checkpoint : checkpoints) {
+			int criticalPoint = checkpoints.indexOf(checkpoint) + 1;
+			ArrayList<Long> times = rows.stream().map(row -> results.getTime(row, criticalPoint))
+					.collect(Collectors.toCollection(ArrayList::new));
+			ArrayList<Long> rankedTimes = times.stream().sorted()
+					.collect(Collectors.toCollection(ArrayList::new));
+			boolean climb = checkpoint instanceof Climb;
+			ArrayList<Integer> climbPoints = climb ? Climb.MOUNTAIN_POINTS.get(checkpoint.getType()) : null;
+			for (int i = 0; i < points.length; i++) {
+				int place = rankedTimes.indexOf(times.get(i));
+				if (climb && place < climbPoints.size()) mountainPoints[i] += climbPoints.get(place);
+				if (!climb && place < Checkpoint.INTERMEDIATE_SPRINT_POINTS.length) {
+					points[i] += Checkpoint.INTERMEDIATE_SPRINT_POINTS[place];
+				}
+			}
+		}
+	}
+}
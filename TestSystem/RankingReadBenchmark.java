@@ -0,0 +1,96 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queries a stage's ranking and points from several threads while one thread registers a result in it every
+ * millisecond, through a {@link ConcurrentCyclingPortal} and through a {@link CyclingPortalImpl} behind one global
+ * lock, printing the reads per second and the slowest write of each.
+ */
+public class RankingReadBenchmark {
+	static final int READERS = 3;
+	static final int RIDERS = 20_000;
+	static final int PRELOADED = 10_000;
+	static final long DURATION_MILLIS = 3_000;
+	public static void main(String[] args) throws Exception {
+		System.out.printf("%d cores%n", Runtime.getRuntime().availableProcessors());
+		System.out.printf("%12s %14s %16s %18s%n", "portal", "reads/s", "writes/s", "slowest write (us)");
+		for (int run = 0; run < 2; run++) {
+			run("global lock", new CyclingPortalImpl(), true);
+			run("lock-free", new ConcurrentCyclingPortal(), false);
+		}
+	}
+
+	private static void run(String name, MiniCyclingPortal portal, boolean globalLock) throws Exception {
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		int[] riderIds = new int[RIDERS];
+		for (int i = 0; i < RIDERS; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i % 1000, 1990);
+		int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+		LocalDateTime start = LocalDateTime.of(2024, 7, 1, 8, 0);
+		int stageId = portal.addStageToRace(raceId, "Stage", "Carry an egg", 200, start, StageType.FLAT);
+		portal.addIntermediateSprintToStage(stageId, 100);
+		portal.concludeStagePreparation(stageId);
+		LocalTime noon = start.toLocalTime();
+		for (int r = 0; r < PRELOADED; r++) portal.registerRiderResultsInStage(stageId, riderIds[r], times(noon, r));
+		AtomicBoolean done = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+		try {
+			ArrayList<Future<Long>> readers = new ArrayList<>();
+			for (int t = 0; t < READERS; t++) {
+				readers.add(executor.submit(() -> {
+					long reads = 0;
+					while (!done.get()) {
+						if (globalLock) {
+							synchronized (portal) {
+								portal.getRidersRankInStage(stageId);
+								portal.getRidersPointsInStage(stageId);
+							}
+						} else {
+							portal.getRidersRankInStage(stageId);
+							portal.getRidersPointsInStage(stageId);
+						}
+						reads += 2;
+					}
+					return reads;
+				}));
+			}
+			Future<long[]> writer = executor.submit(() -> {
+				long writes = 0, slowest = 0;
+				for (int r = PRELOADED; r < RIDERS && !done.get(); r++) {
+					long begin = System.nanoTime();
+					if (globalLock) {
+						synchronized (portal) {
+							portal.registerRiderResultsInStage(stageId, riderIds[r], times(noon, r));
+						}
+					} else {
+						portal.registerRiderResultsInStage(stageId, riderIds[r], times(noon, r));
+					}
+					slowest = Math.max(slowest, System.nanoTime() - begin);
+					writes++;
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+				}
+				return new long[] { writes, slowest };
+			});
+			Thread.sleep(DURATION_MILLIS);
+			done.set(true);
+			long reads = 0;
+			for (Future<Long> reader : readers) reads += reader.get();
+			long[] writes = writer.get();
+			System.out.printf("%12s %14.0f %16.0f %18.1f%n", name, reads * 1000.0 / DURATION_MILLIS,
+					writes[0] * 1000.0 / DURATION_MILLIS, writes[1] / 1e3);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	private static LocalTime[] times(LocalTime noon, int r) {
+		return new LocalTime[] { noon, noon.plusSeconds(3600 + r % 600), noon.plusSeconds(7200 + r * 7 % RIDERS) };
+	}
+}
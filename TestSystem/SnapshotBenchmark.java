@@ -0,0 +1,108 @@
+import cycling.*;
+
+import java.io.*;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Saves and loads a portal of a million results in each {@link SnapshotFormat}, printing the mean times and the
+ * size of each file. For reference, the same results are also saved as the portal used to save them: a map from
+ * each rider to their {@link LocalDateTime}s for each stage, through an unbuffered {@link ObjectOutputStream}.
+ */
+public class SnapshotBenchmark {
+	static final int STAGES = 20;
+	static final int RIDERS = 50_000;
+	static final int SPRINTS = 3;
+	static final int WARM_UPS = 5;
+	static final int RUNS = 10;
+	/**
+	 * The legacy format takes seconds per run, so it is run fewer times.
+	 */
+	static final int LEGACY_RUNS = 2;
+	static final ArrayList<HashMap<Rider, LocalDateTime[]>> legacyResults = new ArrayList<>();
+	public static void main(String[] args) throws Exception {
+		CyclingPortalImpl portal = portal(new Random(1));
+		File file = File.createTempFile("portal", ".snapshot");
+		try {
+			System.out.printf("%d results%n", STAGES * RIDERS);
+			System.out.printf("%20s %12s %12s %10s%n", "format", "save (ms)", "load (ms)", "size (MB)");
+			double[] legacy = time(() -> saveLegacy(file), () -> loadLegacy(file), 1, LEGACY_RUNS);
+			System.out.printf("%20s %12.1f %12.1f %10.1f%n", "legacy", legacy[0], legacy[1], file.length() / 1e6);
+			for (SnapshotFormat format : SnapshotFormat.values()) {
+				double[] times = time(() -> portal.saveCyclingPortal(file.getPath(), format),
+						() -> new CyclingPortalImpl().loadCyclingPortal(file.getPath()), WARM_UPS, RUNS);
+				System.out.printf("%20s %12.1f %12.1f %10.1f%n", format, times[0], times[1], file.length() / 1e6);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	interface Task {
+		void run() throws Exception;
+	}
+
+	/**
+	 * @return the mean times of a save and a load, in milliseconds.
+	 */
+	private static double[] time(Task save, Task load, int warmUps, int runs) throws Exception {
+		double[] times = new double[2];
+		for (int run = 0; run < warmUps + runs; run++) {
+			long start = System.nanoTime();
+			save.run();
+			long saved = System.nanoTime();
+			load.run();
+			long loaded = System.nanoTime();
+			if (run < warmUps) continue;
+			times[0] += (saved - start) / 1e6 / runs;
+			times[1] += (loaded - saved) / 1e6 / runs;
+		}
+		return times;
+	}
+	private static void saveLegacy(File file) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+		out.writeObject(legacyResults);
+		out.close();
+	}
+	private static void loadLegacy(File file) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+		in.readObject();
+		in.close();
+	}
+
+	private static CyclingPortalImpl portal(Random random) throws Exception {
+		CyclingPortalImpl portal = new CyclingPortalImpl();
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		int[] riderIds = new int[RIDERS];
+		Rider[] riders = new Rider[RIDERS];
+		for (int i = 0; i < RIDERS; i++) {
+			riderIds[i] = portal.createRider(teamId, "Rider" + i % 1000, 1990);
+			riders[i] = new Rider(riderIds[i], "Rider" + i % 1000, 1990);
+		}
+		int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+		LocalDateTime start = LocalDateTime.of(2024, 7, 1, 8, 0);
+		for (int s = 0; s < STAGES; s++) {
+			int stageId = portal.addStageToRace(raceId, "Stage" + s, "Carry an egg", 200, start.plusDays(s),
+					StageType.FLAT);
+			for (int i = 0; i < SPRINTS; i++) portal.addIntermediateSprintToStage(stageId, 10 + i * 40);
+			portal.concludeStagePreparation(stageId);
+			ResultBatch batch = new ResultBatch(RIDERS, RIDERS * (SPRINTS + 2));
+			LocalTime[] times = new LocalTime[SPRINTS + 2];
+			HashMap<Rider, LocalDateTime[]> legacy = new HashMap<>();
+			for (int r = 0; r < RIDERS; r++) {
+				times[0] = start.toLocalTime();
+				for (int i = 1; i < times.length; i++) times[i] = times[i - 1].plusSeconds(1800 + random.nextInt(1800));
+				batch.add(riderIds[r], times);
+				LocalDateTime[] dateTimes = new LocalDateTime[times.length];
+				for (int i = 0; i < times.length; i++) dateTimes[i] = start.plusDays(s).with(times[i]);
+				legacy.put(riders[r], dateTimes);
+			}
+			legacyResults.add(legacy);
+			portal.registerRiderResultsInStage(stageId, batch);
+		}
+		return portal;
+	}
+}
@@ -0,0 +1,84 @@
+import cycling.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Stands in for a stage's timing hardware: starts a {@link TimingIngestServer} on localhost and replays a recorded
+ * stage into it with a {@link TimingIngestClient}, then prints how fast the crossings were sent and registered.
+ * <p>
+ * Arguments: speed-up (default max, as fast as possible), then optionally a chip-timing file in the format read by
+ * {@link ResultFileImporter}, {@code riderId,HH:MM:SS[.fffffffff],...}; each of its riders is replayed as a new rider
+ * of the portal. Without a file, a seeded stage of 20,000 riders with three checkpoints is replayed.
+ */
+public class TimingReplay {
+	static final int RIDERS = 20_000;
+	static final int CHECKPOINTS = 3;
+	public static void main(String[] args) throws Exception {
+		double speedUp = args.length > 0 && !args[0].equals("max") ? Double.parseDouble(args[0]) : Double.POSITIVE_INFINITY;
+		long[][] times = args.length > 1 ? read(Path.of(args[1])) : generate(new Random(42));
+		int width = times[0].length;
+		ConcurrentCyclingPortal portal = new ConcurrentCyclingPortal();
+		int teamId = portal.createTeam("Apes", "Zoo escapees");
+		int[] riderIds = new int[times.length];
+		for (int i = 0; i < riderIds.length; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990);
+		int stageId = portal.addStageToRace(portal.createRace("Egg&Spoon", null), "Stage", null, 200,
+				LocalDateTime.of(2024, 7, 1, 0, 0), StageType.FLAT);
+		for (int i = 0; i < width - 2; i++) portal.addIntermediateSprintToStage(stageId, 20 + i * 40);
+		portal.concludeStagePreparation(stageId);
+		System.out.printf("replaying %d riders, %d crossings, at %s speed%n", times.length, times.length * width,
+				Double.isInfinite(speedUp) ? "maximum" : speedUp + "x");
+		try (TimingIngestServer server = new TimingIngestServer(portal, new InetSocketAddress("localhost", 0))) {
+			long start = System.nanoTime();
+			try (TimingIngestClient client = new TimingIngestClient(new InetSocketAddress("localhost", server.getPort()))) {
+				client.replay(stageId, riderIds, times, speedUp);
+			}
+			double sent = (System.nanoTime() - start) / 1e9;
+			while (server.getResultsRegistered() + server.getResultsRejected() < times.length) Thread.sleep(1);
+			double registered = (System.nanoTime() - start) / 1e9;
+			System.out.printf("sent in %.3f s (%.0f frames/s), registered in %.3f s (%.0f results/s)%n", sent,
+					server.getFramesReceived() / sent, registered, server.getResultsRegistered() / registered);
+			System.out.printf("%d frames rejected, %d results rejected; leader %d%n", server.getFramesRejected(),
+					server.getResultsRejected(), portal.getRidersRankInStage(stageId)[0]);
+		}
+	}
+
+	/**
+	 * @return each rider's times from a chip-timing file, in nanoseconds of the day.
+	 */
+	private static long[][] read(Path file) throws IOException {
+		ArrayList<long[]> times = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.isBlank()) continue;
+				String[] fields = line.split(",");
+				long[] rider = new long[fields.length - 1];
+				for (int i = 0; i < rider.length; i++) rider[i] = LocalTime.parse(fields[i + 1].trim()).toNanoOfDay();
+				times.add(rider);
+			}
+		}
+		return times.toArray(new long[0][]);
+	}
+
+	/**
+	 * @return times for a stage starting at noon, with riders reaching each critical point in bunches.
+	 */
+	private static long[][] generate(Random random) {
+		long[][] times = new long[RIDERS][CHECKPOINTS + 2];
+		for (long[] rider : times) {
+			rider[0] = LocalTime.NOON.toNanoOfDay();
+			for (int i = 1; i < rider.length; i++) {
+				rider[i] = rider[i - 1] + 3_000_000_000_000L + random.nextInt(10) * 60_000_000_000L
+						+ random.nextInt(1_000) * 1_000_000L;
+			}
+		}
+		return times;
+	}
+}
@@ -0,0 +1,31 @@
+package cycling.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Steps through the stages and riders of a {@link PortalState}, so successive calls do not all hit the same entity.
+ * One per benchmark thread.
+ *
+ * @author Marcus Carter
+ */
+@State(Scope.Thread)
+public class Cursor {
+    private int stage;
+    private int rider;
+
+    @Override
+    public String toString() {
+        return "Cursor[stage="+stage+", rider="+rider+"]";
+    }
+
+    int nextStage(PortalState state) {
+        if (++stage >= state.stageIds.length) stage = 0;
+        return stage;
+    }
+    int nextRider(PortalState state) {
+        rider += 7919;
+        if (rider >= state.riderIds.length) rider %= state.riderIds.length;
+        return rider;
+    }
+}
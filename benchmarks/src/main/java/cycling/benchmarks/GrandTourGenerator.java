@@ -0,0 +1,378 @@
+package cycling.benchmarks;
+
+import cycling.CheckpointType;
+import cycling.ConcurrentCyclingPortal;
+import cycling.CyclingPortalImpl;
+import cycling.MiniCyclingPortal;
+import cycling.ResultBatch;
+import cycling.StageType;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Generates Grand Tours for benchmarks and soak tests: races of 21 stages with the usual mix of flat, medium-mountain,
+ * high-mountain and time-trial stages, sprints and categorized climbs of every category, and a peloton of any size in
+ * teams of eight.
+ * <p>
+ * Everything is drawn from a {@link SplittableRandom} seeded from the generator's seed and the race and stage, so the
+ * same seed always gives the same tours, whatever portal they are put in and in whatever order. Each rider has a
+ * climbing and a time-trial ability that carry over from stage to stage. On road stages the riders finish in bunches:
+ * within a bunch each rider finishes less than a second behind the one ahead, and bunches are more than a second
+ * apart, so the one-second gap rule of {@link MiniCyclingPortal#getRiderAdjustedElapsedTimeInStage(int, int)} always
+ * has groups to find. Flat stages mostly finish in one large bunch and mountain stages in many small ones; gaps shrink
+ * as the peloton grows, so even a peloton of 100,000 finishes within the day. A few riders abandon each stage, and
+ * have no results from then on.
+ *
+ * @author Marcus Carter
+ */
+public class GrandTourGenerator {
+    public static final int STAGES_PER_RACE = 21;
+    public static final int RIDERS_PER_TEAM = 8;
+    /**
+     * The type of each stage of a race: a prologue and a late time trial, with the mountains building up over the
+     * three weeks.
+     */
+    static final StageType[] STAGE_TYPES = {
+            StageType.TT, StageType.FLAT, StageType.FLAT, StageType.MEDIUM_MOUNTAIN, StageType.FLAT,
+            StageType.HIGH_MOUNTAIN, StageType.FLAT, StageType.MEDIUM_MOUNTAIN, StageType.HIGH_MOUNTAIN,
+            StageType.FLAT, StageType.FLAT, StageType.MEDIUM_MOUNTAIN, StageType.HIGH_MOUNTAIN,
+            StageType.HIGH_MOUNTAIN, StageType.FLAT, StageType.MEDIUM_MOUNTAIN, StageType.HIGH_MOUNTAIN,
+            StageType.FLAT, StageType.HIGH_MOUNTAIN, StageType.TT, StageType.FLAT };
+    private static final double ABANDON_RATE = 0.003;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int BATCH_SIZE = 1 << 16;
+    private final long seed;
+    private final int numRaces;
+    private final int pelotonSize;
+    private long numResults;
+
+    /**
+     * The course of one stage.
+     */
+    static final class StagePlan {
+        final StageType type;
+        final double length;
+        final LocalDateTime start;
+        /**
+         * The type of each checkpoint, in order along the stage.
+         */
+        final CheckpointType[] checkpointTypes;
+        /**
+         * The location of each checkpoint, as a fraction of the length of the stage.
+         */
+        final double[] checkpointFractions;
+
+        StagePlan(StageType type, double length, LocalDateTime start, CheckpointType[] checkpointTypes,
+                double[] checkpointFractions) {
+            this.type = type;
+            this.length = length;
+            this.start = start;
+            this.checkpointTypes = checkpointTypes;
+            this.checkpointFractions = checkpointFractions;
+        }
+        @Override
+        public String toString() {
+            return "StagePlan[type="+type+", length="+length+", numCheckpoints="+checkpointTypes.length+"]";
+        }
+
+        int width() { return checkpointTypes.length + 2; }
+    }
+
+    /**
+     * @param seed the seed every tour is drawn from.
+     * @param numRaces the number of races to generate.
+     * @param pelotonSize the number of riders starting each race, such as 176 for 22 teams of eight.
+     */
+    public GrandTourGenerator(long seed, int numRaces, int pelotonSize) {
+        if (numRaces < 1 || pelotonSize < 1) throw new IllegalArgumentException("numRaces and pelotonSize must be positive");
+        this.seed = seed;
+        this.numRaces = numRaces;
+        this.pelotonSize = pelotonSize;
+    }
+    @Override
+    public String toString() {
+        return "GrandTourGenerator[seed="+seed+", numRaces="+numRaces+", pelotonSize="+pelotonSize+"]";
+    }
+
+    /**
+     * @return the number of results registered by the last call to {@link #fill(MiniCyclingPortal)}.
+     */
+    public long getNumResults() { return numResults; }
+
+    /**
+     * Adds the races, their stages and checkpoints, and the teams and riders of each race to a portal, and registers
+     * every result. Results are registered in batches if the portal is a {@link CyclingPortalImpl} or a
+     * {@link ConcurrentCyclingPortal}, and one rider at a time otherwise.
+     *
+     * @param portal the portal to fill, which must not already hold races or teams with the generated names.
+     * @return the ids of the races.
+     * @throws Exception if the portal rejects anything generated.
+     */
+    public int[] fill(MiniCyclingPortal portal) throws Exception {
+        numResults = 0;
+        int[] raceIds = new int[numRaces];
+        ResultBatch batch = new ResultBatch(Math.min(pelotonSize, BATCH_SIZE), Math.min(pelotonSize, BATCH_SIZE) * 16);
+        for (int race = 0; race < numRaces; race++) {
+            raceIds[race] = portal.createRace("GrandTour" + race, "Three weeks, " + STAGES_PER_RACE + " stages");
+            int[] teamIds = new int[(pelotonSize + RIDERS_PER_TEAM - 1) / RIDERS_PER_TEAM];
+            for (int t = 0; t < teamIds.length; t++) teamIds[t] = portal.createTeam("GT" + race + "-T" + t, null);
+            int[] riderIds = new int[pelotonSize];
+            for (int r = 0; r < pelotonSize; r++) {
+                riderIds[r] = portal.createRider(teamIds[r / RIDERS_PER_TEAM], "Rider" + r, 1985 + r % 18);
+            }
+            double[][] abilities = abilities(race);
+            boolean[] abandoned = new boolean[pelotonSize];
+            for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                StagePlan plan = plan(race, stage);
+                int stageId = portal.addStageToRace(raceIds[race], "GT" + race + "-S" + stage, null, plan.length,
+                        plan.start, plan.type);
+                for (int c = 0; c < plan.checkpointTypes.length; c++) {
+                    double location = plan.length * plan.checkpointFractions[c];
+                    if (plan.checkpointTypes[c] == CheckpointType.SPRINT) {
+                        portal.addIntermediateSprintToStage(stageId, location);
+                    } else {
+                        SplittableRandom random = random(race, stage, c + 1);
+                        portal.addCategorizedClimbToStage(stageId, location, plan.checkpointTypes[c],
+                                3.0 + random.nextDouble(7.0), 2.0 + random.nextDouble(18.0));
+                    }
+                }
+                portal.concludeStagePreparation(stageId);
+                long[] times = times(race, stage, plan, abilities, abandoned);
+                register(portal, stageId, riderIds, abandoned, times, plan.width(), batch);
+            }
+        }
+        return raceIds;
+    }
+
+    /**
+     * Fills a new portal and saves it, so it can be loaded with {@link MiniCyclingPortal#loadCyclingPortal(String)}.
+     *
+     * @param file the file to save the portal to.
+     * @return the number of results saved.
+     * @throws Exception if the portal cannot be filled or saved.
+     */
+    public long dump(Path file) throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        fill(portal);
+        portal.saveCyclingPortal(file.toString());
+        return numResults;
+    }
+
+    /**
+     * Plans the course of a stage.
+     *
+     * @param race the index of the race.
+     * @param stage the index of the stage within the race.
+     * @return the stage's type, length, start and checkpoints.
+     */
+    StagePlan plan(int race, int stage) {
+        SplittableRandom random = random(race, stage, 0);
+        StageType type = STAGE_TYPES[stage];
+        LocalDate day = LocalDate.of(2025, 5, 9).plusDays(stage + (stage >= 9 ? 1 : 0) + (stage >= 15 ? 1 : 0));
+        if (type == StageType.TT) {
+            return new StagePlan(type, 15 + random.nextInt(31), day.atTime(9, 0), new CheckpointType[0], new double[0]);
+        }
+        CheckpointType[] climbs;
+        double length;
+        switch (type) {
+            case FLAT:
+                length = 160 + random.nextInt(71);
+                climbs = new CheckpointType[random.nextInt(3)];
+                for (int i = 0; i < climbs.length; i++) climbs[i] = random.nextBoolean() ? CheckpointType.C4 : CheckpointType.C3;
+                break;
+            case MEDIUM_MOUNTAIN:
+                length = 150 + random.nextInt(51);
+                climbs = new CheckpointType[2 + random.nextInt(3)];
+                climbs[0] = CheckpointType.C4;
+                for (int i = 1; i < climbs.length; i++) {
+                    climbs[i] = new CheckpointType[] { CheckpointType.C4, CheckpointType.C3, CheckpointType.C2 }[random.nextInt(3)];
+                }
+                break;
+            default:
+                length = 120 + random.nextInt(71);
+                climbs = new CheckpointType[4 + random.nextInt(3)];
+                climbs[0] = CheckpointType.C3;
+                climbs[1] = CheckpointType.C2;
+                for (int i = 2; i < climbs.length - 2; i++) {
+                    climbs[i] = new CheckpointType[] { CheckpointType.C3, CheckpointType.C2, CheckpointType.C1 }[random.nextInt(3)];
+                }
+                climbs[climbs.length - 2] = CheckpointType.C1;
+                climbs[climbs.length - 1] = CheckpointType.HC;
+        }
+        int numSprints = type == StageType.FLAT ? 1 + random.nextInt(2) : 1;
+        CheckpointType[] types = new CheckpointType[numSprints + climbs.length];
+        double[] fractions = new double[types.length];
+        for (int s = 0; s < numSprints; s++) {
+            types[s] = CheckpointType.SPRINT;
+            fractions[s] = 0.2 + 0.6 * (s + random.nextDouble()) / numSprints;
+        }
+        for (int c = 0; c < climbs.length; c++) {
+            types[numSprints + c] = climbs[c];
+            fractions[numSprints + c] = 0.1 + 0.88 * (c + 0.2 + 0.6 * random.nextDouble()) / climbs.length;
+        }
+        // sort the checkpoints by location, keeping each climb's type with it
+        long[] keys = new long[types.length];
+        for (int i = 0; i < keys.length; i++) keys[i] = (long) (fractions[i] * (1L << 40)) << 8 | i;
+        Arrays.sort(keys);
+        CheckpointType[] sortedTypes = new CheckpointType[types.length];
+        double[] sortedFractions = new double[types.length];
+        for (int i = 0; i < keys.length; i++) {
+            sortedTypes[i] = types[(int) (keys[i] & 0xFF)];
+            sortedFractions[i] = fractions[(int) (keys[i] & 0xFF)];
+        }
+        return new StagePlan(type, length, day.atTime(11, 30), sortedTypes, sortedFractions);
+    }
+
+    /**
+     * @return each rider's climbing ability, then their time-trial ability, as standard normal scores; lower is
+     *         stronger.
+     */
+    double[][] abilities(int race) {
+        SplittableRandom random = random(race, -1, 0);
+        double[][] abilities = new double[2][pelotonSize];
+        for (int r = 0; r < pelotonSize; r++) {
+            abilities[0][r] = gaussian(random);
+            abilities[1][r] = gaussian(random);
+        }
+        return abilities;
+    }
+
+    /**
+     * Draws the riders' times in a stage, and which of them abandon during it.
+     *
+     * @param abandoned which riders have abandoned, updated with those who abandon during this stage.
+     * @return the times each rider still in the race crossed each critical point, in nanoseconds of the day, one row
+     *         of {@link StagePlan#width()} per rider.
+     */
+    long[] times(int race, int stage, StagePlan plan, double[][] abilities, boolean[] abandoned) {
+        SplittableRandom random = random(race, stage, -1);
+        int width = plan.width();
+        long[] times = new long[pelotonSize * width];
+        long start = plan.start.toLocalTime().toNanoOfDay();
+        int n = 0;
+        for (int r = 0; r < pelotonSize; r++) {
+            if (!abandoned[r] && random.nextDouble() < ABANDON_RATE) abandoned[r] = true;
+            if (!abandoned[r]) n++;
+        }
+        if (plan.type == StageType.TT) {
+            long stagger = Math.min(60 * NANOS_PER_SECOND, 10 * 3600 * NANOS_PER_SECOND / Math.max(1, n));
+            long duration = (long) (plan.length / 48.0 * 3600 * NANOS_PER_SECOND);
+            int order = 0;
+            for (int r = 0; r < pelotonSize; r++) {
+                if (abandoned[r]) continue;
+                long riderStart = start + order++ * stagger;
+                double form = 0.04 * (0.7 * abilities[1][r] + 0.3 * gaussian(random));
+                times[r * width] = riderStart;
+                times[r * width + 1] = riderStart + (long) (duration * (1 + Math.max(-0.12, form)));
+            }
+            return times;
+        }
+        double speed = plan.type == StageType.FLAT ? 43 : plan.type == StageType.MEDIUM_MOUNTAIN ? 39 : 33;
+        double climbing = plan.type == StageType.FLAT ? 0.1 : plan.type == StageType.MEDIUM_MOUNTAIN ? 0.5 : 0.8;
+        double breakRate = plan.type == StageType.FLAT ? 0.04 : plan.type == StageType.MEDIUM_MOUNTAIN ? 0.12 : 0.3;
+        double spread = (plan.type == StageType.FLAT ? 1800 : plan.type == StageType.MEDIUM_MOUNTAIN ? 3600 : 7200)
+                * (double) NANOS_PER_SECOND;
+        // a rider's place in the finishing order is set by their climbing and the day's form
+        long[] order = new long[n];
+        for (int r = 0, i = 0; r < pelotonSize; r++) {
+            if (abandoned[r]) continue;
+            double score = climbing * abilities[0][r] + (1 - climbing) * gaussian(random);
+            order[i++] = (long) ((score + 16) * (1 << 20)) << 24 | r;
+        }
+        Arrays.sort(order);
+        // walk down the finishing order: most riders stay in the bunch ahead, a few are dropped by more than a second
+        breakRate = Math.min(breakRate, 0.6 * spread / (1.5 * NANOS_PER_SECOND * n));
+        long breakGap = Math.max((long) (1.5 * NANOS_PER_SECOND), (long) (0.6 * spread / (n * breakRate)));
+        long bunchGap = Math.min(NANOS_PER_SECOND - 1, (long) (0.8 * spread / (n * (1 - breakRate))));
+        long finish = start + (long) (plan.length / speed * 3600 * NANOS_PER_SECOND);
+        for (int i = 0; i < n; i++) {
+            int r = (int) (order[i] & 0xFFFFFF);
+            if (i > 0) {
+                finish += random.nextDouble() < breakRate
+                        ? NANOS_PER_SECOND + 1 + random.nextLong(2 * breakGap - NANOS_PER_SECOND)
+                        : random.nextLong(bunchGap + 1);
+            }
+            int row = r * width;
+            times[row] = start;
+            times[row + width - 1] = finish;
+            long elapsed = finish - start;
+            long previous = start;
+            for (int c = 0; c < plan.checkpointTypes.length; c++) {
+                double fraction = plan.checkpointFractions[c];
+                long jitter = (long) (fraction * (random.nextDouble() - 0.5) * 60 * NANOS_PER_SECOND);
+                long time = Math.max(previous + 1, start + (long) (fraction * elapsed) + jitter);
+                times[row + 1 + c] = Math.min(finish - (plan.checkpointTypes.length - c), time);
+                previous = times[row + 1 + c];
+            }
+        }
+        return times;
+    }
+    private void register(MiniCyclingPortal portal, int stageId, int[] riderIds, boolean[] abandoned, long[] times,
+            int width, ResultBatch batch) throws Exception {
+        boolean batched = portal instanceof CyclingPortalImpl || portal instanceof ConcurrentCyclingPortal;
+        batch.clear();
+        LocalTime[] riderTimes = new LocalTime[width];
+        for (int r = 0; r < riderIds.length; r++) {
+            if (abandoned[r]) continue;
+            numResults++;
+            if (!batched) {
+                for (int i = 0; i < width; i++) riderTimes[i] = LocalTime.ofNanoOfDay(times[r * width + i]);
+                portal.registerRiderResultsInStage(stageId, riderIds[r], riderTimes);
+                continue;
+            }
+            batch.add(riderIds[r], times, r * width, width);
+            if (batch.size() == BATCH_SIZE) registerBatch(portal, stageId, batch);
+        }
+        if (batched && !batch.isEmpty()) registerBatch(portal, stageId, batch);
+    }
+    private static void registerBatch(MiniCyclingPortal portal, int stageId, ResultBatch batch) throws Exception {
+        if (portal instanceof ConcurrentCyclingPortal) {
+            ((ConcurrentCyclingPortal) portal).registerRiderResultsInStage(stageId, batch);
+        } else {
+            ((CyclingPortalImpl) portal).registerRiderResultsInStage(stageId, batch);
+        }
+        batch.clear();
+    }
+
+    /**
+     * @return a random number generator for one part of one stage, independent of every other.
+     */
+    private SplittableRandom random(int race, int stage, int part) {
+        long mixed = seed;
+        mixed = mixed * 0x9E3779B97F4A7C15L + race;
+        mixed = mixed * 0x9E3779B97F4A7C15L + stage;
+        mixed = mixed * 0x9E3779B97F4A7C15L + part;
+        return new SplittableRandom(mixed);
+    }
+    private static double gaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * Generates tours into a new portal and prints how fast their results were registered, or saves them to a file.
+     * <p>
+     * Arguments: seed (default 1), races (default 1), peloton size (default 176), then optionally a file to save the
+     * portal to.
+     */
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int numRaces = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int pelotonSize = args.length > 2 ? Integer.parseInt(args[2]) : 176;
+        GrandTourGenerator generator = new GrandTourGenerator(seed, numRaces, pelotonSize);
+        long start = System.nanoTime();
+        if (args.length > 3) {
+            generator.dump(Path.of(args[3]));
+        } else {
+            generator.fill(new CyclingPortalImpl());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %d results in %.2f s (%.0f results/s)%s%n", generator, generator.getNumResults(),
+                seconds, generator.getNumResults() / seconds, args.length > 3 ? ", saved to " + args[3] : "");
+    }
+}
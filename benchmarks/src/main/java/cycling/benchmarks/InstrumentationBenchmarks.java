@@ -0,0 +1,70 @@
+package cycling.benchmarks;
+
+import cycling.IDNotRecognisedException;
+import cycling.InstrumentedCyclingPortal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of timing calls with an {@link InstrumentedCyclingPortal}: cheap queries, straight to the portal and
+ * through the instrumented one, so the difference is the overhead per call.
+ *
+ * @author Marcus Carter
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentationBenchmarks {
+    @Benchmark
+    public double getStageLength(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getStageLength(state.stageIds[cursor.nextStage(state)]);
+    }
+    @Benchmark
+    public double getStageLengthInstrumented(PortalState state, Instrumented instrumented, Cursor cursor)
+            throws IDNotRecognisedException {
+        return instrumented.portal.getStageLength(state.stageIds[cursor.nextStage(state)]);
+    }
+    @Benchmark
+    public LocalTime getRiderAdjustedElapsedTimeInStage(PortalState state, Cursor cursor)
+            throws IDNotRecognisedException {
+        return state.portal.getRiderAdjustedElapsedTimeInStage(state.stageIds[cursor.nextStage(state)],
+                state.riderIds[cursor.nextRider(state)]);
+    }
+    @Benchmark
+    public LocalTime getRiderAdjustedElapsedTimeInStageInstrumented(PortalState state, Instrumented instrumented,
+            Cursor cursor) throws IDNotRecognisedException {
+        return instrumented.portal.getRiderAdjustedElapsedTimeInStage(state.stageIds[cursor.nextStage(state)],
+                state.riderIds[cursor.nextRider(state)]);
+    }
+
+    /**
+     * The portal of a {@link PortalState}, instrumented, timing every call or a sample of them.
+     */
+    @State(Scope.Benchmark)
+    public static class Instrumented {
+        @Param({ "1", "16" })
+        public int sampleInterval;
+
+        InstrumentedCyclingPortal portal;
+
+        @Setup(Level.Trial)
+        public void setUp(PortalState state) {
+            portal = new InstrumentedCyclingPortal(state.portal, sampleInterval);
+        }
+    }
+}
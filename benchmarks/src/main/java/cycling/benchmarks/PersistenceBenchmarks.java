@@ -0,0 +1,87 @@
+package cycling.benchmarks;
+
+import cycling.CyclingPortalImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving, loading and erasing a full portal.
+ *
+ * @author Marcus Carter
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmarks {
+    @Benchmark
+    public void saveCyclingPortal(PortalState state, Snapshot snapshot) throws IOException {
+        state.portal.saveCyclingPortal(snapshot.saved);
+    }
+    @Benchmark
+    public CyclingPortalImpl loadCyclingPortal(Snapshot snapshot) throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        portal.loadCyclingPortal(snapshot.loaded);
+        return portal;
+    }
+    @Benchmark
+    public CyclingPortalImpl eraseCyclingPortal(LoadedPortal loaded) {
+        loaded.portal.eraseCyclingPortal();
+        return loaded.portal;
+    }
+
+    /**
+     * A snapshot of the portal to load, and a file to save it to.
+     */
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+        String loaded;
+        String saved;
+
+        @Setup(Level.Trial)
+        public void setUp(PortalState state) throws IOException {
+            loaded = temporaryFile();
+            saved = temporaryFile();
+            state.portal.saveCyclingPortal(loaded);
+        }
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            new File(loaded).delete();
+            new File(saved).delete();
+        }
+    }
+
+    /**
+     * A full portal, filled afresh before every call, since erasing it empties it.
+     */
+    @State(Scope.Thread)
+    public static class LoadedPortal {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+
+        @Setup(Level.Invocation)
+        public void setUp(Snapshot snapshot) throws Exception {
+            portal.loadCyclingPortal(snapshot.loaded);
+        }
+    }
+
+    static String temporaryFile() throws IOException {
+        File file = File.createTempFile("portal", ".snapshot");
+        file.deleteOnExit();
+        return file.getPath();
+    }
+}
@@ -0,0 +1,26 @@
+package cycling.benchmarks;
+
+/**
+ * Runs the benchmarks, passing the arguments on to JMH, with the GC profiler added so each result comes with its
+ * allocation rate, unless another profiler is asked for. For example, to run only the query benchmarks on the
+ * largest peloton:
+ * <pre>java -jar benchmarks/target/benchmarks.jar QueryBenchmarks -p ridersPerStage=10000</pre>
+ *
+ * @author Marcus Carter
+ */
+public class PortalBenchmarks {
+    private PortalBenchmarks() {}
+
+    public static void main(String[] args) throws Exception {
+        boolean profiled = false;
+        for (String arg : args) profiled |= arg.equals("-prof") || arg.equals("-lprof") || arg.startsWith("-h");
+        if (!profiled) {
+            String[] withProfiler = new String[args.length + 2];
+            withProfiler[0] = "-prof";
+            withProfiler[1] = "gc";
+            System.arraycopy(args, 0, withProfiler, 2, args.length);
+            args = withProfiler;
+        }
+        org.openjdk.jmh.Main.main(args);
+    }
+}
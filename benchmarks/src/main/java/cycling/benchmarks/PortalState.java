@@ -0,0 +1,109 @@
+package cycling.benchmarks;
+
+import cycling.CheckpointType;
+import cycling.CyclingPortalImpl;
+import cycling.StageType;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * A {@link CyclingPortalImpl} holding one race, with every rider's results registered in every stage, at the scale
+ * given by the parameters.
+ * <p>
+ * Stages cycle through flat, medium-mountain and high-mountain, so every stage has checkpoints; each third checkpoint
+ * is an intermediate sprint and the rest are climbs of every category in turn. Riders are in teams of eight, and reach
+ * each critical point in bunches, so the one-second gap rule groups some of them.
+ *
+ * @author Marcus Carter
+ */
+@State(Scope.Benchmark)
+public class PortalState {
+    static final double STAGE_LENGTH = 200;
+    static final int RIDERS_PER_TEAM = 8;
+    static final LocalDateTime START = LocalDateTime.of(2024, 7, 1, 12, 0);
+    static final StageType[] STAGE_TYPES = { StageType.FLAT, StageType.MEDIUM_MOUNTAIN, StageType.HIGH_MOUNTAIN };
+    static final CheckpointType[] CLIMB_TYPES = { CheckpointType.C4, CheckpointType.C3, CheckpointType.C2,
+            CheckpointType.C1, CheckpointType.HC };
+
+    @Param({ "176", "1000", "10000" })
+    public int ridersPerStage;
+    @Param({ "7", "21" })
+    public int stagesPerRace;
+    @Param({ "4", "12" })
+    public int checkpointsPerStage;
+
+    public CyclingPortalImpl portal;
+    public int raceId;
+    public int[] teamIds;
+    public int[] riderIds;
+    public int[] stageIds;
+    /**
+     * A counter for names that must be unique.
+     */
+    private int names;
+
+    @Override
+    public String toString() {
+        return "PortalState[ridersPerStage="+ridersPerStage+", stagesPerRace="+stagesPerRace+
+                ", checkpointsPerStage="+checkpointsPerStage+"]";
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        portal = new CyclingPortalImpl();
+        teamIds = new int[(ridersPerStage + RIDERS_PER_TEAM - 1) / RIDERS_PER_TEAM];
+        for (int t = 0; t < teamIds.length; t++) teamIds[t] = portal.createTeam("Team" + t, null);
+        riderIds = new int[ridersPerStage];
+        for (int r = 0; r < riderIds.length; r++) {
+            riderIds[r] = portal.createRider(teamIds[r / RIDERS_PER_TEAM], "Rider" + r, 1980 + r % 20);
+        }
+        raceId = portal.createRace("GrandTour", "Three weeks");
+        stageIds = new int[stagesPerRace];
+        for (int s = 0; s < stageIds.length; s++) {
+            stageIds[s] = addStage(portal, raceId, "Stage" + s, s);
+            for (int r = 0; r < riderIds.length; r++) {
+                portal.registerRiderResultsInStage(stageIds[s], riderIds[r], times(s, r));
+            }
+        }
+    }
+
+    /**
+     * Adds a stage with its checkpoints to a race and concludes its preparation.
+     *
+     * @return the id of the stage.
+     */
+    int addStage(CyclingPortalImpl portal, int raceId, String name, int index) throws Exception {
+        int stageId = portal.addStageToRace(raceId, name, null, STAGE_LENGTH, START.plusDays(index),
+                STAGE_TYPES[index % STAGE_TYPES.length]);
+        for (int c = 0; c < checkpointsPerStage; c++) {
+            double location = STAGE_LENGTH * (c + 1) / (checkpointsPerStage + 1);
+            if (c % 3 == 0) {
+                portal.addIntermediateSprintToStage(stageId, location);
+            } else {
+                portal.addCategorizedClimbToStage(stageId, location, CLIMB_TYPES[c % CLIMB_TYPES.length], 6.5, 8.0);
+            }
+        }
+        portal.concludeStagePreparation(stageId);
+        return stageId;
+    }
+
+    /**
+     * @return the times a rider crosses each critical point of a stage: the start, every checkpoint, then the finish.
+     */
+    LocalTime[] times(int stage, int rider) {
+        LocalTime[] times = new LocalTime[checkpointsPerStage + 2];
+        times[0] = START.toLocalTime();
+        for (int c = 1; c < times.length; c++) {
+            int bunch = (rider * 31 + stage * 7 + c * 13) % 97 / 8;
+            times[c] = times[c - 1].plusSeconds(1200 + bunch * 20L).plusNanos((rider % 8) * 100_000_000L);
+        }
+        return times;
+    }
+    String uniqueName(String prefix) { return prefix + names++; }
+}
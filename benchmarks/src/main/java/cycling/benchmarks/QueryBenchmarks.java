@@ -0,0 +1,87 @@
+package cycling.benchmarks;
+
+import cycling.IDNotRecognisedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The MiniCyclingPortal queries, which leave the portal unchanged. Rankings and points are cached per stage, so the
+ * ranking queries here measure a cache hit; {@link ResultBenchmarks} measures them after the stage changes.
+ *
+ * @author Marcus Carter
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmarks {
+    @Benchmark
+    public int[] getRaceIds(PortalState state) {
+        return state.portal.getRaceIds();
+    }
+    @Benchmark
+    public String viewRaceDetails(PortalState state) throws IDNotRecognisedException {
+        return state.portal.viewRaceDetails(state.raceId);
+    }
+    @Benchmark
+    public int getNumberOfStages(PortalState state) throws IDNotRecognisedException {
+        return state.portal.getNumberOfStages(state.raceId);
+    }
+    @Benchmark
+    public int[] getRaceStages(PortalState state) throws IDNotRecognisedException {
+        return state.portal.getRaceStages(state.raceId);
+    }
+    @Benchmark
+    public double getStageLength(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getStageLength(state.stageIds[cursor.nextStage(state)]);
+    }
+    @Benchmark
+    public int[] getStageCheckpoints(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getStageCheckpoints(state.stageIds[cursor.nextStage(state)]);
+    }
+    @Benchmark
+    public int[] getTeams(PortalState state) {
+        return state.portal.getTeams();
+    }
+    @Benchmark
+    public int[] getTeamRiders(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getTeamRiders(state.teamIds[cursor.nextRider(state) / PortalState.RIDERS_PER_TEAM]);
+    }
+    @Benchmark
+    public LocalTime[] getRiderResultsInStage(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getRiderResultsInStage(state.stageIds[cursor.nextStage(state)],
+                state.riderIds[cursor.nextRider(state)]);
+    }
+    @Benchmark
+    public LocalTime getRiderAdjustedElapsedTimeInStage(PortalState state, Cursor cursor)
+            throws IDNotRecognisedException {
+        return state.portal.getRiderAdjustedElapsedTimeInStage(state.stageIds[cursor.nextStage(state)],
+                state.riderIds[cursor.nextRider(state)]);
+    }
+    @Benchmark
+    public int[] getRidersRankInStage(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getRidersRankInStage(state.stageIds[cursor.nextStage(state)]);
+    }
+    @Benchmark
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(PortalState state, Cursor cursor)
+            throws IDNotRecognisedException {
+        return state.portal.getRankedAdjustedElapsedTimesInStage(state.stageIds[cursor.nextStage(state)]);
+    }
+    @Benchmark
+    public int[] getRidersPointsInStage(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getRidersPointsInStage(state.stageIds[cursor.nextStage(state)]);
+    }
+    @Benchmark
+    public int[] getRidersMountainPointsInStage(PortalState state, Cursor cursor) throws IDNotRecognisedException {
+        return state.portal.getRidersMountainPointsInStage(state.stageIds[cursor.nextStage(state)]);
+    }
+}
@@ -0,0 +1,59 @@
+package cycling.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registering and deleting results, and the queries that must re-rank a stage after its results change. Each
+ * benchmark deletes a rider's result and registers it again, so the portal is the same size throughout.
+ *
+ * @author Marcus Carter
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultBenchmarks {
+    @Benchmark
+    public void deleteAndRegisterRiderResultsInStage(PortalState state, Cursor cursor) throws Exception {
+        replaceResult(state, cursor);
+    }
+    @Benchmark
+    public int[] getRidersRankInStageAfterChange(PortalState state, Cursor cursor) throws Exception {
+        return state.portal.getRidersRankInStage(replaceResult(state, cursor));
+    }
+    @Benchmark
+    public LocalTime[] getRankedAdjustedElapsedTimesInStageAfterChange(PortalState state, Cursor cursor) throws Exception {
+        return state.portal.getRankedAdjustedElapsedTimesInStage(replaceResult(state, cursor));
+    }
+    @Benchmark
+    public int[] getRidersPointsInStageAfterChange(PortalState state, Cursor cursor) throws Exception {
+        return state.portal.getRidersPointsInStage(replaceResult(state, cursor));
+    }
+    @Benchmark
+    public int[] getRidersMountainPointsInStageAfterChange(PortalState state, Cursor cursor) throws Exception {
+        return state.portal.getRidersMountainPointsInStage(replaceResult(state, cursor));
+    }
+
+    /**
+     * Deletes a rider's result in a stage and registers it again.
+     *
+     * @return the id of the stage.
+     */
+    private static int replaceResult(PortalState state, Cursor cursor) throws Exception {
+        int stage = cursor.nextStage(state);
+        int rider = cursor.nextRider(state);
+        state.portal.deleteRiderResultsInStage(state.stageIds[stage], state.riderIds[rider]);
+        state.portal.registerRiderResultsInStage(state.stageIds[stage], state.riderIds[rider], state.times(stage, rider));
+        return state.stageIds[stage];
+    }
+}
@@ -0,0 +1,100 @@
+package cycling.benchmarks;
+
+import cycling.CheckpointType;
+import cycling.StageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating and removing races, stages, checkpoints, teams and riders in a full portal. Each benchmark removes what it
+ * creates, so the portal is the same size throughout.
+ *
+ * @author Marcus Carter
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructureBenchmarks {
+    @Benchmark
+    public void createRaceAndRemoveRaceById(PortalState state) throws Exception {
+        state.portal.removeRaceById(state.portal.createRace(state.uniqueName("BenchRace"), "Benchmark"));
+    }
+
+    /**
+     * Adds a stage with its checkpoints, concludes its preparation and removes it.
+     */
+    @Benchmark
+    public void addStageToRaceAndRemoveStageById(PortalState state) throws Exception {
+        state.portal.removeStageById(state.addStage(state.portal, state.raceId, state.uniqueName("BenchStage"),
+                state.stagesPerRace));
+    }
+
+    /**
+     * Adds a climb and a sprint to a stage in preparation and removes them again.
+     */
+    @Benchmark
+    public void addCheckpointsAndRemoveCheckpoint(PortalState state, PreparedStage prepared) throws Exception {
+        int climbId = state.portal.addCategorizedClimbToStage(prepared.stageId, 50.0, CheckpointType.C1, 7.0, 9.0);
+        int sprintId = state.portal.addIntermediateSprintToStage(prepared.stageId, 120);
+        state.portal.removeCheckpoint(sprintId);
+        state.portal.removeCheckpoint(climbId);
+    }
+    @Benchmark
+    public void createTeamAndRemoveTeam(PortalState state) throws Exception {
+        state.portal.removeTeam(state.portal.createTeam(state.uniqueName("BenchTeam"), null));
+    }
+
+    /**
+     * Creates a rider, registers their results in every stage, and removes them, results and all.
+     */
+    @Benchmark
+    public void createRiderAndRemoveRider(PortalState state) throws Exception {
+        int riderId = state.portal.createRider(state.teamIds[0], "Rider", 1990);
+        for (int s = 0; s < state.stageIds.length; s++) {
+            state.portal.registerRiderResultsInStage(state.stageIds[s], riderId, state.times(s, state.riderIds.length));
+        }
+        state.portal.removeRider(riderId);
+    }
+
+    /**
+     * Creates a team of eight riders with results in every stage, and removes it, riders and results and all.
+     */
+    @Benchmark
+    public void removeTeamWithResults(PortalState state) throws Exception {
+        int teamId = state.portal.createTeam(state.uniqueName("BenchTeam"), null);
+        for (int r = 0; r < PortalState.RIDERS_PER_TEAM; r++) {
+            int riderId = state.portal.createRider(teamId, "Rider", 1990);
+            for (int s = 0; s < state.stageIds.length; s++) {
+                state.portal.registerRiderResultsInStage(state.stageIds[s], riderId, state.times(s, r));
+            }
+        }
+        state.portal.removeTeam(teamId);
+    }
+
+    /**
+     * A stage left in preparation, so checkpoints can be added to and removed from it.
+     */
+    @State(Scope.Benchmark)
+    public static class PreparedStage {
+        int stageId;
+
+        @Setup(Level.Trial)
+        public void setUp(PortalState state) throws Exception {
+            stageId = state.portal.addStageToRace(state.raceId, "Prepared", null, PortalState.STAGE_LENGTH,
+                    PortalState.START, StageType.HIGH_MOUNTAIN);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cycling.benchmarks;
+
+import cycling.CheckpointType;
+import cycling.CyclingPortalImpl;
+import cycling.MiniCyclingPortal;
+import cycling.StageType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GrandTourGeneratorTest {
+
+    @org.junit.jupiter.api.Test
+    void fill_sameSeedSameTours() throws Exception {
+        // arrange
+        CyclingPortalImpl first = new CyclingPortalImpl();
+        CyclingPortalImpl second = new CyclingPortalImpl();
+        // act
+        int[] firstRaces = new GrandTourGenerator(5, 2, 200).fill(first);
+        int[] secondRaces = new GrandTourGenerator(5, 2, 200).fill(second);
+        // assert
+        for (int race = 0; race < firstRaces.length; race++) {
+            int[] firstStages = first.getRaceStages(firstRaces[race]);
+            int[] secondStages = second.getRaceStages(secondRaces[race]);
+            assertEquals(GrandTourGenerator.STAGES_PER_RACE, firstStages.length);
+            for (int stage = 0; stage < firstStages.length; stage++) {
+                assertArrayEquals(first.getRankedAdjustedElapsedTimesInStage(firstStages[stage]),
+                        second.getRankedAdjustedElapsedTimesInStage(secondStages[stage]));
+                assertArrayEquals(first.getRidersMountainPointsInStage(firstStages[stage]),
+                        second.getRidersMountainPointsInStage(secondStages[stage]));
+            }
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void plan_coversEveryStageAndCheckpointType() {
+        // arrange
+        GrandTourGenerator generator = new GrandTourGenerator(11, 1, 176);
+        EnumSet<StageType> stageTypes = EnumSet.noneOf(StageType.class);
+        EnumSet<CheckpointType> checkpointTypes = EnumSet.noneOf(CheckpointType.class);
+        // act
+        for (int stage = 0; stage < GrandTourGenerator.STAGES_PER_RACE; stage++) {
+            GrandTourGenerator.StagePlan plan = generator.plan(0, stage);
+            stageTypes.add(plan.type);
+            for (CheckpointType type : plan.checkpointTypes) checkpointTypes.add(type);
+            for (int c = 1; c < plan.checkpointFractions.length; c++) {
+                assertTrue(plan.checkpointFractions[c - 1] < plan.checkpointFractions[c]);
+            }
+        }
+        // assert
+        assertEquals(EnumSet.allOf(StageType.class), stageTypes);
+        assertEquals(EnumSet.allOf(CheckpointType.class), checkpointTypes);
+    }
+    @org.junit.jupiter.api.Test
+    void fill_roadStagesFinishInBunches() throws Exception {
+        // arrange
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        // act
+        int[] stageIds = portal.getRaceStages(new GrandTourGenerator(3, 1, 2000).fill(portal)[0]);
+        // assert
+        for (int stage = 0; stage < stageIds.length; stage++) {
+            if (GrandTourGenerator.STAGE_TYPES[stage] == StageType.TT) continue;
+            LocalTime[] adjusted = portal.getRankedAdjustedElapsedTimesInStage(stageIds[stage]);
+            int bunches = new HashSet<>(Arrays.asList(adjusted)).size();
+            assertTrue(bunches > 1, "stage " + stage + " finished in one bunch");
+            assertTrue(bunches < adjusted.length / 2, "stage " + stage + " has " + bunches + " bunches");
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void dump_loadsBackTheSameResults() throws Exception {
+        // arrange
+        Path file = Files.createTempFile("grand-tour", ".ser");
+        CyclingPortalImpl expected = new CyclingPortalImpl();
+        int raceId = new GrandTourGenerator(9, 1, 100).fill(expected)[0];
+        // act
+        long numResults = new GrandTourGenerator(9, 1, 100).dump(file);
+        MiniCyclingPortal loaded = new CyclingPortalImpl();
+        loaded.loadCyclingPortal(file.toString());
+        Files.delete(file);
+        // assert
+        assertTrue(numResults > 0);
+        int[] expectedStages = expected.getRaceStages(raceId);
+        int[] loadedStages = loaded.getRaceStages(loaded.getRaceIds()[0]);
+        for (int stage = 0; stage < expectedStages.length; stage++) {
+            assertArrayEquals(expected.getRidersRankInStage(expectedStages[stage]),
+                    loaded.getRidersRankInStage(loadedStages[stage]));
+        }
+    }
+}
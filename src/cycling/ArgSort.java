@@ -0,0 +1,74 @@
+package cycling;
+
+/**
+ * Sorts indices by the primitive keys they point to, without boxing either.
+ *
+ * @author Marcus Carter
+ */
+public final class ArgSort {
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private ArgSort() {}
+
+    /**
+     * Sorts the indices of the keys by their keys, ascending. The sort is stable, so indices with equal keys keep
+     * their relative order.
+     *
+     * @param keys the keys to be sorted by.
+     * @return the indices of the keys, in the order of their keys.
+     */
+    public static int[] argsort(long[] keys) {
+        int[] indices = new int[keys.length];
+        for (int i = 0; i < indices.length; i++) indices[i] = i;
+        sort(keys, indices, new int[indices.length], 0, indices.length);
+        return indices;
+    }
+
+    /**
+     * Merge sorts a range of indices by their keys, using insertion sort on short ranges.
+     *
+     * @param keys the keys to be sorted by.
+     * @param indices the indices to be sorted.
+     * @param buffer scratch space the same length as the indices.
+     * @param from the start of the range, inclusive.
+     * @param to the end of the range, exclusive.
+     */
+    static void sort(long[] keys, int[] indices, int[] buffer, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int index = indices[i];
+                long key = keys[index];
+                int j = i - 1;
+                while (j >= from && keys[indices[j]] > key) {
+                    indices[j + 1] = indices[j];
+                    j--;
+                }
+                indices[j + 1] = index;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(keys, indices, buffer, from, mid);
+        sort(keys, indices, buffer, mid, to);
+        merge(keys, indices, buffer, from, mid, to);
+    }
+
+    /**
+     * Merges two adjacent sorted ranges of indices.
+     *
+     * @param keys the keys to be sorted by.
+     * @param indices the indices to be merged.
+     * @param buffer scratch space the same length as the indices.
+     * @param from the start of the first range, inclusive.
+     * @param mid the end of the first range and the start of the second.
+     * @param to the end of the second range, exclusive.
+     */
+    static void merge(long[] keys, int[] indices, int[] buffer, int from, int mid, int to) {
+        if (keys[indices[mid - 1]] <= keys[indices[mid]]) return;
+        System.arraycopy(indices, from, buffer, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) indices[k++] = keys[buffer[j]] < keys[buffer[i]] ? buffer[j++] : buffer[i++];
+        while (i < mid) indices[k++] = buffer[i++];
+        while (j < to) indices[k++] = buffer[j++];
+    }
+}
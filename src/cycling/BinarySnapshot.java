@@ -0,0 +1,540 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * The contents of a {@link CyclingPortalImpl}, in a versioned binary format:
+ * <pre>
+ * snapshot    := MAGIC version:varint nextId:varint strings teams races crc:int32
+ * strings     := count:varint (length:varint utf8Bytes)*
+ * teams       := count:varint (id name description riderCount (id name yearOfBirth)*)*
+ * races       := count:varint (id name description stageCount stage*)*
+ * stage       := id name description length:float64 startSeconds:int64 startNanos:varint type:byte
+ *                state:byte checkpointCount checkpoint* resultsLength:varint results
+ * checkpoint  := kind:byte id name type:byte location:float64 [averageGradient:float64 length:float64]
+ * results     := size:varint width:varint riderId:varint{size} (time:int64{size}){width}
+ * </pre>
+ * Unless marked otherwise, every field is an unsigned LEB128 varint; names and descriptions are indexes into the
+ * string table plus one, or zero for null. Fixed-size fields are little-endian, so the time columns are copied to
+ * and from the file in bulk. The CRC32 at the end covers every byte before it. Results are length-prefixed so a
+ * reader can skip them.
+ *
+ * @author Marcus Carter
+ */
+public class BinarySnapshot {
+    /**
+     * "CYCL", which can never begin a Java serialization stream.
+     */
+    static final int MAGIC = 0x4C435943;
+    static final int VERSION = 1;
+    private static final byte SPRINT = 0;
+    private static final byte CLIMB = 1;
+    private static final String WAITING_FOR_RESULTS = "waiting for results";
+    private final int nextId;
+    private final ArrayList<Entity> teams;
+    private final ArrayList<Entity> races;
+    private int checksum;
+    private int deltas;
+
+    public BinarySnapshot(int nextId, ArrayList<Entity> teams, ArrayList<Entity> races) {
+        this.nextId = nextId;
+        this.teams = teams;
+        this.races = races;
+    }
+    @Override
+    public String toString() {
+        return "BinarySnapshot[nextId="+nextId+", numTeams="+teams.size()+", numRaces="+races.size()+"]";
+    }
+
+    public int getNextId() { return nextId; }
+    public ArrayList<Entity> getTeams() { return teams; }
+    public ArrayList<Entity> getRaces() { return races; }
+
+    /**
+     * @return the CRC32 of the file the snapshot was read from.
+     */
+    public int getChecksum() { return checksum; }
+    void setChecksum(int checksum) { this.checksum = checksum; }
+
+    /**
+     * @return the number of {@link DeltaSnapshot deltas} applied on top of the file the snapshot was read from.
+     */
+    public int getDeltas() { return deltas; }
+    void setDeltas(int deltas) { this.deltas = deltas; }
+
+    /**
+     * @param file the file to be checked.
+     * @return true if the file begins with the magic number of a binary snapshot.
+     * @throws IOException if the file cannot be read.
+     */
+    public static boolean isBinarySnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {}
+            return !header.hasRemaining() && header.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing anything already in it. The snapshot is written to a temporary file
+     * beside it and then moved into place, so a failed write leaves the file as it was.
+     *
+     * @param file the file to be written.
+     * @return the CRC32 of the snapshot.
+     * @throws IOException if the file cannot be written.
+     */
+    public int write(Path file) throws IOException {
+        int checksum;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Output out = new Output(FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING))) {
+            out.putInt(MAGIC);
+            out.putVarint(VERSION);
+            out.putVarint(nextId);
+            HashMap<String, Integer> strings = internStrings();
+            writeStrings(out, strings);
+            out.putVarint(teams.size());
+            for (Entity team : teams) writeTeam(out, (Team) team, strings);
+            out.putVarint(races.size());
+            for (Entity entity : races) {
+                Race race = (Race) entity;
+                out.putVarint(race.id);
+                out.putVarint(ref(strings, race.name));
+                out.putVarint(ref(strings, race.description));
+                out.putVarint(race.getChildren().size());
+                for (Stage stage : race.getChildren()) writeStage(out, stage, strings);
+            }
+            checksum = out.putCrc();
+            out.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return checksum;
+    }
+
+    /**
+     * Reads a snapshot from a file, checking its version and checksum before building anything from it.
+     *
+     * @param file the file to be read.
+     * @return the snapshot.
+     * @throws IOException if the file cannot be read, is not a binary snapshot, or is corrupt.
+     */
+    public static BinarySnapshot read(Path file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * Reads a snapshot from a file, optionally leaving each stage's results in the memory-mapped file until they are
+     * first needed. A lazy read does not check the checksum, since that would read every result; a corrupt result
+     * is found only when it is read.
+     *
+     * @param file the file to be read.
+     * @param lazy whether to leave the results in the file.
+     * @return the snapshot.
+     * @throws IOException if the file cannot be read, is not a binary snapshot, or is corrupt.
+     */
+    public static BinarySnapshot read(Path file, boolean lazy) throws IOException {
+        ByteBuffer in = map(file, MAGIC, VERSION, !lazy);
+        try {
+            int nextId = getVarint(in);
+            String[] strings = readStrings(in);
+            ArrayList<Entity> teams = new ArrayList<>();
+            for (int numTeams = getVarint(in); numTeams > 0; numTeams--) teams.add(readTeam(in, strings));
+            ArrayList<Entity> races = new ArrayList<>();
+            for (int numRaces = getVarint(in); numRaces > 0; numRaces--) {
+                Race race = new Race(getVarint(in), string(strings, in), string(strings, in));
+                for (int numStages = getVarint(in); numStages > 0; numStages--) {
+                    race.getChildren().add(readStage(in, strings, lazy));
+                }
+                races.add(race);
+            }
+            if (in.hasRemaining()) throw new StreamCorruptedException("Unexpected bytes after snapshot");
+            BinarySnapshot snapshot = new BinarySnapshot(nextId, teams, races);
+            snapshot.checksum = checksumOf(in);
+            return snapshot;
+        } catch (RuntimeException e) {
+            throw new StreamCorruptedException("Malformed snapshot: " + e);
+        }
+    }
+
+    /**
+     * Maps a file, checking its magic number, version and checksum.
+     *
+     * @param file the file to be mapped.
+     * @param magic the magic number the file must begin with.
+     * @param version the version of the format the file must be in.
+     * @return the file, positioned after its version and limited before its checksum.
+     * @throws IOException if the file cannot be read, or is not in the format, or is corrupt.
+     */
+    static ByteBuffer map(Path file, int magic, int version) throws IOException {
+        return map(file, magic, version, true);
+    }
+    static ByteBuffer map(Path file, int magic, int version, boolean verify) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Snapshot too large to map: " + size + " bytes");
+            if (size < 8) throw new StreamCorruptedException("Snapshot truncated");
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != magic) throw new StreamCorruptedException("Not a snapshot in the expected format");
+            int fileVersion = getVarint(in);
+            if (fileVersion != version) throw new IOException("Unsupported snapshot version " + fileVersion);
+            if (verify) {
+                CRC32 crc = new CRC32();
+                crc.update(in.slice(0, (int) size - 4));
+                if ((int) crc.getValue() != in.getInt((int) size - 4)) {
+                    throw new StreamCorruptedException("Snapshot checksum mismatch");
+                }
+            }
+            return in.limit((int) size - 4);
+        }
+    }
+
+    /**
+     * @param in a file returned by {@link #map(Path, int, int)}.
+     * @return the checksum at the end of the file.
+     */
+    static int checksumOf(ByteBuffer in) {
+        return in.duplicate().order(in.order()).limit(in.capacity()).getInt(in.capacity() - 4);
+    }
+
+    static void writeStrings(Output out, HashMap<String, Integer> strings) throws IOException {
+        String[] table = new String[strings.size() - 1];
+        strings.forEach((string, ref) -> {
+            if (string != null) table[ref - 1] = string;
+        });
+        out.putVarint(table.length);
+        for (String string : table) out.putString(string);
+    }
+    static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[getVarint(in)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[getVarint(in)];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+    static void writeTeam(Output out, Team team, HashMap<String, Integer> strings) throws IOException {
+        out.putVarint(team.id);
+        out.putVarint(ref(strings, team.name));
+        out.putVarint(ref(strings, team.description));
+        out.putVarint(team.getChildren().size());
+        for (Rider rider : team.getChildren()) {
+            out.putVarint(rider.id);
+            out.putVarint(ref(strings, rider.name));
+            out.putVarint(rider.yearOfBirth);
+        }
+    }
+    static Team readTeam(ByteBuffer in, String[] strings) {
+        Team team = new Team(getVarint(in), string(strings, in), string(strings, in));
+        for (int numRiders = getVarint(in); numRiders > 0; numRiders--) {
+            team.getChildren().add(new Rider(getVarint(in), string(strings, in), getVarint(in)));
+        }
+        return team;
+    }
+    static void writeStage(Output out, Stage stage, HashMap<String, Integer> strings) throws IOException {
+        out.putVarint(stage.id);
+        out.putVarint(ref(strings, stage.name));
+        out.putVarint(ref(strings, stage.description));
+        out.putDouble(stage.length);
+        out.putLong(stage.start.toEpochSecond(ZoneOffset.UTC));
+        out.putVarint(stage.start.getNano());
+        out.putByte((byte) stage.type.ordinal());
+        out.putByte((byte) (stage.isInPreparation() ? 0 : 1));
+        out.putVarint(stage.getChildren().size());
+        for (Checkpoint checkpoint : stage.getChildren()) {
+            boolean climb = checkpoint instanceof Climb;
+            out.putByte(climb ? CLIMB : SPRINT);
+            out.putVarint(checkpoint.id);
+            out.putVarint(ref(strings, checkpoint.name));
+            out.putByte((byte) checkpoint.type.ordinal());
+            out.putDouble(checkpoint.location);
+            if (climb) {
+                out.putDouble(((Climb) checkpoint).averageGradient);
+                out.putDouble(((Climb) checkpoint).length);
+            }
+        }
+        ByteBuffer encodedResults = stage.getEncodedResults();
+        if (encodedResults != null) {
+            out.putVarLong(encodedResults.remaining());
+            out.putBytes(encodedResults.duplicate());
+            return;
+        }
+        ResultTable results = stage.getResults();
+        int size = results.size();
+        int width = results.width();
+        long length = varintSize(size) + varintSize(width) + (long) size * width * Long.BYTES;
+        for (int row = 0; row < size; row++) length += varintSize(results.getRiderId(row));
+        out.putVarLong(length);
+        out.putVarint(size);
+        out.putVarint(width);
+        for (int row = 0; row < size; row++) out.putVarint(results.getRiderId(row));
+        for (int i = 0; i < width; i++) out.putLongs(results.getColumn(i), size);
+    }
+    static Stage readStage(ByteBuffer in, String[] strings, boolean lazy) {
+        int id = getVarint(in);
+        String name = string(strings, in);
+        String description = string(strings, in);
+        double length = in.getDouble();
+        LocalDateTime start = LocalDateTime.ofEpochSecond(in.getLong(), getVarint(in), ZoneOffset.UTC);
+        Stage stage = new Stage(id, name, description, length, start, StageType.values()[in.get()]);
+        if (in.get() == 1) stage.setState(WAITING_FOR_RESULTS);
+        for (int numCheckpoints = getVarint(in); numCheckpoints > 0; numCheckpoints--) {
+            byte kind = in.get();
+            int checkpointId = getVarint(in);
+            String checkpointName = string(strings, in);
+            CheckpointType type = CheckpointType.values()[in.get()];
+            double location = in.getDouble();
+            stage.getChildren().add(kind == CLIMB
+                    ? new Climb(checkpointId, checkpointName, type, location, in.getDouble(), in.getDouble())
+                    : new Checkpoint(checkpointId, checkpointName, type, location));
+        }
+        int resultsLength = Math.toIntExact(getVarLong(in));
+        ByteBuffer results = in.slice(in.position(), resultsLength).order(ByteOrder.LITTLE_ENDIAN);
+        in.position(in.position() + resultsLength);
+        if (lazy) {
+            stage.setEncodedResults(results);
+        } else {
+            readResults(results, stage.getResults());
+        }
+        return stage;
+    }
+
+    /**
+     * Reads the ids of the riders in a stage's encoded results, without reading their times.
+     *
+     * @param in the encoded results; left unchanged.
+     * @return the ids of the riders, in row order.
+     */
+    static int[] readRiderIds(ByteBuffer in) {
+        in = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int size = getVarint(in);
+        getVarint(in);
+        int[] riderIds = new int[size];
+        for (int row = 0; row < size; row++) riderIds[row] = getVarint(in);
+        return riderIds;
+    }
+
+    /**
+     * Reads a stage's encoded results into its result table.
+     *
+     * @param in the encoded results; left unchanged.
+     * @param results the table to be filled.
+     */
+    static void readResults(ByteBuffer in, ResultTable results) {
+        in = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int size = getVarint(in);
+        int width = getVarint(in);
+        int[] riderIds = new int[size];
+        for (int row = 0; row < size; row++) riderIds[row] = getVarint(in);
+        long[][] columns = new long[width][size];
+        for (long[] column : columns) {
+            in.asLongBuffer().get(column);
+            in.position(in.position() + size * Long.BYTES);
+        }
+        if (in.hasRemaining()) throw new IllegalStateException("Unexpected bytes after results");
+        results.fill(width, size, riderIds, columns);
+    }
+
+    /**
+     * @return the index plus one of every distinct name and description, in order of first use.
+     */
+    private HashMap<String, Integer> internStrings() {
+        HashMap<String, Integer> strings = stringTable();
+        for (Entity team : teams) intern(strings, (Team) team);
+        for (Entity entity : races) {
+            Race race = (Race) entity;
+            intern(strings, race.name);
+            intern(strings, race.description);
+            for (Stage stage : race.getChildren()) intern(strings, stage);
+        }
+        return strings;
+    }
+
+    /**
+     * @return an empty string table, in which null holds index 0, so the first string is given 1.
+     */
+    static HashMap<String, Integer> stringTable() {
+        HashMap<String, Integer> strings = new HashMap<>();
+        strings.put(null, 0);
+        return strings;
+    }
+    static void intern(HashMap<String, Integer> strings, String string) {
+        strings.putIfAbsent(string, strings.size());
+    }
+    static void intern(HashMap<String, Integer> strings, Team team) {
+        intern(strings, team.name);
+        intern(strings, team.description);
+        for (Rider rider : team.getChildren()) intern(strings, rider.name);
+    }
+    static void intern(HashMap<String, Integer> strings, Stage stage) {
+        intern(strings, stage.name);
+        intern(strings, stage.description);
+        for (Checkpoint checkpoint : stage.getChildren()) intern(strings, checkpoint.name);
+    }
+
+    /**
+     * @return the index of a string in the table plus one, or zero for null.
+     */
+    static int ref(HashMap<String, Integer> strings, String string) {
+        return string == null ? 0 : strings.get(string);
+    }
+    static String string(String[] strings, ByteBuffer in) {
+        int ref = getVarint(in);
+        return ref == 0 ? null : strings[ref - 1];
+    }
+
+    static int getVarint(ByteBuffer in) {
+        return (int) getVarLong(in);
+    }
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Varint too long");
+    }
+    static int varintSize(int value) {
+        return varLongSize(value & 0xFFFFFFFFL);
+    }
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    /**
+     * Writes to a file channel through a heap buffer, keeping a running CRC32 of everything written.
+     */
+    static class Output implements AutoCloseable {
+        private static final int BUFFER_SIZE = 1 << 20;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+        void putDouble(double value) throws IOException {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+        }
+        void putVarint(int value) throws IOException {
+            putVarLong(value & 0xFFFFFFFFL);
+        }
+        void putVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+        void putBytes(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                ensure(1);
+                int length = Math.min(bytes.remaining(), buffer.remaining());
+                buffer.put(buffer.position(), bytes, bytes.position(), length);
+                buffer.position(buffer.position() + length);
+                bytes.position(bytes.position() + length);
+            }
+        }
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            for (int i = 0; i < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(bytes.length - i, buffer.remaining());
+                buffer.put(bytes, i, length);
+                i += length;
+            }
+        }
+
+        /**
+         * Writes the first elements of an array, in bulk.
+         */
+        void putLongs(long[] values, int length) throws IOException {
+            for (int i = 0; i < length; ) {
+                ensure(Long.BYTES);
+                int count = Math.min(length - i, buffer.remaining() / Long.BYTES);
+                buffer.asLongBuffer().put(values, i, count);
+                buffer.position(buffer.position() + count * Long.BYTES);
+                i += count;
+            }
+        }
+
+        /**
+         * Writes the CRC32 of everything written so far.
+         *
+         * @return the CRC32.
+         */
+        int putCrc() throws IOException {
+            flush();
+            int checksum = (int) crc.getValue();
+            putInt(checksum);
+            return checksum;
+        }
+
+        /**
+         * Writes everything buffered, then forces it to the storage device.
+         */
+        void force() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+            channel.force(false);
+        }
+
+        /**
+         * Flushes the buffer if it has fewer than a number of bytes free.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+        @Override
+        public void close() throws IOException {
+            try {
+                buffer.flip();
+                while (buffer.hasRemaining()) channel.write(buffer);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package cycling;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The races, stages and teams of a {@link CyclingPortalImpl} that have changed since its last snapshot, by id, so a
+ * {@link DeltaSnapshot} need only write those.
+ * <p>
+ * A race changes when it is created or its stages are added or removed; a stage changes when its checkpoints, state
+ * or results do; and a team changes when it is created or its riders are added or removed.
+ * <p>
+ * Stages may be marked as changed by many threads at once, since {@link ConcurrentCyclingPortal} registers results
+ * for different stages in parallel; everything else is changed by one thread at a time.
+ *
+ * @author Marcus Carter
+ */
+public class ChangeSet {
+    private final LinkedHashSet<Integer> races = new LinkedHashSet<>();
+    private final Set<Integer> stages = ConcurrentHashMap.newKeySet();
+    private final LinkedHashSet<Integer> teams = new LinkedHashSet<>();
+    private final HashSet<Integer> removedRaces = new HashSet<>();
+    private final HashSet<Integer> removedTeams = new HashSet<>();
+
+    @Override
+    public String toString() {
+        return "ChangeSet[numRaces="+races.size()+", numStages="+stages.size()+", numTeams="+teams.size()+
+                ", numRemovedRaces="+removedRaces.size()+", numRemovedTeams="+removedTeams.size()+"]";
+    }
+
+    public LinkedHashSet<Integer> getRaces() { return races; }
+    public Set<Integer> getStages() { return stages; }
+    public LinkedHashSet<Integer> getTeams() { return teams; }
+    public HashSet<Integer> getRemovedRaces() { return removedRaces; }
+    public HashSet<Integer> getRemovedTeams() { return removedTeams; }
+    public boolean isEmpty() {
+        return races.isEmpty() && stages.isEmpty() && teams.isEmpty() && removedRaces.isEmpty()
+                && removedTeams.isEmpty();
+    }
+
+    public void raceChanged(int raceId) { races.add(raceId); }
+    public void stageChanged(int stageId) { stages.add(stageId); }
+    public void teamChanged(int teamId) { teams.add(teamId); }
+
+    /**
+     * Records that a race, and so all its stages, have been removed.
+     *
+     * @param race the race that was removed.
+     */
+    public void raceRemoved(Race race) {
+        races.remove(race.id);
+        for (Stage stage : race.getChildren()) stages.remove(stage.id);
+        removedRaces.add(race.id);
+    }
+    public void teamRemoved(int teamId) {
+        teams.remove(teamId);
+        removedTeams.add(teamId);
+    }
+    public void clear() {
+        races.clear();
+        stages.clear();
+        teams.clear();
+        removedRaces.clear();
+        removedTeams.clear();
+    }
+}
@@ -6,6 +6,7 @@ package cycling;
  * @author Marcus Carter
  */
 public class Checkpoint extends Entity {
+    private static final long serialVersionUID = 4035536000817106967L;
     protected final CheckpointType type;
     protected final double location;
     public static final int[] INTERMEDIATE_SPRINT_POINTS = { 20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
@@ -18,4 +19,5 @@ public class Checkpoint extends Entity {
     public String toString() { return "Checkpoint[id="+id+", type="+type+", location="+location+"]"; }
 
     public double getLocation() { return location; }
+    public CheckpointType getType() { return type; }
 }
@@ -10,6 +10,7 @@ import java.util.List;
  * @author Marcus Carter
  */
 public class Climb extends Checkpoint {
+    private static final long serialVersionUID = -5540787843043314781L;
     protected final double averageGradient;
     protected final double length;
     public static final EnumMap<CheckpointType, ArrayList<Integer>> MOUNTAIN_POINTS =
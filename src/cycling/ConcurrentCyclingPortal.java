@@ -0,0 +1,554 @@
+package cycling;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link CyclingPortalImpl} that can be called from many threads at once.
+ * <p>
+ * Calls that change the structure of the portal (its races, stages, checkpoints, teams and riders, and the ids they
+ * are given), or that read or write the whole portal, hold the write lock of one {@link StampedLock}. Every other call
+ * holds its read lock, so they never wait for each other, only for structural changes. Calls on a stage's results,
+ * which also update the stage's caches, additionally hold one of a fixed set of stripe locks, chosen by the stage's
+ * id, so results for stages on different stripes are registered and queried fully in parallel. Locks are always
+ * taken in that order, read lock then stripe, so they cannot deadlock.
+ * <p>
+ * Ranking and points queries take no lock at all if the stage's ranking is up to date: the stage is found under an
+ * optimistic read of the structure lock, and its ranking, which never changes once published, is read through a
+ * volatile field. Writers keep it up to date: a call that changes a stage's results ranks them and works out their
+ * points before it lets go of the stripe, and a structural change that drops rankings, such as removing a rider,
+ * ranks those stages again before it lets go of the write lock. So queries never rank or wait for a stripe, and only
+ * fall back to the locks if a structural change is under way while they read, or the stage does not exist.
+ *
+ * @author Marcus Carter
+ */
+public class ConcurrentCyclingPortal implements MiniCyclingPortal {
+    private static final int DEFAULT_STRIPES = 64;
+    private final CyclingPortalImpl portal = new CyclingPortalImpl();
+    private final StampedLock structure = new StampedLock();
+    private final Object[] stripes;
+    /**
+     * The number of ranking queries answered without taking any lock.
+     */
+    private final LongAdder lockFreeHits = new LongAdder();
+
+    public ConcurrentCyclingPortal() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripe locks to spread stages over, rounded up to a power of two.
+     */
+    public ConcurrentCyclingPortal(int stripes) {
+        if (stripes < 1) throw new IllegalArgumentException("stripes must be positive");
+        int size = 1;
+        while (size < stripes) size <<= 1;
+        this.stripes = new Object[size];
+        for (int i = 0; i < this.stripes.length; i++) this.stripes[i] = new Object();
+    }
+    @Override
+    public String toString() {
+        return "ConcurrentCyclingPortal[numStripes="+stripes.length+"]";
+    }
+
+    /**
+     * @return the wrapped portal, which must not be called while other threads are calling this one.
+     */
+    public CyclingPortalImpl getPortal() { return portal; }
+    public int getNumberOfStripes() { return stripes.length; }
+
+    @Override
+    public int[] getRaceIds() {
+        long stamp = structure.readLock();
+        try {
+            return portal.getRaceIds();
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
+        long stamp = structure.writeLock();
+        try {
+            return portal.createRace(name, description);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            return portal.viewRaceDetails(raceId);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void removeRaceById(int raceId) throws IDNotRecognisedException {
+        long stamp = structure.writeLock();
+        try {
+            portal.removeRaceById(raceId);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            return portal.getNumberOfStages(raceId);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int addStageToRace(int raceId, String stageName, String description, double length,
+            LocalDateTime startTime, StageType type)
+            throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
+        long stamp = structure.writeLock();
+        try {
+            return portal.addStageToRace(raceId, stageName, description, length, startTime, type);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            return portal.getRaceStages(raceId);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public double getStageLength(int stageId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            return portal.getStageLength(stageId);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void removeStageById(int stageId) throws IDNotRecognisedException {
+        long stamp = structure.writeLock();
+        try {
+            portal.removeStageById(stageId);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type, Double averageGradient,
+            Double length) throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+            InvalidStageTypeException {
+        long stamp = structure.writeLock();
+        try {
+            return portal.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int addIntermediateSprintToStage(int stageId, double location) throws IDNotRecognisedException,
+            InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
+        long stamp = structure.writeLock();
+        try {
+            return portal.addIntermediateSprintToStage(stageId, location);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeCheckpoint(int checkpointId) throws IDNotRecognisedException, InvalidStageStateException {
+        long stamp = structure.writeLock();
+        try {
+            portal.removeCheckpoint(checkpointId);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
+        long stamp = structure.writeLock();
+        try {
+            portal.concludeStagePreparation(stageId);
+            portal.publishRankings();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            return portal.getStageCheckpoints(stageId);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the number of times each result in a stage holds. Once a stage's preparation is concluded its checkpoints
+     * can no longer change, so neither can the number.
+     *
+     * @param stageId the id of a stage.
+     * @return the number of critical points of the stage, or 0 if there is no such stage or it is still being
+     *         prepared.
+     */
+    int getResultWidth(int stageId) {
+        long stamp = structure.readLock();
+        try {
+            Stage stage = portal.getStageOrNull(stageId);
+            return stage == null || stage.isInPreparation() ? 0 : stage.numCriticalPoints();
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
+        long stamp = structure.writeLock();
+        try {
+            return portal.createTeam(name, description);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeTeam(int teamId) throws IDNotRecognisedException {
+        long stamp = structure.writeLock();
+        try {
+            portal.removeTeam(teamId);
+            portal.publishRankings();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int[] getTeams() {
+        long stamp = structure.readLock();
+        try {
+            return portal.getTeams();
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            return portal.getTeamRiders(teamId);
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int createRider(int teamID, String name, int yearOfBirth)
+            throws IDNotRecognisedException, IllegalArgumentException {
+        long stamp = structure.writeLock();
+        try {
+            return portal.createRider(teamID, name, yearOfBirth);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeRider(int riderId) throws IDNotRecognisedException {
+        long stamp = structure.writeLock();
+        try {
+            portal.removeRider(riderId);
+            portal.publishRankings();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpointTimes)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
+            InvalidStageStateException {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                portal.registerRiderResultsInStage(stageId, riderId, checkpointTimes);
+                publishRanking(stageId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Records the times of many riders in a stage at once, as
+     * {@link CyclingPortalImpl#registerRiderResultsInStage(int, ResultBatch)} does.
+     */
+    public void registerRiderResultsInStage(int stageId, ResultBatch batch)
+            throws IDNotRecognisedException, InvalidStageStateException, InvalidResultBatchException {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                portal.registerRiderResultsInStage(stageId, batch);
+                publishRanking(stageId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRiderResultsInStage(stageId, riderId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                portal.deleteRiderResultsInStage(stageId, riderId);
+                publishRanking(stageId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+        StageRanking ranking = publishedRanking(stageId);
+        if (ranking != null) {
+            lockFreeHits.increment();
+            return ranking.getRiderIds();
+        }
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRidersRankInStage(stageId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
+        StageRanking ranking = publishedRanking(stageId);
+        if (ranking != null) {
+            lockFreeHits.increment();
+            return CyclingPortalImpl.toLocalTimes(ranking.getAdjustedElapsedTimes());
+        }
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRankedAdjustedElapsedTimesInStage(stageId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+        StageRanking ranking = publishedRanking(stageId);
+        if (ranking != null && ranking.hasPoints()) {
+            lockFreeHits.increment();
+            return ranking.getPoints();
+        }
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRidersPointsInStage(stageId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+        StageRanking ranking = publishedRanking(stageId);
+        if (ranking != null && ranking.hasMountainPoints()) {
+            lockFreeHits.increment();
+            return ranking.getMountainPoints();
+        }
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRidersMountainPointsInStage(stageId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets a rider's position in a stage, as {@link CyclingPortalImpl#getRiderPositionInStage(int, int)} does.
+     */
+    public int getRiderPositionInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRiderPositionInStage(stageId, riderId);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Gets the rider at a position in a stage, as {@link CyclingPortalImpl#getRiderAtPositionInStage(int, int)}
+     * does.
+     */
+    public int getRiderAtPositionInStage(int stageId, int position) throws IDNotRecognisedException {
+        long stamp = structure.readLock();
+        try {
+            synchronized (stripe(stageId)) {
+                return portal.getRiderAtPositionInStage(stageId, position);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the number of ranking queries answered from a cached ranking, with no stage's results changing
+     *         while they are counted.
+     */
+    public long getRankingCacheHits() {
+        long stamp = structure.writeLock();
+        try {
+            return portal.getRankingCacheHits() + lockFreeHits.sum();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the number of ranking queries which had to rank a stage's results, with no stage's results changing
+     *         while they are counted.
+     */
+    public long getRankingCacheMisses() {
+        long stamp = structure.writeLock();
+        try {
+            return portal.getRankingCacheMisses();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void eraseCyclingPortal() {
+        long stamp = structure.writeLock();
+        try {
+            portal.eraseCyclingPortal();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Saves the portal, with no stage's results changing while it is written.
+     */
+    @Override
+    public void saveCyclingPortal(String filename) throws IOException {
+        long stamp = structure.writeLock();
+        try {
+            portal.saveCyclingPortal(filename);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+        long stamp = structure.writeLock();
+        try {
+            portal.loadCyclingPortal(filename);
+            portal.publishRankings();
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Ranks a stage's results and works out its points, so that queries find them published and take no lock. Called
+     * holding the stage's stripe, after its results change.
+     *
+     * @param stageId the id of a stage.
+     */
+    private void publishRanking(int stageId) {
+        portal.getStageOrNull(stageId).getRanking().fillPoints();
+    }
+
+    /**
+     * Reads a stage's ranking without taking any lock.
+     *
+     * @param stageId the id of a stage.
+     * @return the stage's ranking, or null if it is not up to date, there is no such stage, or the structure of the
+     *         portal changed while it was being read.
+     */
+    private StageRanking publishedRanking(int stageId) {
+        long stamp = structure.tryOptimisticRead();
+        if (stamp == 0) return null;
+        StageRanking ranking;
+        try {
+            Stage stage = portal.getStageOrNull(stageId);
+            ranking = stage == null ? null : stage.getPublishedRanking();
+        } catch (RuntimeException e) {
+            // The index was read while it was being changed; validate fails below.
+            ranking = null;
+        }
+        return structure.validate(stamp) ? ranking : null;
+    }
+
+    /**
+     * @param stageId the id of a stage.
+     * @return the lock guarding the stage's results.
+     */
+    private Object stripe(int stageId) {
+        return stripes[(stageId * 0x9E3779B9 >>> 16) & (stripes.length - 1)];
+    }
+}
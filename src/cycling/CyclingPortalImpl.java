@@ -1,13 +1,12 @@
 package cycling;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * My implementation of {@link MiniCyclingPortal}.
@@ -21,6 +20,24 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 	private int nextId = 1;
 	private ArrayList<Entity> teams = new ArrayList<>();
 	private ArrayList<Entity> races = new ArrayList<>();
+	/**
+	 * Every entity in the portal, by id; kept in step with teams and races.
+	 */
+	private final EntityIndex index = new EntityIndex();
+	/**
+	 * The names in use by races, stages and teams; each is a separate namespace.
+	 */
+	private final HashSet<String> raceNames = new HashSet<>();
+	private final HashSet<String> stageNames = new HashSet<>();
+	private final HashSet<String> teamNames = new HashSet<>();
+	/**
+	 * What has changed since the portal was last saved to, or loaded from, deltaBase, the binary snapshot
+	 * {@link #saveCyclingPortalDelta(String)} adds deltas to; deltaBase is null if there is no such snapshot.
+	 */
+	private final ChangeSet changes = new ChangeSet();
+	private String deltaBase;
+	private int deltaBaseChecksum;
+	private int deltaSequence;
 
 	@Override
 	public int[] getRaceIds() {
@@ -29,27 +46,34 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 
 	@Override
 	public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
-		validateName(races, name);
+		validateName(raceNames, name);
 		Race race = new Race(nextId++, name, description);
 		races.add(race);
+		index.addRace(race);
+		raceNames.add(name);
+		changes.raceChanged(race.id);
 		return race.id;
 	}
 
 	@Override
 	public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
-		Race race = (Race) getEntity(raceId, races).orElseThrow(IDNotRecognisedException::new);
+		Race race = index.getRace(raceId);
 		return race.toString();
 	}
 
 	@Override
 	public void removeRaceById(int raceId) throws IDNotRecognisedException {
-		if (races.removeIf(race -> race.id == raceId)) return;
-		throw new IDNotRecognisedException();
+		Race race = index.getRace(raceId);
+		races.remove(race);
+		index.removeRace(race);
+		raceNames.remove(race.name);
+		changes.raceRemoved(race);
+		for (Stage stage : race.getChildren()) stageNames.remove(stage.name);
 	}
 
 	@Override
 	public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
-		Race race = (Race) getEntity(raceId, races).orElseThrow(IDNotRecognisedException::new);
+		Race race = index.getRace(raceId);
 		return race.getChildren().size();
 	}
 
@@ -57,106 +81,113 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 	public int addStageToRace(int raceId, String stageName, String description, double length, LocalDateTime startTime,
 							  StageType type)
 			throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
-		validateName(races, stageName);
+		validateName(stageNames, stageName);
 		if (length < 5) throw new InvalidLengthException();
-		Entity race = getEntity(raceId, races).orElseThrow(IDNotRecognisedException::new);
-		ArrayList<Stage> stages = ((Race) race).getChildren();
+		Race race = index.getRace(raceId);
+		ArrayList<Stage> stages = race.getChildren();
 		Stage stage = new Stage(nextId++, stageName, description, length, startTime, type);
 		stages.add(stage);
+		index.addStage(race, stage);
+		stageNames.add(stageName);
+		changes.raceChanged(race.id);
+		changes.stageChanged(stage.id);
 		return stage.id;
 	}
 
 	@Override
 	public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
-		Race race = (Race) getEntity(raceId, races).orElseThrow(IDNotRecognisedException::new);
+		Race race = index.getRace(raceId);
 		return race.getChildren().stream().mapToInt(stage -> stage.id).toArray();
 	}
 
 	@Override
 	public double getStageLength(int stageId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
+		Stage stage = index.getStage(stageId);
 		return stage.length;
 	}
 
 	@Override
 	public void removeStageById(int stageId) throws IDNotRecognisedException {
-		for (Entity race : races) {
-			ArrayList<Stage> stages = ((Race) race).getChildren();
-			if (stages.removeIf(stage -> stage.id == stageId)) return;
-		}
-		throw new IDNotRecognisedException();
+		Stage stage = index.getStage(stageId);
+		Race race = index.getRaceOf(stage);
+		race.getChildren().remove(stage);
+		index.removeStage(stage);
+		stageNames.remove(stage.name);
+		changes.raceChanged(race.id);
 	}
 
 	@Override
 	public int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type, Double averageGradient,
 			Double length) throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
 		InvalidStageTypeException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
+		Stage stage = index.getStage(stageId);
 		if (!stage.isInPreparation()) throw new InvalidStageStateException();
 		if (location > stage.length) throw new InvalidLocationException();
 		if (stage.isTimeTrial()) throw new InvalidStageTypeException();
 		Checkpoint checkpoint = new Climb(nextId++, "", type, location, averageGradient, length);
 		stage.addCheckpoint(checkpoint);
+		index.addCheckpoint(stage, checkpoint);
+		changes.stageChanged(stage.id);
 		return checkpoint.id;
 	}
 
 	@Override
 	public int addIntermediateSprintToStage(int stageId, double location) throws IDNotRecognisedException,
 			InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
+		Stage stage = index.getStage(stageId);
 		if (!stage.isInPreparation()) throw new InvalidStageStateException();
 		if (location > stage.length) throw new InvalidLocationException();
 		if (stage.isTimeTrial()) throw new InvalidStageTypeException();
 		Checkpoint checkpoint = new Checkpoint(nextId++, "", CheckpointType.SPRINT, location);
 		stage.addCheckpoint(checkpoint);
+		index.addCheckpoint(stage, checkpoint);
+		changes.stageChanged(stage.id);
 		return checkpoint.id;
 	}
 
 	@Override
 	public void removeCheckpoint(int checkpointId) throws IDNotRecognisedException, InvalidStageStateException {
-		for (Entity race : races) {
-			ArrayList<Stage> stages = new ArrayList<>(((Race) race).getChildren());
-			for (Stage stage : stages) {
-				ArrayList<Checkpoint> checkpoints = stage.getChildren();
-				Optional<Checkpoint> optionalCheckpoint = checkpoints.stream()
-						.filter(checkpoint -> checkpoint.id == checkpointId)
-						.findFirst();
-				if (optionalCheckpoint.isPresent()) {
-					if (!stage.isInPreparation()) throw new InvalidStageStateException();
-					checkpoints.remove(optionalCheckpoint.get());
-					return;
-				}
-			}
-		}
-		throw new IDNotRecognisedException();
+		Checkpoint checkpoint = index.getCheckpoint(checkpointId);
+		Stage stage = index.getStageOf(checkpoint);
+		if (!stage.isInPreparation()) throw new InvalidStageStateException();
+		stage.removeCheckpoint(checkpoint);
+		index.removeCheckpoint(checkpoint);
+		changes.stageChanged(stage.id);
 	}
 
 	@Override
 	public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
+		Stage stage = index.getStage(stageId);
 		if (!stage.isInPreparation()) throw new InvalidStageStateException();
 		stage.setState("waiting for results");
+		changes.stageChanged(stage.id);
 	}
 
 	@Override
 	public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
+		Stage stage = index.getStage(stageId);
 		return stage.getChildren().stream().mapToInt(checkpoint -> checkpoint.id).toArray();
 	}
 
 	@Override
 	public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
-		validateName(teams, name);
-		Entity team = new Team(nextId++, name, description);
+		validateName(teamNames, name);
+		Team team = new Team(nextId++, name, description);
 		teams.add(team);
+		index.addTeam(team);
+		teamNames.add(name);
+		changes.teamChanged(team.id);
 		return team.id;
 	}
 
 	@Override
 	public void removeTeam(int teamId) throws IDNotRecognisedException {
-		Team team = (Team) getEntity(teamId, teams).orElseThrow(IDNotRecognisedException::new);
+		Team team = index.getTeam(teamId);
 		for (Rider rider : team.getChildren()) removeRiderResults(rider);
 		teams.remove(team);
+		index.removeTeam(team);
+		teamNames.remove(team.name);
+		changes.teamRemoved(team.id);
 	}
 
 	@Override
@@ -166,7 +197,7 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 
 	@Override
 	public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
-		Team team = (Team) getEntity(teamId, teams).orElseThrow(IDNotRecognisedException::new);
+		Team team = index.getTeam(teamId);
 		ArrayList<Rider> riders = team.getChildren();
         return riders.stream().mapToInt(rider -> rider.id).toArray();
 	}
@@ -175,245 +206,158 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 	public int createRider(int teamID, String name, int yearOfBirth)
 			throws IDNotRecognisedException, IllegalArgumentException {
 		if (name == null || name.isEmpty() || yearOfBirth < 1900) throw new IllegalArgumentException();
-		Team team = (Team) getEntity(teamID, teams).orElseThrow(IDNotRecognisedException::new);
+		Team team = index.getTeam(teamID);
 		ArrayList<Rider> riders = team.getChildren();
 		Rider rider = new Rider(nextId++, name, yearOfBirth);
 		riders.add(rider);
+		index.addRider(team, rider);
+		changes.teamChanged(team.id);
 		return rider.id;
 	}
 
 	@Override
 	public void removeRider(int riderId) throws IDNotRecognisedException {
-		Rider rider = getEntity(riderId, downcast(teams, Team.class), Rider.class);
+		Rider rider = index.getRider(riderId);
 		removeRiderResults(rider);
-		for (Entity team : teams) {
-			if (((Team) team).getChildren().remove(rider)) return;
-		}
-		throw new IDNotRecognisedException();
+		Team team = index.getTeamOf(rider);
+		team.getChildren().remove(rider);
+		index.removeRider(rider);
+		changes.teamChanged(team.id);
 	}
 
 	@Override
 	public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints)
 			throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
 			InvalidStageStateException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
+		PortalEvents.ResultRegistration event = new PortalEvents.ResultRegistration();
+		event.begin();
+		Stage stage = index.getStage(stageId);
 		if (stage.isInPreparation()) throw new InvalidStageStateException();
 		if (checkpoints.length != stage.numCriticalPoints()) throw new InvalidCheckpointTimesException();
-		Rider rider = getEntity(riderId, downcast(teams, Team.class), Rider.class);
-		stage.addResult(rider, Arrays.stream(checkpoints)
-				.map(time -> {
-					LocalDate date = stage.start.toLocalDate();
-					return time.isBefore(stage.start.toLocalTime()) ?
-							LocalDateTime.of(date.plusDays(1), time) :
-							LocalDateTime.of(date, time);
-				})
-				.sorted(Comparator.naturalOrder())
-				.toArray(LocalDateTime[]::new));
+		Rider rider = index.getRider(riderId);
+		long[] criticalTimes = new long[checkpoints.length];
+		for (int i = 0; i < checkpoints.length; i++) criticalTimes[i] = stage.toStageTime(checkpoints[i]);
+		Arrays.sort(criticalTimes);
+		stage.addResult(rider, criticalTimes);
+		index.addResult(rider.id, stage);
+		changes.stageChanged(stage.id);
+		if (event.shouldCommit()) {
+			event.set(stage, 1);
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records the times of many riders in a stage at once. The stage is looked up once, and its ranking is
+	 * invalidated once. Every row is checked before any is recorded, and if any row is invalid, none are recorded.
+	 *
+	 * @param stageId The ID of the stage the results refer to.
+	 * @param batch   The riders' times, as times of day.
+	 * @throws IDNotRecognisedException    If the ID does not match to any stage in the system.
+	 * @throws InvalidStageStateException  If the stage is not "waiting for results".
+	 * @throws InvalidResultBatchException If any row would not have been recorded by
+	 *                                     {@link #registerRiderResultsInStage(int, int, LocalTime...)}; it holds
+	 *                                     the exception for each such row.
+	 */
+	public void registerRiderResultsInStage(int stageId, ResultBatch batch)
+			throws IDNotRecognisedException, InvalidStageStateException, InvalidResultBatchException {
+		PortalEvents.ResultRegistration event = new PortalEvents.ResultRegistration();
+		event.begin();
+		Stage stage = index.getStage(stageId);
+		if (stage.isInPreparation()) throw new InvalidStageStateException();
+		int width = stage.numCriticalPoints();
+		int numRows = batch.size();
+		Rider[] riders = new Rider[numRows];
+		long[] criticalTimes = new long[numRows * width];
+		TreeMap<Integer, Exception> rowErrors = new TreeMap<>();
+		long[] idsAndRows = new long[numRows];
+		for (int row = 0; row < numRows; row++) {
+			int riderId = batch.getRiderId(row);
+			idsAndRows[row] = (long) riderId << 32 | row;
+			try {
+				if (batch.getLength(row) != width) throw new InvalidCheckpointTimesException();
+				riders[row] = index.getRider(riderId);
+				if (stage.getResults().rowOf(riderId) >= 0) throw new DuplicatedResultException();
+			} catch (InvalidCheckpointTimesException | IDNotRecognisedException | DuplicatedResultException e) {
+				rowErrors.put(row, e);
+				continue;
+			}
+			int from = row * width;
+			for (int i = 0; i < width; i++) criticalTimes[from + i] = stage.toStageTime(batch.getTime(row, i));
+			Arrays.sort(criticalTimes, from, from + width);
+		}
+		Arrays.sort(idsAndRows);
+		for (int i = 1; i < numRows; i++) {
+			if (idsAndRows[i] >>> 32 == idsAndRows[i - 1] >>> 32) {
+				rowErrors.putIfAbsent((int) idsAndRows[i], new DuplicatedResultException());
+			}
+		}
+		if (!rowErrors.isEmpty()) throw new InvalidResultBatchException(rowErrors);
+		stage.addResults(riders, criticalTimes);
+		for (Rider rider : riders) index.addResult(rider.id, stage);
+		changes.stageChanged(stage.id);
+		if (event.shouldCommit()) {
+			event.set(stage, numRows);
+			event.commit();
+		}
 	}
 
 	@Override
 	public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
-		Rider rider = getEntity(riderId, downcast(teams, Team.class), Rider.class);
-		Optional<LocalDateTime[]> optionalRiderCriticalTimes = Optional.ofNullable(stage.getResults().get(rider));
-		if (optionalRiderCriticalTimes.isEmpty()) return new LocalTime[0];
-		ArrayList<LocalDateTime> riderCriticalTimes = new ArrayList<>(List.of(optionalRiderCriticalTimes.get()));
-		LocalDateTime start = riderCriticalTimes.removeFirst();
-		LocalDateTime end = riderCriticalTimes.removeLast();
-		Duration elapsedTime = Duration.between(start, end);
-		LocalTime elapsedTimeLocal = toLocalTime(elapsedTime);
-		LocalTime[] results = riderCriticalTimes.stream()
-				.sorted(Comparator.naturalOrder())
-				.map(LocalDateTime::toLocalTime)
-				.toArray(LocalTime[]::new);
-		return Stream.concat(Arrays.stream(results), Stream.of(elapsedTimeLocal))
-				.toArray(LocalTime[]::new);
+		Stage stage = index.getStage(stageId);
+		Rider rider = index.getRider(riderId);
+		ResultTable results = stage.getResults();
+		int row = results.rowOf(rider.id);
+		if (row < 0) return new LocalTime[0];
+		int last = results.width() - 1;
+		LocalTime[] riderResults = new LocalTime[last];
+		for (int i = 1; i < last; i++) riderResults[i - 1] = stage.toLocalTime(results.getTime(row, i));
+		long elapsedTime = results.getTime(row, last) - results.getTime(row, 0);
+		riderResults[last - 1] = toLocalTime(Duration.ofNanos(elapsedTime));
+		return riderResults;
 	}
 
 	@Override
 	public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
-		Rider rider = getEntity(riderId, downcast(teams, Team.class), Rider.class);
-		Map<Rider, LocalDateTime[]> results = stage.getResults();
-		Optional<LocalDateTime[]> optionalRiderResults = Optional.ofNullable(results.get(rider));
-		if (optionalRiderResults.isEmpty()) return null;
-		LocalDateTime[] riderResults = optionalRiderResults.get();
-		LocalDateTime riderEnd = riderResults[riderResults.length - 1];
-		if (stage.isTimeTrial()) return toLocalTime((stage.ttTimeElapsed(riderResults[0], riderEnd)));
-		LocalDateTime[] sortedEnds = results.values().stream()
-				.map(times -> times[times.length - 1])
-				.filter(end -> end.isBefore(riderEnd))
-				.sorted(Comparator.reverseOrder())
-				.toArray(LocalDateTime[]::new);
-		LocalDateTime adjustedRiderEnd = riderEnd;
-		for (LocalDateTime end : sortedEnds) {
-			LocalDateTime cutoff = end.plus(Duration.ofSeconds(1)).plusNanos(1);
-			if (adjustedRiderEnd.isBefore(cutoff)) adjustedRiderEnd = end;
-			else break;
-		}
-		return toLocalTime((stage.timeElapsed(adjustedRiderEnd)));
+		Stage stage = index.getStage(stageId);
+		Rider rider = index.getRider(riderId);
+		int row = stage.getResults().rowOf(rider.id);
+		if (row < 0) return null;
+		long elapsedTime = stage.elapsedTime(row);
+		return toLocalTime(Duration.ofNanos(stage.getRanking().adjustedElapsedTime(elapsedTime)));
 	}
 
 	@Override
 	public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
-		Rider rider = getEntity(riderId, downcast(teams, Team.class), Rider.class);
-		stage.getResults().remove(rider);
+		Stage stage = index.getStage(stageId);
+		Rider rider = index.getRider(riderId);
+		if (!stage.removeResult(rider)) return;
+		index.removeResult(rider.id, stage);
+		changes.stageChanged(stage.id);
 	}
 
 	@Override
 	public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
-		Map<Rider, LocalDateTime[]> results = stage.getResults();
-		return results.entrySet().stream()
-				.map(entry -> {
-					LocalDateTime[] times = entry.getValue();
-					LocalDateTime riderEnd = times[times.length - 1];
-					Duration elapsedTime;
-					elapsedTime = stage.isTimeTrial() ?
-							stage.ttTimeElapsed(times[0], riderEnd) :
-							stage.timeElapsed(riderEnd);
-					int riderId = entry.getKey().id;
-					return new AbstractMap.SimpleEntry<>(riderId, elapsedTime);
-				})
-				.sorted(Map.Entry.comparingByValue())
-				.mapToInt(Map.Entry::getKey)
-				.toArray();
+		Stage stage = index.getStage(stageId);
+		return stage.getRanking().getRiderIds();
 	}
 
 	@Override
 	public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
-		ArrayList<AbstractMap.SimpleEntry<LocalTime, LocalTime>> elapsedAdjustedElapsedTimes = new ArrayList<>();
-		for (Map.Entry<Rider, LocalDateTime[]> entry : stage.getResults().entrySet()) {
-			LocalDateTime[] times = entry.getValue();
-			LocalDateTime riderEnd = times[times.length - 1];
-			Duration elapsedTime;
-			if (stage.isTimeTrial()) elapsedTime = stage.ttTimeElapsed(times[0], riderEnd);
-			else elapsedTime = stage.timeElapsed(riderEnd);
-			LocalTime adjustedElapsedTime = getRiderAdjustedElapsedTimeInStage(stageId, entry.getKey().id);
-			elapsedAdjustedElapsedTimes.add(new AbstractMap.SimpleEntry<>(toLocalTime(elapsedTime), adjustedElapsedTime));
-		}
-		return elapsedAdjustedElapsedTimes.stream()
-				.sorted(Map.Entry.comparingByValue())
-				.map(AbstractMap.SimpleEntry::getValue)
-				.toArray(LocalTime[]::new);
-    }
+		Stage stage = index.getStage(stageId);
+		return toLocalTimes(stage.getRanking().getAdjustedElapsedTimes());
+	}
 
 	@Override
 	public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
-		Map<Rider, LocalDateTime[]> results = stage.getResults();
-		if (results.isEmpty()) return new int[0];
-		int[] rankedRiderIds = getRidersRankInStage(stageId);
-		ArrayList<Rider> rankedRiders = new ArrayList<>();
-		for (int rankedRiderId : rankedRiderIds) {
-			rankedRiders.add(getEntity(rankedRiderId, downcast(teams, Team.class), Rider.class));
-		}
-		ArrayList<Duration> elapsedTimes = rankedRiders.stream()
-				.map(rider -> {
-					LocalDateTime[] times = results.get(rider);
-					return stage.isTimeTrial() ?
-							stage.ttTimeElapsed(times[0], times[times.length - 1]) :
-							stage.timeElapsed(times[times.length - 1]);
-				})
-				.collect(Collectors.toCollection(ArrayList::new));
-		ArrayList<Duration> rankedElapsedTimes = elapsedTimes.stream()
-				.sorted(Comparator.naturalOrder())
-				.collect(Collectors.toCollection(ArrayList::new));
-		ArrayList<Integer> stageFinishPoints = Stage.SPRINTER_POINTS.get(stage.type);
-		int[] ridersSprinterPoints = elapsedTimes.stream()
-			.mapToInt(elapsedTime -> {
-				int riderFinishingPlace = rankedElapsedTimes.indexOf(elapsedTime);
-				return riderFinishingPlace < stageFinishPoints.size() ?
-						stageFinishPoints.get(riderFinishingPlace) :
-						0;
-			})
-			.toArray();
-		if (stage.isTimeTrial()) return ridersSprinterPoints;
-		ArrayList<Checkpoint> checkpoints = stage.getChildren();
-		ArrayList<Checkpoint> sprints = checkpoints.stream()
-				.filter(checkpoint -> !(checkpoint instanceof Climb))
-				.collect(Collectors.toCollection(ArrayList::new));
-		ArrayList<ArrayList<LocalDateTime>> sprintsTimes = rankedRiders.stream()
-				.map(rider -> {
-					LocalDateTime[] times = results.get(rider);
-					ArrayList<LocalDateTime> relevantTimes = new ArrayList<>();
-					for (Checkpoint sprint : sprints) relevantTimes.add(times[checkpoints.indexOf(sprint) + 1]);
-					return relevantTimes;
-				})
-				.collect(Collectors.toCollection(ArrayList::new));
-		for (int i = 0; i < sprints.size(); i++) {
-			final int finalI = i;
-			ArrayList<LocalDateTime> sprintTimes = sprintsTimes.stream()
-					.map(times -> times.get(finalI))
-					.collect(Collectors.toCollection(ArrayList::new));
-			ArrayList<LocalDateTime> sprintRankedTimes = sprintTimes.stream()
-					.sorted(Comparator.naturalOrder())
-					.collect(Collectors.toCollection(ArrayList::new));
-			int[] sprintPoints = sprintTimes.stream()
-					.mapToInt(sprintTime -> {
-						int riderFinishingPlace = sprintRankedTimes.indexOf(sprintTime);
-						return riderFinishingPlace < Checkpoint.INTERMEDIATE_SPRINT_POINTS.length ?
-								Checkpoint.INTERMEDIATE_SPRINT_POINTS[riderFinishingPlace] :
-								0;
-					})
-					.toArray();
-			for (int i1 = 0; i1 < ridersSprinterPoints.length; i1++) {
-				ridersSprinterPoints[i1] = ridersSprinterPoints[i1] + sprintPoints[i1];
-			}
-		}
-		return ridersSprinterPoints;
+		Stage stage = index.getStage(stageId);
+		return stage.getRanking().getPoints();
 	}
 
 	@Override
 	public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
-		Stage stage = getEntity(stageId, downcast(races, Race.class), Stage.class);
-		Map<Rider, LocalDateTime[]> results = stage.getResults();
-		if (results.isEmpty()) return new int[0];
-		int[] ridersMountainPoints;
-		int[] rankedRiderIds = getRidersRankInStage(stageId);
-		ridersMountainPoints = new int[rankedRiderIds.length];
-		Arrays.fill(ridersMountainPoints, 0);
-		if (stage.isTimeTrial()) return ridersMountainPoints;
-		ArrayList<Rider> rankedRiders = new ArrayList<>();
-		for (int rankedRiderId : rankedRiderIds) {
-			rankedRiders.add(getEntity(rankedRiderId, downcast(teams, Team.class), Rider.class));
-		}
-		ArrayList<Checkpoint> checkpoints = stage.getChildren();
-		ArrayList<Checkpoint> climbs = checkpoints.stream()
-				.filter(checkpoint -> checkpoint instanceof Climb)
-				.collect(Collectors.toCollection(ArrayList::new));
-		ArrayList<ArrayList<LocalDateTime>> climbsTimes = rankedRiders.stream()
-				.map(rider -> {
-					LocalDateTime[] times = results.get(rider);
-					ArrayList<LocalDateTime> relevantTimes = new ArrayList<>();
-					for (Checkpoint climb : climbs) relevantTimes.add(times[checkpoints.indexOf(climb) + 1]);
-					return relevantTimes;
-				})
-				.collect(Collectors.toCollection(ArrayList::new));
-		for (int i = 0; i < climbs.size(); i++) {
-			final int finalI = i;
-			ArrayList<LocalDateTime> climbTimes = climbsTimes.stream()
-					.map(times -> times.get(finalI))
-					.collect(Collectors.toCollection(ArrayList::new));
-			ArrayList<LocalDateTime> climbRankedTimes = climbTimes.stream()
-					.sorted(Comparator.naturalOrder())
-					.collect(Collectors.toCollection(ArrayList::new));
-			ArrayList<Integer> climbPoints = Climb.MOUNTAIN_POINTS.get(climbs.get(finalI).type);
-			int[] pointsFromClimb = climbTimes.stream()
-					.mapToInt(sprintTime -> {
-						int riderFinishingPlace = climbRankedTimes.indexOf(sprintTime);
-						return riderFinishingPlace < climbPoints.size() ?
-								climbPoints.get(riderFinishingPlace) :
-								0;
-					})
-					.toArray();
-			for (int i1 = 0; i1 < ridersMountainPoints.length; i1++) {
-				ridersMountainPoints[i1] = ridersMountainPoints[i1] + pointsFromClimb[i1];
-			}
-		}
-		return ridersMountainPoints;
+		Stage stage = index.getStage(stageId);
+		return stage.getRanking().getMountainPoints();
 	}
 
 	@Override
@@ -421,98 +365,308 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 		nextId = 1;
 		teams.clear();
 		races.clear();
+		index.clear();
+		raceNames.clear();
+		stageNames.clear();
+		teamNames.clear();
+		changes.clear();
+		deltaBase = null;
 	}
 
 	@Override
 	public void saveCyclingPortal(String filename) throws IOException {
-		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename));
-		out.writeInt(nextId);
-		out.writeObject(teams);
-		out.writeObject(races);
-		out.close();
+		saveCyclingPortal(filename, SnapshotFormat.BINARY);
+	}
+
+	/**
+	 * Saves this portal's contents into a file, in a given format.
+	 *
+	 * @param filename Location of the file to be saved.
+	 * @param format   The format of the file.
+	 * @throws IOException If there is a problem experienced when trying to save the
+	 *                     store to the file.
+	 */
+	public void saveCyclingPortal(String filename, SnapshotFormat format) throws IOException {
+		PortalEvents.Snapshot event = new PortalEvents.Snapshot();
+		event.begin();
+		Path file = Path.of(filename);
+		if (format == SnapshotFormat.BINARY) {
+			int checksum = new BinarySnapshot(nextId, teams, races).write(file);
+			DeltaSnapshot.deleteChain(file);
+			setDeltaBase(filename, checksum, 0);
+			commit(event, filename, false, format.name());
+			return;
+		}
+		// Stages loaded by mapCyclingPortal may still be reading their results from this very file.
+		for (Entity race : races) for (Stage stage : ((Race) race).getChildren()) stage.getResults();
+		try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+			out.writeInt(nextId);
+			out.writeObject(teams);
+			out.writeObject(races);
+		}
+		DeltaSnapshot.deleteChain(file);
+		if (filename.equals(deltaBase)) deltaBase = null;
+		commit(event, filename, false, format.name());
+	}
+
+	/**
+	 * Saves only what has changed since this portal was last saved to, or loaded from, a binary snapshot, as a
+	 * {@link DeltaSnapshot} next to it. If the portal has no such snapshot under this name, it is saved in full.
+	 * {@link #loadCyclingPortal(String)} applies the deltas in order.
+	 *
+	 * @param filename Location of the base snapshot.
+	 * @throws IOException If there is a problem experienced when trying to save the
+	 *                     store to the file.
+	 */
+	public void saveCyclingPortalDelta(String filename) throws IOException {
+		Path base = Path.of(filename);
+		if (!filename.equals(deltaBase) || !Files.exists(base)) {
+			saveCyclingPortal(filename, SnapshotFormat.BINARY);
+			return;
+		}
+		if (changes.isEmpty()) return;
+		PortalEvents.Snapshot event = new PortalEvents.Snapshot();
+		event.begin();
+		DeltaSnapshot.write(base, deltaBaseChecksum, deltaSequence + 1, nextId, index, changes);
+		deltaSequence++;
+		changes.clear();
+		commit(event, filename, false, "DELTA");
+	}
+
+	/**
+	 * Merges the deltas saved by {@link #saveCyclingPortalDelta(String)} into their base snapshot.
+	 *
+	 * @param filename Location of the base snapshot.
+	 * @throws IOException If the snapshot or any of its deltas cannot be read, or the snapshot cannot be written.
+	 */
+	public void compactCyclingPortal(String filename) throws IOException {
+		int checksum = DeltaSnapshot.compact(Path.of(filename));
+		if (filename.equals(deltaBase)) {
+			deltaBaseChecksum = checksum;
+			deltaSequence = 0;
+		}
 	}
 
+	/**
+	 * Loads a file saved in either {@link SnapshotFormat}, telling them apart by their first bytes.
+	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
-		ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
-		nextId = in.readInt();
-		teams = (ArrayList<Entity>) in.readObject();
-		races = (ArrayList<Entity>) in.readObject();
+		load(filename, false);
 	}
 
-    /**
-	 * Downcasts an ArrayList of entities.
+	/**
+	 * Loads a file like {@link #loadCyclingPortal(String)}, except that if it is a binary snapshot, it is
+	 * memory-mapped, and each stage's results are read from it only when first needed. The portal then starts
+	 * having read only the ids of the riders with results, for its index, and holds only the results it has needed.
+	 * The checksum of the file is not checked, since that would read every result.
 	 *
-	 * @param entities the entities you want to downcast.
-	 * @param subEntity the class you want to downcast each entity to.
-	 * @return the downcasted entities.
-	 * @param <T> any class that extends Entity.
+	 * @param filename Location of the file to be loaded.
+	 * @throws IOException            If there is a problem experienced when trying
+	 *                                to load the store from the file.
+	 * @throws ClassNotFoundException When required classes are not found.
 	 */
-	private <T extends Entity> ArrayList<T> downcast(ArrayList<Entity> entities, Class<T> subEntity) {
-		ArrayList<T> subEntities = new ArrayList<>();
-		for (Entity entity : entities) subEntities.add(subEntity.cast(entity));
-		return subEntities;
+	public void mapCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+		load(filename, true);
 	}
 
 	/**
-	 * Attempts to get an entity in an ArrayList of entities, given its id.
+	 * Loads a file saved in either {@link SnapshotFormat}.
 	 *
-	 * @param id the id of the entity you want to get.
-	 * @param entities the entities you want to search through.
-	 * @return an optional entity.
+	 * @param filename the location of the file.
+	 * @param lazy whether to leave the results of a binary snapshot in the file until they are needed.
+	 */
+	@SuppressWarnings("unchecked")
+	private void load(String filename, boolean lazy) throws IOException, ClassNotFoundException {
+		PortalEvents.Snapshot event = new PortalEvents.Snapshot();
+		event.begin();
+		Path file = Path.of(filename);
+		String format = SnapshotFormat.JAVA_SERIALIZATION.name();
+		if (BinarySnapshot.isBinarySnapshot(file)) {
+			format = lazy ? "BINARY_MAPPED" : SnapshotFormat.BINARY.name();
+			BinarySnapshot snapshot = DeltaSnapshot.readChain(file, lazy);
+			nextId = snapshot.getNextId();
+			teams = snapshot.getTeams();
+			races = snapshot.getRaces();
+			setDeltaBase(filename, snapshot.getChecksum(), snapshot.getDeltas());
+		} else {
+			try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+				int loadedNextId = in.readInt();
+				ArrayList<Entity> loadedTeams = (ArrayList<Entity>) in.readObject();
+				ArrayList<Entity> loadedRaces = (ArrayList<Entity>) in.readObject();
+				nextId = loadedNextId;
+				teams = loadedTeams;
+				races = loadedRaces;
+			}
+			changes.clear();
+			deltaBase = null;
+		}
+		index.rebuild(teams, races);
+		rebuildNames();
+		commit(event, filename, true, format);
+	}
+
+	/**
+	 * @param stageId the id of a stage.
+	 * @return the stage, or null if there is none.
 	 */
-	private Optional<Entity> getEntity(int id, ArrayList<Entity> entities) {
-		return entities.stream().filter(entity -> entity.id == id).findFirst();
+	Stage getStageOrNull(int stageId) {
+		return index.getStageOrNull(stageId);
 	}
+
 	/**
-	 * Attempts to get an entity in an ArrayList of entities, given its id.
-	 *
-	 * @param id the id of the entity you want to get.
-	 * @param entities the entities you want to search through.
-	 * @return an optional entity.
-	 * @throws IDNotRecognisedException if the id does not match to any entity within the given entities.
+	 * Ranks every stage whose results changed since it was last ranked, and works out its points, so that no query
+	 * has to.
 	 */
-	private <T extends Entity> T getEntity(int id, ArrayList<? extends HasChildren> entities, Class<T> subEntityClass) throws IDNotRecognisedException {
-		for (HasChildren entity : entities) {
-			ArrayList<Entity> entityChildren = new ArrayList<>(entity.getChildren());
-			Optional<Entity> optionalEntity = getEntity(id, entityChildren);
-			if (optionalEntity.isPresent()) return subEntityClass.cast(optionalEntity.get());
+	void publishRankings() {
+		for (Entity race : races) {
+			for (Stage stage : ((Race) race).getChildren()) {
+				if (stage.getPublishedRanking() == null && !stage.isInPreparation()) stage.getRanking().fillPoints();
+			}
 		}
-		throw new IDNotRecognisedException();
 	}
 
 	/**
-	 * Removes a rider's results from all stages in every race.
+	 * Gets a rider's position in a stage from the stage's leaderboard, which is kept up to date as results are
+	 * registered and deleted.
+	 *
+	 * @param stageId the id of the stage being queried.
+	 * @param riderId the id of the rider.
+	 * @return the rider's position, starting at 1, or 0 if the rider has no result in the stage.
+	 * @throws IDNotRecognisedException if the id does not match any stage or rider in the system.
+	 */
+	public int getRiderPositionInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		Stage stage = index.getStage(stageId);
+		Rider rider = index.getRider(riderId);
+		return stage.positionOf(rider.id) + 1;
+	}
+
+	/**
+	 * Gets the rider at a position in a stage from the stage's leaderboard.
+	 *
+	 * @param stageId the id of the stage being queried.
+	 * @param position the position, starting at 1.
+	 * @return the id of the rider at the position.
+	 * @throws IDNotRecognisedException if the id does not match any stage in the system.
+	 * @throws IllegalArgumentException if there is no rider at the position.
+	 */
+	public int getRiderAtPositionInStage(int stageId, int position) throws IDNotRecognisedException {
+		Stage stage = index.getStage(stageId);
+		Leaderboard leaderboard = stage.getLeaderboard();
+		if (position < 1 || position > leaderboard.size()) throw new IllegalArgumentException();
+		return leaderboard.get(position - 1);
+	}
+
+	/**
+	 * @return the number of ranking queries, over every stage in the portal, answered from a cached ranking.
+	 */
+	public long getRankingCacheHits() {
+		long hits = 0;
+		for (Entity race : races) for (Stage stage : ((Race) race).getChildren()) hits += stage.getRankingHits();
+		return hits;
+	}
+
+	/**
+	 * @return the number of ranking queries, over every stage in the portal, which had to rank the stage's results.
+	 */
+	public long getRankingCacheMisses() {
+		long misses = 0;
+		for (Entity race : races) for (Stage stage : ((Race) race).getChildren()) misses += stage.getRankingMisses();
+		return misses;
+	}
+
+	/**
+	 * Removes a rider's results from every stage they have results in, found through the index, so only those
+	 * stages are touched. The index still lists the stages until the rider is removed from it.
 	 *
 	 * @param rider the rider whose results you want to remove.
 	 */
 	private void removeRiderResults(Rider rider) {
+		for (Stage stage : index.getStagesOf(rider)) {
+			if (stage.removeResult(rider)) changes.stageChanged(stage.id);
+		}
+	}
+
+	/**
+	 * Commits a snapshot event, if it is being recorded, with the size of the portal saved or loaded.
+	 *
+	 * @param event the event, begun before the portal was saved or loaded.
+	 * @param filename the location of the file.
+	 * @param load whether the portal was loaded, rather than saved.
+	 * @param format the format of the file.
+	 */
+	private void commit(PortalEvents.Snapshot event, String filename, boolean load, String format) {
+		if (!event.shouldCommit()) return;
+		event.file = filename;
+		event.load = load;
+		event.format = format;
+		for (Entity team : teams) event.riderCount += ((Team) team).getChildren().size();
 		for (Entity race : races) {
-			ArrayList<Stage> stages = ((Race) race).getChildren();
-			for (Stage stage : stages) {
-				stage.getResults().remove(rider);
+			for (Stage stage : ((Race) race).getChildren()) {
+				event.stageCount++;
+				event.checkpointCount += stage.numCriticalPoints() - 2;
 			}
 		}
+		event.commit();
+	}
+
+	/**
+	 * Makes a binary snapshot the base of the next delta, with nothing changed since.
+	 *
+	 * @param filename the location of the snapshot.
+	 * @param checksum the snapshot's checksum.
+	 * @param sequence the number of deltas already saved since the snapshot.
+	 */
+	private void setDeltaBase(String filename, int checksum, int sequence) {
+		deltaBase = filename;
+		deltaBaseChecksum = checksum;
+		deltaSequence = sequence;
+		changes.clear();
 	}
 
 	/**
 	 * Ensures an entity is not illegally created.
 	 *
-	 * @param entities the entities you want to check do not already have the same name.
+	 * @param names the names already in use within the namespace of the entity.
 	 * @param name the name of the entity you want to create.
 	 * @throws InvalidNameException if the given name is null, empty, greater than 30 characters,
 	 * 	 * or contains whitespace
-	 * @throws IllegalNameException if the name exists in a given ArrayList of entities.
+	 * @throws IllegalNameException if the name is already in use within the given namespace.
 	 */
-	private void validateName(ArrayList<Entity> entities, String name) throws InvalidNameException, IllegalNameException {
+	private void validateName(HashSet<String> names, String name) throws InvalidNameException, IllegalNameException {
 		if (name == null || name.isEmpty() || name.length() > 30) throw new InvalidNameException();
 		for (char c : name.toCharArray()) {
 			if (Character.isWhitespace(c)) {
 				throw new InvalidNameException();
 			}
 		}
-		for (Entity entity : entities) if (entity.name.equals(name)) throw new IllegalNameException();
+		if (names.contains(name)) throw new IllegalNameException();
+	}
+
+	/**
+	 * Clears the race, stage and team namespaces, then adds the names of every race, stage and team.
+	 */
+	private void rebuildNames() {
+		raceNames.clear();
+		stageNames.clear();
+		teamNames.clear();
+		for (Entity team : teams) teamNames.add(team.name);
+		for (Entity race : races) {
+			raceNames.add(race.name);
+			for (Stage stage : ((Race) race).getChildren()) stageNames.add(stage.name);
+		}
+	}
+
+	/**
+	 * Converts durations in nanoseconds to LocalTime objects.
+	 *
+	 * @param durations the durations, in nanoseconds.
+	 * @return a LocalTime object for each duration.
+	 */
+	static LocalTime[] toLocalTimes(long[] durations) {
+		return Arrays.stream(durations)
+				.mapToObj(duration -> toLocalTime(Duration.ofNanos(duration)))
+				.toArray(LocalTime[]::new);
 	}
 
 	/**
@@ -521,7 +675,7 @@ public class CyclingPortalImpl implements MiniCyclingPortal {
 	 * @param duration the duration you would like to convert to a LocalTime object.
 	 * @return a LocalTime object, derived from the parts of the duration.
 	 */
-	private LocalTime toLocalTime(Duration duration) {
+	private static LocalTime toLocalTime(Duration duration) {
 		int hours = duration.toHoursPart();
 		int minutes = duration.toMinutesPart();
 		int seconds = duration.toSecondsPart();
@@ -0,0 +1,259 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * The changes to a {@link CyclingPortalImpl} since its last snapshot, in the same encoding as
+ * {@link BinarySnapshot}:
+ * <pre>
+ * delta       := MAGIC version:varint baseChecksum:int32 sequence:varint nextId:varint strings
+ *                removedTeams:(count id*) teams:(count team*) removedRaces:(count id*)
+ *                races:(count (id name description stageCount stageId*)*) stages:(count stage*) crc:int32
+ * </pre>
+ * Teams and stages are written whole; races are written as their stage ids, since their stages are written
+ * separately, and only if they have changed.
+ * <p>
+ * A base snapshot {@code name} is followed by a chain of deltas {@code name.1}, {@code name.2}, and so on. Each
+ * delta holds the checksum of the base it follows and its place in the chain, so a delta left behind by an older base
+ * is never applied to a newer one.
+ *
+ * @author Marcus Carter
+ */
+public class DeltaSnapshot {
+    /**
+     * "CYCD".
+     */
+    static final int MAGIC = 0x44435943;
+    static final int VERSION = 1;
+
+    private DeltaSnapshot() {}
+
+    /**
+     * Writes the changes to a portal as the next delta in a chain.
+     *
+     * @param base the base snapshot of the chain.
+     * @param baseChecksum the checksum of the base snapshot.
+     * @param sequence the delta's place in the chain, one more than the number of deltas already written since the
+     *                 base; any delta left in its place by an older base is replaced.
+     * @param nextId the portal's next id.
+     * @param index the portal's entities, by id.
+     * @param changes the ids of the races, stages and teams that have changed.
+     * @return the file the delta was written to.
+     * @throws IOException if the delta cannot be written.
+     */
+    public static Path write(Path base, int baseChecksum, int sequence, int nextId, EntityIndex index, ChangeSet changes)
+            throws IOException {
+        ArrayList<Team> teams = new ArrayList<>();
+        for (int teamId : changes.getTeams()) teams.add(index.getTeamOrNull(teamId));
+        ArrayList<Race> races = new ArrayList<>();
+        for (int raceId : changes.getRaces()) races.add(index.getRaceOrNull(raceId));
+        ArrayList<Stage> stages = new ArrayList<>();
+        for (int stageId : changes.getStages()) {
+            Stage stage = index.getStageOrNull(stageId);
+            if (stage != null) stages.add(stage);
+        }
+        HashMap<String, Integer> strings = BinarySnapshot.stringTable();
+        for (Team team : teams) BinarySnapshot.intern(strings, team);
+        for (Race race : races) {
+            BinarySnapshot.intern(strings, race.name);
+            BinarySnapshot.intern(strings, race.description);
+        }
+        for (Stage stage : stages) BinarySnapshot.intern(strings, stage);
+        Path file = deltaFile(base, sequence);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BinarySnapshot.Output out = new BinarySnapshot.Output(FileChannel.open(temporary,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            out.putInt(MAGIC);
+            out.putVarint(VERSION);
+            out.putInt(baseChecksum);
+            out.putVarint(sequence);
+            out.putVarint(nextId);
+            BinarySnapshot.writeStrings(out, strings);
+            putIds(out, changes.getRemovedTeams());
+            out.putVarint(teams.size());
+            for (Team team : teams) BinarySnapshot.writeTeam(out, team, strings);
+            putIds(out, changes.getRemovedRaces());
+            out.putVarint(races.size());
+            for (Race race : races) {
+                out.putVarint(race.id);
+                out.putVarint(BinarySnapshot.ref(strings, race.name));
+                out.putVarint(BinarySnapshot.ref(strings, race.description));
+                out.putVarint(race.getChildren().size());
+                for (Stage stage : race.getChildren()) out.putVarint(stage.id);
+            }
+            out.putVarint(stages.size());
+            for (Stage stage : stages) BinarySnapshot.writeStage(out, stage, strings);
+            out.putCrc();
+            out.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    /**
+     * Reads a base snapshot and applies every delta in its chain, stopping at the first delta written for an older
+     * base, which is left behind if a save of the base is interrupted before it can delete the chain.
+     *
+     * @param base the base snapshot of the chain.
+     * @return the portal's contents as of the last delta, with the checksum of the base and the number of deltas
+     *         applied.
+     * @throws IOException if any file in the chain cannot be read or is corrupt.
+     */
+    public static BinarySnapshot readChain(Path base) throws IOException {
+        return readChain(base, false);
+    }
+
+    /**
+     * Reads a base snapshot and applies every delta in its chain, optionally leaving the results of the stages in the
+     * base in the memory-mapped file, as {@link BinarySnapshot#read(Path, boolean)} does.
+     *
+     * @param base the base snapshot of the chain.
+     * @param lazy whether to leave the results of the stages in the base in the file.
+     * @return the portal's contents as of the last delta, with the checksum of the base and the number of deltas
+     *         applied.
+     * @throws IOException if any file in the chain cannot be read or is corrupt.
+     */
+    public static BinarySnapshot readChain(Path base, boolean lazy) throws IOException {
+        BinarySnapshot snapshot = BinarySnapshot.read(base, lazy);
+        int length = chainLength(base);
+        if (length == 0) return snapshot;
+        LinkedHashMap<Integer, Entity> teams = new LinkedHashMap<>();
+        for (Entity team : snapshot.getTeams()) teams.put(team.id, team);
+        LinkedHashMap<Integer, Entity> races = new LinkedHashMap<>();
+        HashMap<Integer, Stage> stages = new HashMap<>();
+        for (Entity race : snapshot.getRaces()) {
+            races.put(race.id, race);
+            for (Stage stage : ((Race) race).getChildren()) stages.put(stage.id, stage);
+        }
+        int nextId = snapshot.getNextId();
+        int applied = 0;
+        while (applied < length) {
+            int id = apply(deltaFile(base, applied + 1), snapshot.getChecksum(), applied + 1, teams, races, stages);
+            if (id < 0) break;
+            nextId = id;
+            applied++;
+        }
+        if (applied == 0) return snapshot;
+        BinarySnapshot merged = new BinarySnapshot(nextId, new ArrayList<>(teams.values()),
+                new ArrayList<>(races.values()));
+        merged.setChecksum(snapshot.getChecksum());
+        merged.setDeltas(applied);
+        return merged;
+    }
+
+    /**
+     * Merges a chain of deltas into its base snapshot, then deletes them.
+     *
+     * @param base the base snapshot of the chain.
+     * @return the checksum of the new base snapshot.
+     * @throws IOException if any file in the chain cannot be read or is corrupt, or the base cannot be written.
+     */
+    public static int compact(Path base) throws IOException {
+        int length = chainLength(base);
+        BinarySnapshot snapshot = readChain(base);
+        if (snapshot.getDeltas() == 0) return snapshot.getChecksum();
+        int checksum = snapshot.write(base);
+        deleteChain(base, length);
+        return checksum;
+    }
+
+    /**
+     * @param base a base snapshot.
+     * @return the number of deltas that follow it.
+     */
+    public static int chainLength(Path base) {
+        int length = 0;
+        while (Files.exists(deltaFile(base, length + 1))) length++;
+        return length;
+    }
+
+    /**
+     * Deletes every delta that follows a base snapshot.
+     *
+     * @param base a base snapshot.
+     * @throws IOException if a delta cannot be deleted.
+     */
+    public static void deleteChain(Path base) throws IOException {
+        deleteChain(base, chainLength(base));
+    }
+    private static void deleteChain(Path base, int length) throws IOException {
+        for (int sequence = length; sequence >= 1; sequence--) Files.deleteIfExists(deltaFile(base, sequence));
+    }
+    static Path deltaFile(Path base, int sequence) {
+        return base.resolveSibling(base.getFileName() + "." + sequence);
+    }
+
+    /**
+     * Applies a delta to a portal's contents.
+     *
+     * @return the portal's next id after the delta, or -1 if the delta was written for a different base.
+     */
+    private static int apply(Path file, int baseChecksum, int sequence, LinkedHashMap<Integer, Entity> teams,
+            LinkedHashMap<Integer, Entity> races, HashMap<Integer, Stage> stages) throws IOException {
+        ByteBuffer in = BinarySnapshot.map(file, MAGIC, VERSION);
+        try {
+            if (in.getInt() != baseChecksum) return -1;
+            if (BinarySnapshot.getVarint(in) != sequence) {
+                throw new StreamCorruptedException(file + " is out of sequence");
+            }
+            int nextId = BinarySnapshot.getVarint(in);
+            String[] strings = BinarySnapshot.readStrings(in);
+            for (int count = BinarySnapshot.getVarint(in); count > 0; count--) {
+                teams.remove(BinarySnapshot.getVarint(in));
+            }
+            for (int count = BinarySnapshot.getVarint(in); count > 0; count--) {
+                Team team = BinarySnapshot.readTeam(in, strings);
+                teams.put(team.id, team);
+            }
+            for (int count = BinarySnapshot.getVarint(in); count > 0; count--) {
+                Race race = (Race) races.remove(BinarySnapshot.getVarint(in));
+                if (race != null) for (Stage stage : race.getChildren()) stages.remove(stage.id);
+            }
+            ArrayList<Race> changedRaces = new ArrayList<>();
+            ArrayList<int[]> changedStageIds = new ArrayList<>();
+            for (int count = BinarySnapshot.getVarint(in); count > 0; count--) {
+                changedRaces.add(new Race(BinarySnapshot.getVarint(in), BinarySnapshot.string(strings, in),
+                        BinarySnapshot.string(strings, in)));
+                int[] stageIds = new int[BinarySnapshot.getVarint(in)];
+                for (int i = 0; i < stageIds.length; i++) stageIds[i] = BinarySnapshot.getVarint(in);
+                changedStageIds.add(stageIds);
+            }
+            for (int count = BinarySnapshot.getVarint(in); count > 0; count--) {
+                Stage stage = BinarySnapshot.readStage(in, strings, false);
+                stages.put(stage.id, stage);
+            }
+            if (in.hasRemaining()) throw new StreamCorruptedException("Unexpected bytes after delta");
+            for (Entity race : races.values()) {
+                ((Race) race).getChildren().replaceAll(stage -> stages.get(stage.id));
+            }
+            for (int i = 0; i < changedRaces.size(); i++) {
+                Race race = changedRaces.get(i);
+                for (int stageId : changedStageIds.get(i)) {
+                    Stage stage = stages.get(stageId);
+                    if (stage == null) throw new StreamCorruptedException("Stage " + stageId + " missing from delta");
+                    race.getChildren().add(stage);
+                }
+                races.put(race.id, race);
+            }
+            return nextId;
+        } catch (RuntimeException e) {
+            throw new StreamCorruptedException("Malformed delta: " + e);
+        }
+    }
+    private static void putIds(BinarySnapshot.Output out, Iterable<Integer> ids) throws IOException {
+        int count = 0;
+        for (int ignored : ids) count++;
+        out.putVarint(count);
+        for (int id : ids) out.putVarint(id);
+    }
+}
@@ -8,6 +8,11 @@ import java.io.Serializable;
  * @author Marcus Carter
  */
 public class Entity implements Serializable {
+    /**
+     * The serialVersionUIDs of the entities are those their classes had when portals were first saved, so that
+     * files saved then can still be loaded.
+     */
+    private static final long serialVersionUID = -7899439090417505760L;
     protected final int id;
     protected final String name;
     public Entity(int id, String name) {
@@ -26,4 +31,9 @@ public class Entity implements Serializable {
         Entity entity = (Entity) object;
         return this.id == entity.id;
     }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
 }
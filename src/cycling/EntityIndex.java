@@ -0,0 +1,235 @@
+package cycling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps ids to {@link Race}s, {@link Stage}s, {@link Checkpoint}s, {@link Team}s and {@link Rider}s,
+ * along with each contained entity's container, so that every id lookup takes constant time. Also maps each rider to
+ * the stages they have results in, so a rider's results can be found without searching every stage.
+ * <p>
+ * Only the rider-to-stages map may be changed by several threads at once, since {@link ConcurrentCyclingPortal}
+ * registers and deletes results in different stages in parallel. It is split into stripes by rider id, each guarded
+ * by its own monitor, so threads only wait for each other when they change results of riders in the same stripe.
+ * Everything else must be changed by one thread at a time.
+ *
+ * @author Marcus Carter
+ */
+public class EntityIndex {
+    private static final int RIDER_STRIPES = 64;
+    private final IntMap<Race> races = new IntMap<>();
+    private final IntMap<Stage> stages = new IntMap<>();
+    private final IntMap<Race> stageRaces = new IntMap<>();
+    private final IntMap<Checkpoint> checkpoints = new IntMap<>();
+    private final IntMap<Stage> checkpointStages = new IntMap<>();
+    private final IntMap<Team> teams = new IntMap<>();
+    private final IntMap<Rider> riders = new IntMap<>();
+    private final IntMap<Team> riderTeams = new IntMap<>();
+    /**
+     * The stages each rider has results in, by rider id, split into stripes by {@link #stripe(int)}; riders with no
+     * results have no entry. Each stripe is guarded by itself.
+     */
+    private final IntMap<ArrayList<Stage>>[] riderStages = newStripes();
+
+    public Race getRace(int id) throws IDNotRecognisedException { return get(races, id, "Race"); }
+    public Stage getStage(int id) throws IDNotRecognisedException { return get(stages, id, "Stage"); }
+    public Checkpoint getCheckpoint(int id) throws IDNotRecognisedException { return get(checkpoints, id, "Checkpoint"); }
+    public Team getTeam(int id) throws IDNotRecognisedException { return get(teams, id, "Team"); }
+    public Rider getRider(int id) throws IDNotRecognisedException { return get(riders, id, "Rider"); }
+    public Race getRaceOrNull(int id) { return races.get(id); }
+    public Stage getStageOrNull(int id) { return stages.get(id); }
+    public Team getTeamOrNull(int id) { return teams.get(id); }
+    public Race getRaceOf(Stage stage) { return stageRaces.get(stage.id); }
+    public Stage getStageOf(Checkpoint checkpoint) { return checkpointStages.get(checkpoint.id); }
+    public Team getTeamOf(Rider rider) { return riderTeams.get(rider.id); }
+
+    /**
+     * @param rider a rider.
+     * @return a copy of the stages the rider has results in, in no particular order.
+     */
+    public List<Stage> getStagesOf(Rider rider) {
+        IntMap<ArrayList<Stage>> stripe = stripe(rider.id);
+        synchronized (stripe) {
+            ArrayList<Stage> stages = stripe.get(rider.id);
+            return stages == null ? List.of() : List.copyOf(stages);
+        }
+    }
+
+    public void addRace(Race race) { races.put(race.id, race); }
+    public void addStage(Race race, Stage stage) {
+        stages.put(stage.id, stage);
+        stageRaces.put(stage.id, race);
+    }
+    public void addCheckpoint(Stage stage, Checkpoint checkpoint) {
+        checkpoints.put(checkpoint.id, checkpoint);
+        checkpointStages.put(checkpoint.id, stage);
+    }
+    public void addTeam(Team team) { teams.put(team.id, team); }
+    public void addRider(Team team, Rider rider) {
+        riders.put(rider.id, rider);
+        riderTeams.put(rider.id, team);
+    }
+
+    /**
+     * Records that a rider has a result in a stage.
+     *
+     * @param riderId the id of the rider.
+     * @param stage the stage.
+     */
+    public void addResult(int riderId, Stage stage) {
+        IntMap<ArrayList<Stage>> stripe = stripe(riderId);
+        synchronized (stripe) {
+            ArrayList<Stage> stages = stripe.get(riderId);
+            if (stages == null) {
+                stages = new ArrayList<>(4);
+                stripe.put(riderId, stages);
+            }
+            stages.add(stage);
+        }
+    }
+
+    /**
+     * Records that a rider no longer has a result in a stage.
+     *
+     * @param riderId the id of the rider.
+     * @param stage the stage.
+     */
+    public void removeResult(int riderId, Stage stage) {
+        IntMap<ArrayList<Stage>> stripe = stripe(riderId);
+        synchronized (stripe) {
+            ArrayList<Stage> stages = stripe.get(riderId);
+            if (stages == null) return;
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                if (stages.get(i) == stage) {
+                    stages.set(i, stages.get(stages.size() - 1));
+                    stages.remove(stages.size() - 1);
+                    break;
+                }
+            }
+            if (stages.isEmpty()) stripe.remove(riderId);
+        }
+    }
+
+    /**
+     * Removes a race, along with its stages and their checkpoints.
+     *
+     * @param race the race to be removed.
+     */
+    public void removeRace(Race race) {
+        races.remove(race.id);
+        for (Stage stage : race.getChildren()) removeStage(stage);
+    }
+
+    /**
+     * Removes a stage, along with its checkpoints and its riders' results.
+     *
+     * @param stage the stage to be removed.
+     */
+    public void removeStage(Stage stage) {
+        stages.remove(stage.id);
+        stageRaces.remove(stage.id);
+        for (Checkpoint checkpoint : stage.getChildren()) removeCheckpoint(checkpoint);
+        for (int riderId : stage.getRiderIds()) removeResult(riderId, stage);
+    }
+    public void removeCheckpoint(Checkpoint checkpoint) {
+        checkpoints.remove(checkpoint.id);
+        checkpointStages.remove(checkpoint.id);
+    }
+
+    /**
+     * Removes a team, along with its riders.
+     *
+     * @param team the team to be removed.
+     */
+    public void removeTeam(Team team) {
+        teams.remove(team.id);
+        for (Rider rider : team.getChildren()) removeRider(rider);
+    }
+    public void removeRider(Rider rider) {
+        riders.remove(rider.id);
+        riderTeams.remove(rider.id);
+        IntMap<ArrayList<Stage>> stripe = stripe(rider.id);
+        synchronized (stripe) {
+            stripe.remove(rider.id);
+        }
+    }
+
+    public void clear() {
+        races.clear();
+        stages.clear();
+        stageRaces.clear();
+        checkpoints.clear();
+        checkpointStages.clear();
+        teams.clear();
+        riders.clear();
+        riderTeams.clear();
+        for (IntMap<ArrayList<Stage>> stripe : riderStages) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Clears the index, then indexes every entity within the given teams and races.
+     *
+     * @param teams the teams in the portal.
+     * @param races the races in the portal.
+     */
+    public void rebuild(ArrayList<Entity> teams, ArrayList<Entity> races) {
+        clear();
+        for (Entity entity : teams) {
+            Team team = (Team) entity;
+            addTeam(team);
+            for (Rider rider : team.getChildren()) addRider(team, rider);
+        }
+        for (Entity entity : races) {
+            Race race = (Race) entity;
+            addRace(race);
+            for (Stage stage : race.getChildren()) {
+                addStage(race, stage);
+                for (Checkpoint checkpoint : stage.getChildren()) addCheckpoint(stage, checkpoint);
+                for (int riderId : stage.getRiderIds()) addResult(riderId, stage);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IntMap<ArrayList<Stage>>[] newStripes() {
+        IntMap<ArrayList<Stage>>[] stripes = new IntMap[RIDER_STRIPES];
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new IntMap<>();
+        return stripes;
+    }
+
+    /**
+     * @param riderId the id of a rider.
+     * @return the stripe of the rider-to-stages map holding the rider.
+     */
+    private IntMap<ArrayList<Stage>> stripe(int riderId) {
+        return riderStages[(riderId * 0x9E3779B9 >>> 16) & (RIDER_STRIPES - 1)];
+    }
+
+    /**
+     * Gets an entity from an index, given its id.
+     *
+     * @param index the index you want to search.
+     * @param id the id of the entity you want to get.
+     * @param type the type of entity in the index, for the lookup event.
+     * @return the entity.
+     * @param <T> any class that extends Entity.
+     * @throws IDNotRecognisedException if the id does not match to any entity within the given index.
+     */
+    private static <T extends Entity> T get(IntMap<T> index, int id, String type) throws IDNotRecognisedException {
+        PortalEvents.Lookup event = new PortalEvents.Lookup();
+        event.begin();
+        T entity = index.get(id);
+        if (event.shouldCommit()) {
+            event.entityType = type;
+            event.entityId = id;
+            event.found = entity != null;
+            event.commit();
+        }
+        if (entity == null) throw new IDNotRecognisedException();
+        return entity;
+    }
+}
@@ -0,0 +1,637 @@
+package cycling;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MiniCyclingPortal} that times the calls to another portal, so the slow calls can be found in production.
+ * <p>
+ * Each operation, that is each method of {@link MiniCyclingPortal}, has a {@link LatencyHistogram} of how long its
+ * calls took, whether they returned or threw, a count of its calls, and a count of the exceptions it threw by type.
+ * Nothing is locked. Timing a call takes two reads of {@link System#nanoTime()} and an atomic increment, which can
+ * cost 100 ns where the clock is slow to read, as on many virtual machines, so by default only one call in
+ * {@value #DEFAULT_SAMPLE_INTERVAL}, chosen at random, is timed, and the rest are just counted with an atomic
+ * increment. That keeps the cost to about 20 ns a call, so the portal can stay instrumented under full load, while
+ * the histograms still show the shape of the latencies; the counts of calls and exceptions are always exact.
+ * {@link #snapshot()} copies what has been recorded so far, and {@link #reset()} also starts again from nothing.
+ * <p>
+ * The portal is as thread-safe as the portal it wraps: wrap a {@link ConcurrentCyclingPortal} to call it from many
+ * threads.
+ *
+ * @author Marcus Carter
+ */
+public class InstrumentedCyclingPortal implements MiniCyclingPortal {
+    /**
+     * The start of a call that is counted but not timed. {@link System#nanoTime()} could return it, but the odds
+     * are one in 2<sup>64</sup>, and the call would then just go untimed.
+     */
+    private static final long UNTIMED = Long.MIN_VALUE;
+    private static final int DEFAULT_SAMPLE_INTERVAL = 16;
+    private final MiniCyclingPortal portal;
+    /**
+     * One less than the sample interval, a power of two.
+     */
+    private final int sampleMask;
+    private final ArrayList<Operation> operations = new ArrayList<>();
+    private final Operation getRaceIds = operation("getRaceIds");
+    private final Operation createRace = operation("createRace");
+    private final Operation viewRaceDetails = operation("viewRaceDetails");
+    private final Operation removeRaceById = operation("removeRaceById");
+    private final Operation getNumberOfStages = operation("getNumberOfStages");
+    private final Operation addStageToRace = operation("addStageToRace");
+    private final Operation getRaceStages = operation("getRaceStages");
+    private final Operation getStageLength = operation("getStageLength");
+    private final Operation removeStageById = operation("removeStageById");
+    private final Operation addCategorizedClimbToStage = operation("addCategorizedClimbToStage");
+    private final Operation addIntermediateSprintToStage = operation("addIntermediateSprintToStage");
+    private final Operation removeCheckpoint = operation("removeCheckpoint");
+    private final Operation concludeStagePreparation = operation("concludeStagePreparation");
+    private final Operation getStageCheckpoints = operation("getStageCheckpoints");
+    private final Operation createTeam = operation("createTeam");
+    private final Operation removeTeam = operation("removeTeam");
+    private final Operation getTeams = operation("getTeams");
+    private final Operation getTeamRiders = operation("getTeamRiders");
+    private final Operation createRider = operation("createRider");
+    private final Operation removeRider = operation("removeRider");
+    private final Operation registerRiderResultsInStage = operation("registerRiderResultsInStage");
+    private final Operation getRiderResultsInStage = operation("getRiderResultsInStage");
+    private final Operation getRiderAdjustedElapsedTimeInStage = operation("getRiderAdjustedElapsedTimeInStage");
+    private final Operation deleteRiderResultsInStage = operation("deleteRiderResultsInStage");
+    private final Operation getRidersRankInStage = operation("getRidersRankInStage");
+    private final Operation getRankedAdjustedElapsedTimesInStage = operation("getRankedAdjustedElapsedTimesInStage");
+    private final Operation getRidersPointsInStage = operation("getRidersPointsInStage");
+    private final Operation getRidersMountainPointsInStage = operation("getRidersMountainPointsInStage");
+    private final Operation eraseCyclingPortal = operation("eraseCyclingPortal");
+    private final Operation saveCyclingPortal = operation("saveCyclingPortal");
+    private final Operation loadCyclingPortal = operation("loadCyclingPortal");
+
+    /**
+     * The calls to one operation.
+     */
+    private static final class Operation {
+        private final String name;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        /**
+         * The number of calls that were not timed.
+         */
+        private final AtomicLong untimed = new AtomicLong();
+        private final ConcurrentHashMap<Class<?>, AtomicLong> exceptions = new ConcurrentHashMap<>();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        void record(long start) {
+            if (start == UNTIMED) {
+                untimed.getAndIncrement();
+            } else {
+                latencies.record(System.nanoTime() - start);
+            }
+        }
+        void failed(Throwable exception) {
+            exceptions.computeIfAbsent(exception.getClass(), type -> new AtomicLong()).incrementAndGet();
+        }
+        OperationStats snapshot(boolean reset) {
+            TreeMap<String, Long> counts = new TreeMap<>();
+            for (Map.Entry<Class<?>, AtomicLong> entry : exceptions.entrySet()) {
+                long count = reset ? entry.getValue().getAndSet(0) : entry.getValue().get();
+                if (count > 0) counts.put(entry.getKey().getSimpleName(), count);
+            }
+            long calls = reset ? untimed.getAndSet(0) : untimed.get();
+            LatencyHistogram histogram = reset ? latencies.reset() : latencies.snapshot();
+            return new OperationStats(name, histogram, calls + histogram.getCount(), counts);
+        }
+    }
+
+    /**
+     * What was recorded of the calls to one operation, up to when the snapshot was taken.
+     */
+    public static final class OperationStats {
+        private final String operation;
+        private final LatencyHistogram latencies;
+        private final long calls;
+        private final Map<String, Long> exceptions;
+
+        OperationStats(String operation, LatencyHistogram latencies, long calls, Map<String, Long> exceptions) {
+            this.operation = operation;
+            this.latencies = latencies;
+            this.calls = calls;
+            this.exceptions = Collections.unmodifiableMap(exceptions);
+        }
+        @Override
+        public String toString() {
+            return "OperationStats[operation="+operation+", calls="+calls+", latencies="+latencies+", exceptions="+
+                    exceptions+"]";
+        }
+
+        /**
+         * @return the name of the {@link MiniCyclingPortal} method.
+         */
+        public String getOperation() { return operation; }
+
+        /**
+         * @return the latencies of the calls that were timed, in nanoseconds.
+         */
+        public LatencyHistogram getLatencies() { return latencies; }
+        public long getCalls() { return calls; }
+
+        /**
+         * @return the number of exceptions thrown, by the simple name of their class, in order of name.
+         */
+        public Map<String, Long> getExceptions() { return exceptions; }
+        public long getExceptionCount() {
+            long count = 0;
+            for (long n : exceptions.values()) count += n;
+            return count;
+        }
+    }
+
+    /**
+     * @param portal the portal to time a sample of calls to.
+     */
+    public InstrumentedCyclingPortal(MiniCyclingPortal portal) {
+        this(portal, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param portal the portal to time calls to.
+     * @param sampleInterval time one call in this many, rounded up to a power of two, or 1 to time every call; the
+     *                       rest are only counted.
+     */
+    public InstrumentedCyclingPortal(MiniCyclingPortal portal, int sampleInterval) {
+        if (portal == null) throw new IllegalArgumentException("portal must not be null");
+        if (sampleInterval < 1 || sampleInterval > 1 << 30) {
+            throw new IllegalArgumentException("sampleInterval must be from 1 to 2^30");
+        }
+        this.portal = portal;
+        int interval = 1;
+        while (interval < sampleInterval) interval <<= 1;
+        sampleMask = interval - 1;
+    }
+    @Override
+    public String toString() {
+        return "InstrumentedCyclingPortal[portal="+portal+", sampleInterval="+(sampleMask + 1)+"]";
+    }
+
+    /**
+     * @return the wrapped portal, whose calls are not timed.
+     */
+    public MiniCyclingPortal getPortal() { return portal; }
+    public int getSampleInterval() { return sampleMask + 1; }
+
+    /**
+     * @return what has been recorded of each operation since the portal was created or last reset, by operation, in
+     *         the order they are declared in {@link MiniCyclingPortal}.
+     */
+    public Map<String, OperationStats> snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Starts recording every operation again from nothing. Each call is either in the returned snapshot or recorded
+     * afterwards, never both or neither.
+     *
+     * @return what had been recorded of each operation, as {@link #snapshot()} would have returned it.
+     */
+    public Map<String, OperationStats> reset() {
+        return snapshot(true);
+    }
+    private Map<String, OperationStats> snapshot(boolean reset) {
+        LinkedHashMap<String, OperationStats> stats = new LinkedHashMap<>();
+        for (Operation operation : operations) stats.put(operation.name, operation.snapshot(reset));
+        return stats;
+    }
+
+    /**
+     * @return the start of a call, or {@link #UNTIMED} if it is not one of those sampled.
+     */
+    private long start() {
+        if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) return UNTIMED;
+        return System.nanoTime();
+    }
+    private Operation operation(String name) {
+        Operation operation = new Operation(name);
+        operations.add(operation);
+        return operation;
+    }
+
+    @Override
+    public int[] getRaceIds() {
+        long start = start();
+        try {
+            return portal.getRaceIds();
+        } catch (Throwable e) {
+            getRaceIds.failed(e);
+            throw e;
+        } finally {
+            getRaceIds.record(start);
+        }
+    }
+
+    @Override
+    public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
+        long start = start();
+        try {
+            return portal.createRace(name, description);
+        } catch (Throwable e) {
+            createRace.failed(e);
+            throw e;
+        } finally {
+            createRace.record(start);
+        }
+    }
+
+    @Override
+    public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.viewRaceDetails(raceId);
+        } catch (Throwable e) {
+            viewRaceDetails.failed(e);
+            throw e;
+        } finally {
+            viewRaceDetails.record(start);
+        }
+    }
+
+    @Override
+    public void removeRaceById(int raceId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            portal.removeRaceById(raceId);
+        } catch (Throwable e) {
+            removeRaceById.failed(e);
+            throw e;
+        } finally {
+            removeRaceById.record(start);
+        }
+    }
+
+    @Override
+    public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getNumberOfStages(raceId);
+        } catch (Throwable e) {
+            getNumberOfStages.failed(e);
+            throw e;
+        } finally {
+            getNumberOfStages.record(start);
+        }
+    }
+
+    @Override
+    public int addStageToRace(int raceId, String stageName, String description, double length,
+            LocalDateTime startTime, StageType type)
+            throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
+        long start = start();
+        try {
+            return portal.addStageToRace(raceId, stageName, description, length, startTime, type);
+        } catch (Throwable e) {
+            addStageToRace.failed(e);
+            throw e;
+        } finally {
+            addStageToRace.record(start);
+        }
+    }
+
+    @Override
+    public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getRaceStages(raceId);
+        } catch (Throwable e) {
+            getRaceStages.failed(e);
+            throw e;
+        } finally {
+            getRaceStages.record(start);
+        }
+    }
+
+    @Override
+    public double getStageLength(int stageId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getStageLength(stageId);
+        } catch (Throwable e) {
+            getStageLength.failed(e);
+            throw e;
+        } finally {
+            getStageLength.record(start);
+        }
+    }
+
+    @Override
+    public void removeStageById(int stageId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            portal.removeStageById(stageId);
+        } catch (Throwable e) {
+            removeStageById.failed(e);
+            throw e;
+        } finally {
+            removeStageById.record(start);
+        }
+    }
+
+    @Override
+    public int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type, Double averageGradient,
+            Double length) throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+            InvalidStageTypeException {
+        long start = start();
+        try {
+            return portal.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+        } catch (Throwable e) {
+            addCategorizedClimbToStage.failed(e);
+            throw e;
+        } finally {
+            addCategorizedClimbToStage.record(start);
+        }
+    }
+
+    @Override
+    public int addIntermediateSprintToStage(int stageId, double location) throws IDNotRecognisedException,
+            InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
+        long start = start();
+        try {
+            return portal.addIntermediateSprintToStage(stageId, location);
+        } catch (Throwable e) {
+            addIntermediateSprintToStage.failed(e);
+            throw e;
+        } finally {
+            addIntermediateSprintToStage.record(start);
+        }
+    }
+
+    @Override
+    public void removeCheckpoint(int checkpointId) throws IDNotRecognisedException, InvalidStageStateException {
+        long start = start();
+        try {
+            portal.removeCheckpoint(checkpointId);
+        } catch (Throwable e) {
+            removeCheckpoint.failed(e);
+            throw e;
+        } finally {
+            removeCheckpoint.record(start);
+        }
+    }
+
+    @Override
+    public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
+        long start = start();
+        try {
+            portal.concludeStagePreparation(stageId);
+        } catch (Throwable e) {
+            concludeStagePreparation.failed(e);
+            throw e;
+        } finally {
+            concludeStagePreparation.record(start);
+        }
+    }
+
+    @Override
+    public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getStageCheckpoints(stageId);
+        } catch (Throwable e) {
+            getStageCheckpoints.failed(e);
+            throw e;
+        } finally {
+            getStageCheckpoints.record(start);
+        }
+    }
+
+    @Override
+    public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
+        long start = start();
+        try {
+            return portal.createTeam(name, description);
+        } catch (Throwable e) {
+            createTeam.failed(e);
+            throw e;
+        } finally {
+            createTeam.record(start);
+        }
+    }
+
+    @Override
+    public void removeTeam(int teamId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            portal.removeTeam(teamId);
+        } catch (Throwable e) {
+            removeTeam.failed(e);
+            throw e;
+        } finally {
+            removeTeam.record(start);
+        }
+    }
+
+    @Override
+    public int[] getTeams() {
+        long start = start();
+        try {
+            return portal.getTeams();
+        } catch (Throwable e) {
+            getTeams.failed(e);
+            throw e;
+        } finally {
+            getTeams.record(start);
+        }
+    }
+
+    @Override
+    public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getTeamRiders(teamId);
+        } catch (Throwable e) {
+            getTeamRiders.failed(e);
+            throw e;
+        } finally {
+            getTeamRiders.record(start);
+        }
+    }
+
+    @Override
+    public int createRider(int teamID, String name, int yearOfBirth)
+            throws IDNotRecognisedException, IllegalArgumentException {
+        long start = start();
+        try {
+            return portal.createRider(teamID, name, yearOfBirth);
+        } catch (Throwable e) {
+            createRider.failed(e);
+            throw e;
+        } finally {
+            createRider.record(start);
+        }
+    }
+
+    @Override
+    public void removeRider(int riderId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            portal.removeRider(riderId);
+        } catch (Throwable e) {
+            removeRider.failed(e);
+            throw e;
+        } finally {
+            removeRider.record(start);
+        }
+    }
+
+    @Override
+    public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpointTimes)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
+            InvalidStageStateException {
+        long start = start();
+        try {
+            portal.registerRiderResultsInStage(stageId, riderId, checkpointTimes);
+        } catch (Throwable e) {
+            registerRiderResultsInStage.failed(e);
+            throw e;
+        } finally {
+            registerRiderResultsInStage.record(start);
+        }
+    }
+
+    @Override
+    public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getRiderResultsInStage(stageId, riderId);
+        } catch (Throwable e) {
+            getRiderResultsInStage.failed(e);
+            throw e;
+        } finally {
+            getRiderResultsInStage.record(start);
+        }
+    }
+
+    @Override
+    public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId);
+        } catch (Throwable e) {
+            getRiderAdjustedElapsedTimeInStage.failed(e);
+            throw e;
+        } finally {
+            getRiderAdjustedElapsedTimeInStage.record(start);
+        }
+    }
+
+    @Override
+    public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            portal.deleteRiderResultsInStage(stageId, riderId);
+        } catch (Throwable e) {
+            deleteRiderResultsInStage.failed(e);
+            throw e;
+        } finally {
+            deleteRiderResultsInStage.record(start);
+        }
+    }
+
+    @Override
+    public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getRidersRankInStage(stageId);
+        } catch (Throwable e) {
+            getRidersRankInStage.failed(e);
+            throw e;
+        } finally {
+            getRidersRankInStage.record(start);
+        }
+    }
+
+    @Override
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getRankedAdjustedElapsedTimesInStage(stageId);
+        } catch (Throwable e) {
+            getRankedAdjustedElapsedTimesInStage.failed(e);
+            throw e;
+        } finally {
+            getRankedAdjustedElapsedTimesInStage.record(start);
+        }
+    }
+
+    @Override
+    public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getRidersPointsInStage(stageId);
+        } catch (Throwable e) {
+            getRidersPointsInStage.failed(e);
+            throw e;
+        } finally {
+            getRidersPointsInStage.record(start);
+        }
+    }
+
+    @Override
+    public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+        long start = start();
+        try {
+            return portal.getRidersMountainPointsInStage(stageId);
+        } catch (Throwable e) {
+            getRidersMountainPointsInStage.failed(e);
+            throw e;
+        } finally {
+            getRidersMountainPointsInStage.record(start);
+        }
+    }
+
+    @Override
+    public void eraseCyclingPortal() {
+        long start = start();
+        try {
+            portal.eraseCyclingPortal();
+        } catch (Throwable e) {
+            eraseCyclingPortal.failed(e);
+            throw e;
+        } finally {
+            eraseCyclingPortal.record(start);
+        }
+    }
+
+    @Override
+    public void saveCyclingPortal(String filename) throws IOException {
+        long start = start();
+        try {
+            portal.saveCyclingPortal(filename);
+        } catch (Throwable e) {
+            saveCyclingPortal.failed(e);
+            throw e;
+        } finally {
+            saveCyclingPortal.record(start);
+        }
+    }
+
+    @Override
+    public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+        long start = start();
+        try {
+            portal.loadCyclingPortal(filename);
+        } catch (Throwable e) {
+            loadCyclingPortal.failed(e);
+            throw e;
+        } finally {
+            loadCyclingPortal.record(start);
+        }
+    }
+}
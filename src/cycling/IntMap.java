@@ -0,0 +1,149 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A map from primitive ints to objects, using open addressing with linear probing.
+ * <p>
+ * Keys are stored unboxed in one array and values in a parallel one, so no node or {@link Integer} is
+ * allocated per entry, and ids are spread over the table with a Fibonacci hash. The table is at most half
+ * full, so an entry costs between 16 and 32 bytes (a 4-byte key and a 4-byte compressed reference per slot).
+ * A {@code HashMap<Integer, V>} entry costs about 53 bytes: a 32-byte node, a 16-byte {@link Integer}
+ * (outside of the -128 to 127 cache) and about 5 bytes of bucket array at a 0.75 load factor.
+ *
+ * @param <V> the class of the values in the map.
+ *
+ * @author Marcus Carter
+ */
+public class IntMap<V> implements Serializable {
+    private static final int MIN_CAPACITY = 8;
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntMap() { this(MIN_CAPACITY); }
+
+    /**
+     * @param expectedSize the number of entries the map should hold without resizing.
+     */
+    public IntMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+    @Override
+    public String toString() {
+        return "IntMap[size="+size+", capacity="+keys.length+"]";
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public boolean containsKey(int key) { return values[find(key)] != null; }
+
+    /**
+     * @param key the key whose value you want to get.
+     * @return the value mapped to the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) { return (V) values[find(key)]; }
+
+    /**
+     * Maps a key to a value, replacing any value it was previously mapped to.
+     *
+     * @param key the key.
+     * @param value the value, which must not be null.
+     * @return the value previously mapped to the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) throw new NullPointerException();
+        int slot = find(key);
+        V previous = (V) values[slot];
+        keys[slot] = key;
+        values[slot] = value;
+        if (previous == null && ++size * 2 > keys.length) resize(keys.length << 1);
+        return previous;
+    }
+
+    /**
+     * Removes a key, then shifts back any entries that probed past it, so no tombstones are left behind.
+     *
+     * @param key the key to be removed.
+     * @return the value the key was mapped to, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = find(key);
+        V previous = (V) values[slot];
+        if (previous == null) return null;
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = slot(keys[i]);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+        size--;
+        return previous;
+    }
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return the keys in the map, in table order.
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) if (values[i] != null) result[n++] = keys[i];
+        return result;
+    }
+
+    /**
+     * @return the values in the map, in table order.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>(size);
+        for (Object value : values) if (value != null) result.add((V) value);
+        return result;
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would be inserted.
+     *
+     * @param key the key you want to find.
+     * @return the index of the slot.
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (values[i] != null && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) continue;
+            int slot = find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
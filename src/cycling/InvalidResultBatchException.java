@@ -0,0 +1,33 @@
+package cycling;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Thrown when one or more rows of a {@link ResultBatch} cannot be registered, in which case none of them are. Holds
+ * the exception each invalid row would have caused if it had been registered on its own.
+ *
+ * @author Marcus Carter
+ */
+public class InvalidResultBatchException extends Exception {
+	private final SortedMap<Integer, Exception> rowErrors;
+
+	/**
+	 * Constructs an instance of the exception with the errors of each invalid row
+	 *
+	 * @param rowErrors the exception for each invalid row, by row index
+	 */
+	public InvalidResultBatchException(SortedMap<Integer, Exception> rowErrors) {
+		super(rowErrors.size() + " invalid row(s), first at row " + rowErrors.firstKey());
+		this.rowErrors = Collections.unmodifiableSortedMap(new TreeMap<>(rowErrors));
+	}
+
+	/**
+	 * @return the exception for each invalid row, by row index
+	 */
+	public SortedMap<Integer, Exception> getRowErrors() {
+		return rowErrors;
+	}
+
+}
@@ -0,0 +1,661 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link CyclingPortalImpl} that keeps itself in a directory: a snapshot, plus a write-ahead journal of every call
+ * that has changed the portal since the snapshot was taken.
+ * <p>
+ * Each successful mutating call is appended to the journal as a record of its length, a CRC32 of its body, and the
+ * body: an opcode and the call's arguments. Records are buffered and the journal is forced to disk as a group: after
+ * every {@code groupSize} records, within {@code maxDelayMillis} of the first unsynced record, and whenever
+ * {@link #sync()}, {@link #checkpoint()} or {@link #close()} is called. A call's changes are only durable once its
+ * record has been synced. If a background sync fails, it is retried after the next delay, and the failure is thrown
+ * by the next mutating call, as an {@link UncheckedIOException}, or by the next {@link #sync()}, {@link #checkpoint()}
+ * or {@link #close()}.
+ * <p>
+ * Snapshots and journals come in generations: {@code snapshot-<n>.bin} and {@code journal-<n>.log}. Opening a
+ * directory loads the newest snapshot and replays its journal, stopping at the first torn or corrupt record, which
+ * is then cut off. A checkpoint saves generation n + 1's snapshot, starts its empty journal, and only then deletes
+ * generation n, so a crash at any point recovers to the same state. A checkpoint is taken automatically once the
+ * journal grows past {@code checkpointBytes}.
+ *
+ * @author Marcus Carter
+ */
+public final class JournaledCyclingPortal implements MiniCyclingPortal, AutoCloseable {
+    private static final int DEFAULT_GROUP_SIZE = 64;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 10;
+    private static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte CREATE_RACE = 1;
+    private static final byte REMOVE_RACE = 2;
+    private static final byte ADD_STAGE = 3;
+    private static final byte REMOVE_STAGE = 4;
+    private static final byte ADD_CLIMB = 5;
+    private static final byte ADD_SPRINT = 6;
+    private static final byte REMOVE_CHECKPOINT = 7;
+    private static final byte CONCLUDE_STAGE_PREPARATION = 8;
+    private static final byte CREATE_TEAM = 9;
+    private static final byte REMOVE_TEAM = 10;
+    private static final byte CREATE_RIDER = 11;
+    private static final byte REMOVE_RIDER = 12;
+    private static final byte REGISTER_RESULTS = 13;
+    private static final byte REGISTER_BATCH = 14;
+    private static final byte DELETE_RESULTS = 15;
+    private static final byte ERASE = 16;
+    private final CyclingPortalImpl portal = new CyclingPortalImpl();
+    private final Path directory;
+    private final int groupSize;
+    private final long checkpointBytes;
+    private final ScheduledExecutorService flusher;
+    private final UnaryOperator<FileChannel> wrapJournal;
+    private final CRC32 crc = new CRC32();
+    /**
+     * Records not yet written to the journal, always ready to be written to; a failed write leaves the bytes it did
+     * not write at the front, to be written first by the next flush.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Whole records that did not fit in the buffer, to be written after it, in order. Once a record is here, every
+     * later one is too until the queue is written, so records reach the journal in the order they were appended.
+     */
+    private final ArrayDeque<ByteBuffer> overflow = new ArrayDeque<>();
+    private ByteBuffer record = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    private FileChannel journal;
+    private int generation;
+    private long journalBytes;
+    private int unsyncedRecords;
+    private long records;
+    private long syncs;
+    /**
+     * The reason the background flusher last failed to sync the journal, reported by the next call that syncs it.
+     */
+    private IOException flushFailure;
+
+    public JournaledCyclingPortal(Path directory) throws IOException {
+        this(directory, DEFAULT_GROUP_SIZE, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Opens a portal kept in a directory, recovering whatever is already there.
+     *
+     * @param directory the directory of the snapshot and journal, which is created if it does not exist.
+     * @param groupSize the number of records appended between syncs.
+     * @param maxDelayMillis the longest a record may wait to be synced, or 0 to sync only after groups of records.
+     * @param checkpointBytes the size of journal that triggers a checkpoint, or 0 to checkpoint only when asked.
+     * @throws IOException if the directory cannot be read or written, or a snapshot in it is corrupt.
+     */
+    public JournaledCyclingPortal(Path directory, int groupSize, long maxDelayMillis, long checkpointBytes)
+            throws IOException {
+        this(directory, groupSize, maxDelayMillis, checkpointBytes, UnaryOperator.identity());
+    }
+
+    /**
+     * Opens a portal kept in a directory, with every journal it opens wrapped, so tests can make writes fail.
+     *
+     * @param wrapJournal wraps each journal channel as it is opened.
+     */
+    JournaledCyclingPortal(Path directory, int groupSize, long maxDelayMillis, long checkpointBytes,
+            UnaryOperator<FileChannel> wrapJournal) throws IOException {
+        if (groupSize < 1) throw new IllegalArgumentException("groupSize must be positive");
+        this.directory = directory;
+        this.groupSize = groupSize;
+        this.checkpointBytes = checkpointBytes;
+        this.wrapJournal = wrapJournal;
+        Files.createDirectories(directory);
+        recover();
+        if (maxDelayMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::syncIfDirty, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+    @Override
+    public String toString() {
+        return "JournaledCyclingPortal[directory="+directory+", generation="+generation+", journalBytes="+
+                journalBytes+"]";
+    }
+
+    /**
+     * @return the wrapped portal, whose changes are not journaled.
+     */
+    public CyclingPortalImpl getPortal() { return portal; }
+    public synchronized long getRecordCount() { return records; }
+    public synchronized long getSyncCount() { return syncs; }
+    public synchronized long getJournalBytes() { return journalBytes; }
+
+    /**
+     * Forces every record appended so far to disk.
+     *
+     * @throws IOException if the journal cannot be written.
+     */
+    public synchronized void sync() throws IOException {
+        IOException failure = flushFailure;
+        flushFailure = null;
+        try {
+            flushBuffer();
+            journal.force(false);
+        } catch (IOException e) {
+            if (failure != null) e.addSuppressed(failure);
+            throw e;
+        }
+        unsyncedRecords = 0;
+        syncs++;
+        if (failure != null) throw new IOException("A background sync of the journal failed", failure);
+    }
+
+    /**
+     * Saves a new snapshot of the portal and starts a new, empty journal, then deletes the old snapshot and journal.
+     *
+     * @throws IOException if the snapshot or journal cannot be written.
+     */
+    public synchronized void checkpoint() throws IOException {
+        sync();
+        int next = generation + 1;
+        portal.saveCyclingPortal(snapshotFile(next).toString(), SnapshotFormat.BINARY);
+        FileChannel nextJournal = openJournal(next);
+        journal.close();
+        journal = nextJournal;
+        Files.deleteIfExists(journalFile(generation));
+        Files.deleteIfExists(snapshotFile(generation));
+        generation = next;
+        journalBytes = 0;
+    }
+
+    /**
+     * Syncs the journal and stops the background flusher.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (flusher != null) flusher.shutdown();
+        try {
+            sync();
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Override
+    public int[] getRaceIds() { return portal.getRaceIds(); }
+
+    @Override
+    public synchronized int createRace(String name, String description)
+            throws IllegalNameException, InvalidNameException {
+        int raceId = portal.createRace(name, description);
+        begin(CREATE_RACE).putString(name).putString(description).append();
+        return raceId;
+    }
+
+    @Override
+    public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+        return portal.viewRaceDetails(raceId);
+    }
+
+    @Override
+    public synchronized void removeRaceById(int raceId) throws IDNotRecognisedException {
+        portal.removeRaceById(raceId);
+        begin(REMOVE_RACE).putVarint(raceId).append();
+    }
+
+    @Override
+    public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+        return portal.getNumberOfStages(raceId);
+    }
+
+    @Override
+    public synchronized int addStageToRace(int raceId, String stageName, String description, double length,
+            LocalDateTime startTime, StageType type)
+            throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
+        int stageId = portal.addStageToRace(raceId, stageName, description, length, startTime, type);
+        begin(ADD_STAGE).putVarint(raceId).putString(stageName).putString(description).putDouble(length)
+                .putLong(startTime.toEpochSecond(ZoneOffset.UTC)).putVarint(startTime.getNano())
+                .putVarint(type.ordinal()).append();
+        return stageId;
+    }
+
+    @Override
+    public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+        return portal.getRaceStages(raceId);
+    }
+
+    @Override
+    public double getStageLength(int stageId) throws IDNotRecognisedException {
+        return portal.getStageLength(stageId);
+    }
+
+    @Override
+    public synchronized void removeStageById(int stageId) throws IDNotRecognisedException {
+        portal.removeStageById(stageId);
+        begin(REMOVE_STAGE).putVarint(stageId).append();
+    }
+
+    @Override
+    public synchronized int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type,
+            Double averageGradient, Double length) throws IDNotRecognisedException, InvalidLocationException,
+            InvalidStageStateException, InvalidStageTypeException {
+        int checkpointId = portal.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+        begin(ADD_CLIMB).putVarint(stageId).putDouble(location).putVarint(type.ordinal()).putDouble(averageGradient)
+                .putDouble(length).append();
+        return checkpointId;
+    }
+
+    @Override
+    public synchronized int addIntermediateSprintToStage(int stageId, double location)
+            throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+            InvalidStageTypeException {
+        int checkpointId = portal.addIntermediateSprintToStage(stageId, location);
+        begin(ADD_SPRINT).putVarint(stageId).putDouble(location).append();
+        return checkpointId;
+    }
+
+    @Override
+    public synchronized void removeCheckpoint(int checkpointId)
+            throws IDNotRecognisedException, InvalidStageStateException {
+        portal.removeCheckpoint(checkpointId);
+        begin(REMOVE_CHECKPOINT).putVarint(checkpointId).append();
+    }
+
+    @Override
+    public synchronized void concludeStagePreparation(int stageId)
+            throws IDNotRecognisedException, InvalidStageStateException {
+        portal.concludeStagePreparation(stageId);
+        begin(CONCLUDE_STAGE_PREPARATION).putVarint(stageId).append();
+    }
+
+    @Override
+    public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
+        return portal.getStageCheckpoints(stageId);
+    }
+
+    @Override
+    public synchronized int createTeam(String name, String description)
+            throws IllegalNameException, InvalidNameException {
+        int teamId = portal.createTeam(name, description);
+        begin(CREATE_TEAM).putString(name).putString(description).append();
+        return teamId;
+    }
+
+    @Override
+    public synchronized void removeTeam(int teamId) throws IDNotRecognisedException {
+        portal.removeTeam(teamId);
+        begin(REMOVE_TEAM).putVarint(teamId).append();
+    }
+
+    @Override
+    public int[] getTeams() { return portal.getTeams(); }
+
+    @Override
+    public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+        return portal.getTeamRiders(teamId);
+    }
+
+    @Override
+    public synchronized int createRider(int teamID, String name, int yearOfBirth)
+            throws IDNotRecognisedException, IllegalArgumentException {
+        int riderId = portal.createRider(teamID, name, yearOfBirth);
+        begin(CREATE_RIDER).putVarint(teamID).putString(name).putVarint(yearOfBirth).append();
+        return riderId;
+    }
+
+    @Override
+    public synchronized void removeRider(int riderId) throws IDNotRecognisedException {
+        portal.removeRider(riderId);
+        begin(REMOVE_RIDER).putVarint(riderId).append();
+    }
+
+    @Override
+    public synchronized void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpointTimes)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
+            InvalidStageStateException {
+        portal.registerRiderResultsInStage(stageId, riderId, checkpointTimes);
+        Record body = begin(REGISTER_RESULTS).putVarint(stageId).putVarint(riderId).putVarint(checkpointTimes.length);
+        for (LocalTime time : checkpointTimes) body.putLong(time.toNanoOfDay());
+        body.append();
+    }
+
+    /**
+     * Records the times of many riders in a stage at once, as
+     * {@link CyclingPortalImpl#registerRiderResultsInStage(int, ResultBatch)} does, journaling the batch as one
+     * record.
+     */
+    public synchronized void registerRiderResultsInStage(int stageId, ResultBatch batch)
+            throws IDNotRecognisedException, InvalidStageStateException, InvalidResultBatchException {
+        portal.registerRiderResultsInStage(stageId, batch);
+        Record body = begin(REGISTER_BATCH).putVarint(stageId).putVarint(batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+            body.putVarint(batch.getRiderId(row)).putVarint(batch.getLength(row));
+            for (int i = 0; i < batch.getLength(row); i++) body.putLong(batch.getTime(row, i));
+        }
+        body.append();
+    }
+
+    @Override
+    public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        return portal.getRiderResultsInStage(stageId, riderId);
+    }
+
+    @Override
+    public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        return portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId);
+    }
+
+    @Override
+    public synchronized void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        portal.deleteRiderResultsInStage(stageId, riderId);
+        begin(DELETE_RESULTS).putVarint(stageId).putVarint(riderId).append();
+    }
+
+    @Override
+    public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+        return portal.getRidersRankInStage(stageId);
+    }
+
+    @Override
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
+        return portal.getRankedAdjustedElapsedTimesInStage(stageId);
+    }
+
+    @Override
+    public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+        return portal.getRidersPointsInStage(stageId);
+    }
+
+    @Override
+    public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+        return portal.getRidersMountainPointsInStage(stageId);
+    }
+
+    @Override
+    public synchronized void eraseCyclingPortal() {
+        portal.eraseCyclingPortal();
+        begin(ERASE).append();
+    }
+
+    @Override
+    public synchronized void saveCyclingPortal(String filename) throws IOException {
+        portal.saveCyclingPortal(filename);
+    }
+
+    /**
+     * Loads a file into the portal, then takes a checkpoint, so the journal never has to refer to the file.
+     */
+    @Override
+    public synchronized void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+        portal.loadCyclingPortal(filename);
+        checkpoint();
+    }
+
+    /**
+     * Loads the newest snapshot in the directory, replays its journal, and deletes any older generations.
+     */
+    private void recover() throws IOException {
+        generation = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "snapshot-*.bin")) {
+            for (Path file : files) generation = Math.max(generation, generationOf(file));
+        }
+        if (generation >= 0) {
+            try {
+                portal.loadCyclingPortal(snapshotFile(generation).toString());
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        } else {
+            generation = 0;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{snapshot,journal}-*")) {
+            for (Path file : files) {
+                if (generationOf(file) < generation || file.toString().endsWith(".tmp")) Files.delete(file);
+            }
+        }
+        journal = openJournal(generation);
+        journalBytes = replay(journal);
+        journal.truncate(journalBytes);
+        journal.position(journalBytes);
+    }
+
+    /**
+     * Applies every intact record in a journal to the portal.
+     *
+     * @return the length of the intact records, in bytes.
+     */
+    private long replay(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) return 0;
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        while (in.remaining() >= RECORD_HEADER_BYTES) {
+            int start = in.position();
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length < 1 || length > in.remaining()) return start;
+            ByteBuffer body = in.slice(in.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) return start;
+            try {
+                apply(body);
+            } catch (Exception e) {
+                throw new IOException("Journal record at byte " + start + " could not be replayed", e);
+            }
+            in.position(in.position() + length);
+        }
+        return in.position();
+    }
+    private void apply(ByteBuffer in) throws Exception {
+        switch (in.get()) {
+            case CREATE_RACE -> portal.createRace(getString(in), getString(in));
+            case REMOVE_RACE -> portal.removeRaceById(BinarySnapshot.getVarint(in));
+            case ADD_STAGE -> portal.addStageToRace(BinarySnapshot.getVarint(in), getString(in), getString(in),
+                    in.getDouble(), LocalDateTime.ofEpochSecond(in.getLong(), BinarySnapshot.getVarint(in),
+                            ZoneOffset.UTC), StageType.values()[BinarySnapshot.getVarint(in)]);
+            case REMOVE_STAGE -> portal.removeStageById(BinarySnapshot.getVarint(in));
+            case ADD_CLIMB -> portal.addCategorizedClimbToStage(BinarySnapshot.getVarint(in), in.getDouble(),
+                    CheckpointType.values()[BinarySnapshot.getVarint(in)], in.getDouble(), in.getDouble());
+            case ADD_SPRINT -> portal.addIntermediateSprintToStage(BinarySnapshot.getVarint(in), in.getDouble());
+            case REMOVE_CHECKPOINT -> portal.removeCheckpoint(BinarySnapshot.getVarint(in));
+            case CONCLUDE_STAGE_PREPARATION -> portal.concludeStagePreparation(BinarySnapshot.getVarint(in));
+            case CREATE_TEAM -> portal.createTeam(getString(in), getString(in));
+            case REMOVE_TEAM -> portal.removeTeam(BinarySnapshot.getVarint(in));
+            case CREATE_RIDER -> portal.createRider(BinarySnapshot.getVarint(in), getString(in),
+                    BinarySnapshot.getVarint(in));
+            case REMOVE_RIDER -> portal.removeRider(BinarySnapshot.getVarint(in));
+            case REGISTER_RESULTS -> {
+                int stageId = BinarySnapshot.getVarint(in);
+                int riderId = BinarySnapshot.getVarint(in);
+                LocalTime[] times = new LocalTime[BinarySnapshot.getVarint(in)];
+                for (int i = 0; i < times.length; i++) times[i] = LocalTime.ofNanoOfDay(in.getLong());
+                portal.registerRiderResultsInStage(stageId, riderId, times);
+            }
+            case REGISTER_BATCH -> {
+                int stageId = BinarySnapshot.getVarint(in);
+                int numRows = BinarySnapshot.getVarint(in);
+                ResultBatch batch = new ResultBatch(numRows, numRows * 4);
+                long[] times = new long[16];
+                for (int row = 0; row < numRows; row++) {
+                    int riderId = BinarySnapshot.getVarint(in);
+                    int length = BinarySnapshot.getVarint(in);
+                    if (length > times.length) times = new long[length];
+                    for (int i = 0; i < length; i++) times[i] = in.getLong();
+                    batch.add(riderId, times, 0, length);
+                }
+                portal.registerRiderResultsInStage(stageId, batch);
+            }
+            case DELETE_RESULTS -> portal.deleteRiderResultsInStage(BinarySnapshot.getVarint(in),
+                    BinarySnapshot.getVarint(in));
+            case ERASE -> portal.eraseCyclingPortal();
+            default -> throw new IOException("Unknown journal opcode");
+        }
+    }
+
+    /**
+     * Starts a record.
+     *
+     * @param opcode the call the record is of.
+     * @return the record, to which the call's arguments are added.
+     */
+    private Record begin(byte opcode) {
+        record.clear();
+        record.put(opcode);
+        return new Record();
+    }
+
+    /**
+     * The body of the record being built, which is appended to the journal once complete.
+     */
+    private class Record {
+        Record putVarint(int value) {
+            ensure(5);
+            long bits = value & 0xFFFFFFFFL;
+            while ((bits & ~0x7FL) != 0) {
+                record.put((byte) (bits & 0x7F | 0x80));
+                bits >>>= 7;
+            }
+            record.put((byte) bits);
+            return this;
+        }
+        Record putLong(long value) {
+            ensure(Long.BYTES);
+            record.putLong(value);
+            return this;
+        }
+        Record putDouble(double value) {
+            ensure(Double.BYTES);
+            record.putDouble(value);
+            return this;
+        }
+
+        /**
+         * Adds a string as its length in UTF-8 plus one, then its bytes, or as zero if it is null.
+         */
+        Record putString(String value) {
+            if (value == null) return putVarint(0);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length + 1);
+            ensure(bytes.length);
+            record.put(bytes);
+            return this;
+        }
+
+        /**
+         * Appends the record to the journal, syncing it if it completes a group, and checkpointing if the journal
+         * has grown too large. The portal has already been changed, so failing to journal the change is fatal to
+         * the caller; the record is kept even so, and written by the next sync that succeeds.
+         */
+        void append() {
+            try {
+                record.flip();
+                crc.reset();
+                crc.update(record.array(), 0, record.limit());
+                int length = record.limit();
+                IOException failure = null;
+                if (overflow.isEmpty() && buffer.remaining() < RECORD_HEADER_BYTES + length) {
+                    try {
+                        flushBuffer();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                if (overflow.isEmpty() && buffer.remaining() >= RECORD_HEADER_BYTES + length) {
+                    buffer.putInt(length).putInt((int) crc.getValue()).put(record);
+                } else {
+                    ByteBuffer whole = ByteBuffer.allocate(RECORD_HEADER_BYTES + length).order(ByteOrder.LITTLE_ENDIAN);
+                    overflow.add(whole.putInt(length).putInt((int) crc.getValue()).put(record).flip());
+                }
+                journalBytes += RECORD_HEADER_BYTES + length;
+                records++;
+                unsyncedRecords++;
+                if (failure != null) throw failure;
+                if (!overflow.isEmpty()) flushBuffer();
+                if (unsyncedRecords >= groupSize || flushFailure != null) sync();
+                if (checkpointBytes > 0 && journalBytes >= checkpointBytes) checkpoint();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not journal a change to the portal", e);
+            }
+        }
+        private void ensure(int bytes) {
+            if (record.remaining() < bytes) {
+                int capacity = Math.max(record.capacity() * 2, record.position() + bytes);
+                record = ByteBuffer.wrap(Arrays.copyOf(record.array(), capacity)).order(ByteOrder.LITTLE_ENDIAN)
+                        .position(record.position());
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = BinarySnapshot.getVarint(in) - 1;
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Syncs the journal from the background flusher. A failure is kept for the next call that syncs, rather than
+     * thrown, which would cancel the flusher for good; the records stay unsynced, so the next run retries them.
+     */
+    private synchronized void syncIfDirty() {
+        if (unsyncedRecords == 0 || !journal.isOpen()) return;
+        try {
+            flushBuffer();
+            journal.force(false);
+            unsyncedRecords = 0;
+            syncs++;
+        } catch (IOException e) {
+            flushFailure = e;
+        }
+    }
+
+    /**
+     * Writes the buffer, then the overflow, to the journal. Whatever a failed write leaves unwritten stays where it
+     * was, so calling this again carries on from the first byte not written.
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) journal.write(buffer);
+        } finally {
+            buffer.compact();
+        }
+        for (ByteBuffer next = overflow.peek(); next != null; next = overflow.peek()) {
+            while (next.hasRemaining()) journal.write(next);
+            overflow.remove();
+        }
+    }
+    private FileChannel openJournal(int generation) throws IOException {
+        return wrapJournal.apply(FileChannel.open(journalFile(generation), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+    private Path snapshotFile(int generation) { return directory.resolve("snapshot-" + generation + ".bin"); }
+    private Path journalFile(int generation) { return directory.resolve("journal-" + generation + ".log"); }
+    private static int generationOf(Path file) {
+        String name = file.getFileName().toString();
+        int start = name.indexOf('-') + 1;
+        int end = start;
+        while (end < name.length() && Character.isDigit(name.charAt(end))) end++;
+        return Integer.parseInt(name.substring(start, end));
+    }
+}
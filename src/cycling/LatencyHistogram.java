@@ -0,0 +1,130 @@
+package cycling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds that many threads can record into at once without locking.
+ * <p>
+ * Values are counted in log-linear buckets, as in HdrHistogram: values below {@value #SUB_BUCKETS} have a bucket
+ * each, and every power of two above that is split into {@value #HALF_SUB_BUCKETS} equal buckets, so any value is
+ * known to within about 3%, from a nanosecond up to {@link Long#MAX_VALUE}, in under 2,000 counters. Recording a
+ * value is one atomic increment of its bucket, plus a compare-and-set in the rare case it is a new maximum.
+ * <p>
+ * A snapshot copies each bucket atomically, but not all of them at once, so values recorded while it is taken may or
+ * may not be in it.
+ *
+ * @author Marcus Carter
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    static final int NUM_BUCKETS = (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count="+getCount()+", p50="+getValueAtPercentile(50)+", p99="+
+                getValueAtPercentile(99)+", max="+getMax()+"]";
+    }
+
+    /**
+     * Records one value.
+     *
+     * @param nanos the value, where negative values count as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.getAndIncrement(bucket(nanos));
+        if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return the number of values recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * @return the largest value recorded, exactly, or 0 if there are none.
+     */
+    public long getMax() { return max.get(); }
+
+    /**
+     * @return the mean of the values recorded, taking each value as the middle of its bucket, or 0 if there are none.
+     */
+    public double getMean() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n == 0) continue;
+            count += n;
+            total += n * (lowestValue(i) / 2.0 + highestValue(i) / 2.0);
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100.
+     * @return the highest value of the bucket holding the value at the percentile, but no more than
+     *         {@link #getMax()}, or 0 if there are no values.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile must be from 0 to 100");
+        long[] snapshot = new long[NUM_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) count += snapshot[i] = counts.get(i);
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * @return a copy of the histogram.
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < NUM_BUCKETS; i++) copy.counts.set(i, counts.get(i));
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    /**
+     * Empties the histogram, moving what it held into a copy. Every value recorded is in either the copy or the
+     * histogram, never both or neither.
+     *
+     * @return a copy of the histogram before it was emptied.
+     */
+    public LatencyHistogram reset() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.max.set(max.getAndSet(0));
+        for (int i = 0; i < NUM_BUCKETS; i++) copy.counts.set(i, counts.getAndSet(i, 0));
+        return copy;
+    }
+
+    /**
+     * @return the bucket a value is counted in.
+     */
+    static int bucket(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+    static long lowestValue(int bucket) {
+        int shift = Math.max(0, bucket / HALF_SUB_BUCKETS - 1);
+        return (long) (bucket - shift * HALF_SUB_BUCKETS) << shift;
+    }
+    static long highestValue(int bucket) {
+        return bucket == NUM_BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(bucket + 1) - 1;
+    }
+}
@@ -0,0 +1,228 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * The riders in a {@link Stage}, ordered by their elapsed times and then their ids, which can be updated one result
+ * at a time.
+ * <p>
+ * It is a treap: a binary search tree whose nodes also form a heap on random priorities, which keeps its expected
+ * depth logarithmic. Each node counts the nodes below it, so a rider's position, and the rider at a position, can be
+ * found in O(log n), as can each insertion and removal.
+ *
+ * @author Marcus Carter
+ */
+public class Leaderboard {
+    private Node root;
+    private long seed = 0x9E3779B97F4A7C15L;
+
+    private static class Node {
+        final long elapsedTime;
+        final int riderId;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(long elapsedTime, int riderId, int priority) {
+            this.elapsedTime = elapsedTime;
+            this.riderId = riderId;
+            this.priority = priority;
+        }
+    }
+
+    public Leaderboard() {}
+
+    /**
+     * Builds a leaderboard from riders who are already in order, in O(n).
+     *
+     * @param riderIds the ids of the riders, ordered by their elapsed times and then their ids.
+     * @param elapsedTimes the elapsed times of the riders, in the same order.
+     */
+    public Leaderboard(int[] riderIds, long[] elapsedTimes) {
+        Node[] spine = new Node[riderIds.length + 1];
+        int depth = 0;
+        for (int i = 0; i < riderIds.length; i++) {
+            Node node = new Node(elapsedTimes[i], riderIds[i], nextPriority());
+            Node last = null;
+            while (depth > 0 && spine[depth - 1].priority < node.priority) last = spine[--depth];
+            node.left = last;
+            if (depth > 0) spine[depth - 1].right = node;
+            spine[depth++] = node;
+        }
+        root = depth > 0 ? spine[0] : null;
+        resize(root);
+    }
+    @Override
+    public String toString() {
+        return "Leaderboard[numRiders="+size()+"]";
+    }
+
+    public int size() { return size(root); }
+
+    /**
+     * Adds a rider to the leaderboard.
+     *
+     * @param elapsedTime the elapsed time of the rider.
+     * @param riderId the id of the rider.
+     */
+    public void add(long elapsedTime, int riderId) {
+        root = insert(root, new Node(elapsedTime, riderId, nextPriority()));
+    }
+
+    /**
+     * Removes a rider from the leaderboard.
+     *
+     * @param elapsedTime the elapsed time the rider was added with.
+     * @param riderId the id of the rider.
+     */
+    public void remove(long elapsedTime, int riderId) {
+        root = delete(root, elapsedTime, riderId);
+    }
+
+    /**
+     * Finds a rider's position on the leaderboard.
+     *
+     * @param elapsedTime the elapsed time the rider was added with.
+     * @param riderId the id of the rider.
+     * @return the number of riders ahead of the rider.
+     */
+    public int indexOf(long elapsedTime, int riderId) {
+        int index = 0;
+        Node node = root;
+        while (node != null) {
+            int comparison = compare(elapsedTime, riderId, node);
+            if (comparison == 0) return index + size(node.left);
+            if (comparison < 0) {
+                node = node.left;
+            } else {
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        throw new IllegalArgumentException("Rider " + riderId + " is not on the leaderboard");
+    }
+
+    /**
+     * @param index the number of riders ahead of the rider you want to get.
+     * @return the id of the rider.
+     */
+    public int get(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException(index);
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index == leftSize) return node.riderId;
+            if (index < leftSize) {
+                node = node.left;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Lists every rider on the leaderboard, in order, in O(n).
+     *
+     * @param riderIds filled with the ids of the riders; must be at least {@link #size()} long.
+     * @param elapsedTimes filled with the elapsed times of the riders; must be at least {@link #size()} long.
+     */
+    public void toArrays(int[] riderIds, long[] elapsedTimes) {
+        Node[] stack = new Node[64];
+        int depth = 0;
+        int i = 0;
+        Node node = root;
+        while (node != null || depth > 0) {
+            while (node != null) {
+                if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                stack[depth++] = node;
+                node = node.left;
+            }
+            node = stack[--depth];
+            riderIds[i] = node.riderId;
+            elapsedTimes[i++] = node.elapsedTime;
+            node = node.right;
+        }
+    }
+
+    private Node insert(Node node, Node inserted) {
+        if (node == null) return inserted;
+        node.size++;
+        if (compare(inserted.elapsedTime, inserted.riderId, node) < 0) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority) node = rotateRight(node);
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority) node = rotateLeft(node);
+        }
+        return node;
+    }
+    private Node delete(Node node, long elapsedTime, int riderId) {
+        if (node == null) throw new IllegalArgumentException("Rider " + riderId + " is not on the leaderboard");
+        int comparison = compare(elapsedTime, riderId, node);
+        if (comparison < 0) {
+            node.left = delete(node.left, elapsedTime, riderId);
+        } else if (comparison > 0) {
+            node.right = delete(node.right, elapsedTime, riderId);
+        } else {
+            return merge(node.left, node.right);
+        }
+        node.size--;
+        return node;
+    }
+
+    /**
+     * Joins two treaps, where every node in the first comes before every node in the second.
+     */
+    private Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.size += right.size;
+            left.right = merge(left.right, right);
+            return left;
+        }
+        right.size += left.size;
+        right.left = merge(left, right.left);
+        return right;
+    }
+    private Node rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        pivot.size = node.size;
+        node.size = size(node.left) + size(node.right) + 1;
+        return pivot;
+    }
+    private Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        pivot.size = node.size;
+        node.size = size(node.left) + size(node.right) + 1;
+        return pivot;
+    }
+
+    /**
+     * Recounts the nodes below every node, after a build.
+     *
+     * @return the number of nodes in the subtree.
+     */
+    private static int resize(Node node) {
+        if (node == null) return 0;
+        node.size = resize(node.left) + resize(node.right) + 1;
+        return node.size;
+    }
+    private static int size(Node node) { return node == null ? 0 : node.size; }
+    private static int compare(long elapsedTime, int riderId, Node node) {
+        int comparison = Long.compare(elapsedTime, node.elapsedTime);
+        return comparison != 0 ? comparison : Integer.compare(riderId, node.riderId);
+    }
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (int) (seed >>> 32);
+    }
+}
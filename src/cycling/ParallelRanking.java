@@ -0,0 +1,216 @@
+package cycling;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Parallel versions of the steps of ranking a {@link Stage}, used for stages with at least {@link #getThreshold()}
+ * results. Each gives exactly the same output as its sequential version: the sorts are stable merge sorts, and the
+ * grouping sweep is split into chunks whose first groups are joined up afterwards.
+ * <p>
+ * Work is forked into the {@link ForkJoinPool} of the calling thread, or the common pool if it is not in one. The
+ * threshold defaults to the {@code cycling.parallelRankingThreshold} system property, or 32768.
+ *
+ * @author Marcus Carter
+ */
+public final class ParallelRanking {
+    public static final int DEFAULT_THRESHOLD = 1 << 15;
+    /**
+     * The smallest range worth splitting in two.
+     */
+    private static final int GRAIN = 1 << 13;
+    /**
+     * Marks an adjusted elapsed time that belongs to a group begun in an earlier chunk.
+     */
+    private static final long UNRESOLVED = Long.MIN_VALUE;
+    private static volatile int threshold = Integer.getInteger("cycling.parallelRankingThreshold", DEFAULT_THRESHOLD);
+
+    private ParallelRanking() {}
+
+    public static int getThreshold() { return threshold; }
+
+    /**
+     * @param threshold the number of results from which stages are ranked in parallel, or
+     *                  {@link Integer#MAX_VALUE} to always rank them sequentially.
+     */
+    public static void setThreshold(int threshold) {
+        if (threshold < 1) throw new IllegalArgumentException("threshold must be positive");
+        ParallelRanking.threshold = threshold;
+    }
+
+    /**
+     * @param size the number of results in a stage.
+     * @return true if the stage should be ranked in parallel.
+     */
+    public static boolean isParallel(int size) { return size >= threshold; }
+
+    /**
+     * Sorts values into ascending order, as {@link Arrays#sort(long[])} does.
+     *
+     * @param values the values to be sorted.
+     */
+    public static void sort(long[] values) {
+        new SortTask(values, new long[values.length], 0, values.length).invoke();
+    }
+
+    /**
+     * Sorts the indices of the keys by their keys, as {@link ArgSort#argsort(long[])} does.
+     *
+     * @param keys the keys to be sorted by.
+     * @return the indices of the keys, in the order of their keys; indices with equal keys stay in order.
+     */
+    public static int[] argsort(long[] keys) {
+        int[] indices = new int[keys.length];
+        forEachChunk(keys.length, (from, to) -> {
+            for (int i = from; i < to; i++) indices[i] = i;
+        });
+        new ArgSortTask(keys, indices, new int[indices.length], 0, indices.length).invoke();
+        return indices;
+    }
+
+    /**
+     * Gives every rider the elapsed time of the first rider in their group, where a rider is in the same group as
+     * the rider ahead of them if they finish no more than a gap behind.
+     *
+     * @param elapsedTimes the elapsed times of the riders, ascending.
+     * @param gap the largest gap between two riders in the same group.
+     * @return the adjusted elapsed times of the riders, ascending.
+     */
+    public static long[] adjust(long[] elapsedTimes, long gap) {
+        int n = elapsedTimes.length;
+        long[] adjusted = new long[n];
+        int chunk = chunkSize(n);
+        forEachChunk(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                boolean grouped = i > 0 && elapsedTimes[i] - elapsedTimes[i - 1] <= gap;
+                adjusted[i] = !grouped ? elapsedTimes[i] : i == from ? UNRESOLVED : adjusted[i - 1];
+            }
+        });
+        for (int from = chunk; from < n; from += chunk) {
+            for (int i = from; i < n && adjusted[i] == UNRESOLVED; i++) adjusted[i] = adjusted[i - 1];
+        }
+        return adjusted;
+    }
+
+    /**
+     * Finds the rows of many riders' results.
+     *
+     * @param results the results to be searched.
+     * @param riderIds the ids of the riders.
+     * @return the row of each rider's result, or -1 if they have none.
+     */
+    public static int[] rowsOf(ResultTable results, int[] riderIds) {
+        int[] rows = new int[riderIds.length];
+        forEachChunk(riderIds.length, (from, to) -> {
+            for (int i = from; i < to; i++) rows[i] = results.rowOf(riderIds[i]);
+        });
+        return rows;
+    }
+
+    /**
+     * Runs a task for each index from 0 to n in parallel.
+     */
+    static void forEach(int n, IntConsumer task) {
+        RecursiveAction[] tasks = new RecursiveAction[n];
+        for (int i = 0; i < n; i++) {
+            int index = i;
+            tasks[i] = new RecursiveAction() {
+                @Override
+                protected void compute() { task.accept(index); }
+            };
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * A range of indices to be processed by one task.
+     */
+    interface Chunk {
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits the indices from 0 to n into chunks of {@link #chunkSize(int)}, and runs them in parallel.
+     */
+    static void forEachChunk(int n, Chunk chunk) {
+        if (n == 0) return;
+        int size = chunkSize(n);
+        RecursiveAction[] tasks = new RecursiveAction[(n + size - 1) / size];
+        for (int i = 0; i < tasks.length; i++) {
+            int from = i * size;
+            int to = Math.min(n, from + size);
+            tasks[i] = new RecursiveAction() {
+                @Override
+                protected void compute() { chunk.run(from, to); }
+            };
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * @return a chunk size giving each thread of the pool a few chunks, but no chunk smaller than the grain.
+     */
+    private static int chunkSize(int n) {
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        int chunks = pool.getParallelism() * 4;
+        return Math.max(GRAIN, (n + chunks - 1) / chunks);
+    }
+
+    private static class SortTask extends RecursiveAction {
+        private final long[] values;
+        private final long[] buffer;
+        private final int from;
+        private final int to;
+
+        SortTask(long[] values, long[] buffer, int from, int to) {
+            this.values = values;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                Arrays.sort(values, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(values, buffer, from, mid), new SortTask(values, buffer, mid, to));
+            if (values[mid - 1] <= values[mid]) return;
+            System.arraycopy(values, from, buffer, from, to - from);
+            int i = from, j = mid, k = from;
+            while (i < mid && j < to) values[k++] = buffer[j] < buffer[i] ? buffer[j++] : buffer[i++];
+            while (i < mid) values[k++] = buffer[i++];
+            while (j < to) values[k++] = buffer[j++];
+        }
+    }
+
+    private static class ArgSortTask extends RecursiveAction {
+        private final long[] keys;
+        private final int[] indices;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+
+        ArgSortTask(long[] keys, int[] indices, int[] buffer, int from, int to) {
+            this.keys = keys;
+            this.indices = indices;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                ArgSort.sort(keys, indices, buffer, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ArgSortTask(keys, indices, buffer, from, mid), new ArgSortTask(keys, indices, buffer, mid, to));
+            ArgSort.merge(keys, indices, buffer, from, mid, to);
+        }
+    }
+}
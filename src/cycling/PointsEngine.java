@@ -0,0 +1,217 @@
+package cycling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Awards points in a {@link Stage}. The critical point of each intermediate sprint and categorized climb, and the
+ * points table that goes with it, are worked out once, when the engine is built.
+ * <p>
+ * Only the riders fast enough to score at a checkpoint are placed; see {@link Award}. Riders with equal times share the
+ * higher place. The checkpoints of a stage with many riders are placed in parallel, and their awards then added to
+ * the riders' totals one after another.
+ *
+ * @author Marcus Carter
+ */
+public class PointsEngine {
+    private final boolean timeTrial;
+    private final int[] finishPoints;
+    private final int[] sprintCriticalPoints;
+    private final int[] climbCriticalPoints;
+    private final int[][] climbPoints;
+
+    /**
+     * @param stage the stage whose checkpoints you want to award points for.
+     */
+    public PointsEngine(Stage stage) {
+        timeTrial = stage.isTimeTrial();
+        finishPoints = toArray(Stage.SPRINTER_POINTS.get(stage.type));
+        ArrayList<Checkpoint> checkpoints = stage.getChildren();
+        int numClimbs = (int) checkpoints.stream().filter(checkpoint -> checkpoint instanceof Climb).count();
+        sprintCriticalPoints = new int[checkpoints.size() - numClimbs];
+        climbCriticalPoints = new int[numClimbs];
+        climbPoints = new int[numClimbs][];
+        int sprint = 0, climb = 0;
+        for (int i = 0; i < checkpoints.size(); i++) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            if (checkpoint instanceof Climb) {
+                climbCriticalPoints[climb] = i + 1;
+                climbPoints[climb++] = toArray(Climb.MOUNTAIN_POINTS.get(checkpoint.type));
+            } else {
+                sprintCriticalPoints[sprint++] = i + 1;
+            }
+        }
+    }
+    @Override
+    public String toString() {
+        return "PointsEngine[numSprints="+sprintCriticalPoints.length+", numClimbs="+climbCriticalPoints.length+"]";
+    }
+
+    /**
+     * Awards each rider points for their finishing place and, unless the stage is a time trial, their place at
+     * each intermediate sprint.
+     *
+     * @param results the results in the stage.
+     * @param rows the rows of the riders' results, ranked by their elapsed times.
+     * @param elapsedTimes the elapsed times of the riders, ranked.
+     * @return the points of the riders, ranked.
+     */
+    public int[] points(ResultTable results, int[] rows, long[] elapsedTimes) {
+        int[] points = new int[rows.length];
+        awardSorted(elapsedTimes, finishPoints, points);
+        if (timeTrial) return points;
+        int[][] tables = new int[sprintCriticalPoints.length][];
+        Arrays.fill(tables, Checkpoint.INTERMEDIATE_SPRINT_POINTS);
+        for (Award award : placings(results, rows, sprintCriticalPoints, tables)) award.addTo(points);
+        return points;
+    }
+
+    /**
+     * Awards each rider mountain points for their place at each categorized climb.
+     *
+     * @param results the results in the stage.
+     * @param rows the rows of the riders' results, ranked by their elapsed times.
+     * @return the mountain points of the riders, ranked.
+     */
+    public int[] mountainPoints(ResultTable results, int[] rows) {
+        int[] points = new int[rows.length];
+        if (timeTrial) return points;
+        for (Award award : placings(results, rows, climbCriticalPoints, climbPoints)) award.addTo(points);
+        return points;
+    }
+
+    /**
+     * Places the riders at each of a set of checkpoints, in parallel if there are many riders.
+     *
+     * @param results the results in the stage.
+     * @param rows the rows of the riders' results, ranked.
+     * @param criticalPoints the critical point of each checkpoint.
+     * @param tables the points for each place at each checkpoint.
+     * @return the points awarded at each checkpoint.
+     */
+    private static Award[] placings(ResultTable results, int[] rows, int[] criticalPoints, int[][] tables) {
+        if (rows.length == 0) return new Award[0];
+        Award[] awards = new Award[criticalPoints.length];
+        if (criticalPoints.length > 1 && ParallelRanking.isParallel(rows.length)) {
+            ParallelRanking.forEach(awards.length,
+                    i -> awards[i] = Award.place(results.getColumn(criticalPoints[i]), rows, tables[i]));
+        } else {
+            for (int i = 0; i < awards.length; i++) {
+                awards[i] = Award.place(results.getColumn(criticalPoints[i]), rows, tables[i]);
+            }
+        }
+        return awards;
+    }
+
+    /**
+     * Places riders by their times at a checkpoint, then adds the points for each place to their totals.
+     *
+     * @param times the times of the riders at the checkpoint.
+     * @param table the points for each place.
+     * @param totals the riders' points so far, in the same order as their times.
+     */
+    static void award(long[] times, int[] table, int[] totals) {
+        Award.place(times, null, table).addTo(totals);
+    }
+
+    /**
+     * Adds the points for each place to the totals of riders whose times are already in order.
+     *
+     * @param times the times of the riders, ascending.
+     * @param table the points for each place.
+     * @param totals the riders' points so far, in the same order as their times.
+     */
+    static void awardSorted(long[] times, int[] table, int[] totals) {
+        int place = 0;
+        for (int k = 0; k < times.length; k++) {
+            if (k > 0 && times[k] != times[k - 1]) place = k;
+            if (place >= table.length) break;
+            totals[k] += table[place];
+        }
+    }
+
+    /**
+     * The points awarded at one checkpoint: only to the riders placed high enough to score, so it is as long as the
+     * points table, give or take ties, however many riders there are.
+     * <p>
+     * A rider's place is the number of riders strictly faster than them, so a rider scores if and only if their time
+     * is no later than the k-th fastest, where k is the length of the table. That time is found in one pass, keeping
+     * the k fastest times in order; only the riders no later than it are then sorted.
+     */
+    static final class Award {
+        private final int[] riders;
+        private final int[] points;
+        private final int size;
+
+        private Award(int[] riders, int[] points, int size) {
+            this.riders = riders;
+            this.points = points;
+            this.size = size;
+        }
+        @Override
+        public String toString() {
+            return "Award[size="+size+"]";
+        }
+
+        /**
+         * Places riders by their times at a checkpoint.
+         *
+         * @param column the times at the checkpoint.
+         * @param rows the index in the column of each rider's time, or null if the column is in the riders' order.
+         * @param table the points for each place.
+         * @return the points awarded, by the riders' indices.
+         */
+        static Award place(long[] column, int[] rows, int[] table) {
+            int n = rows == null ? column.length : rows.length;
+            int k = table.length;
+            long slowest = Long.MAX_VALUE;
+            if (n > k) {
+                long[] fastest = new long[k];
+                int count = 0;
+                for (int i = 0; i < n; i++) {
+                    long time = rows == null ? column[i] : column[rows[i]];
+                    if (count == k && time >= fastest[k - 1]) continue;
+                    int j = count == k ? k - 1 : count++;
+                    for (; j > 0 && fastest[j - 1] > time; j--) fastest[j] = fastest[j - 1];
+                    fastest[j] = time;
+                }
+                slowest = fastest[k - 1];
+            }
+            int[] riders = new int[Math.min(n, k * 2)];
+            long[] times = new long[riders.length];
+            int size = 0;
+            for (int i = 0; i < n; i++) {
+                long time = rows == null ? column[i] : column[rows[i]];
+                if (time > slowest) continue;
+                if (size == riders.length) {
+                    riders = Arrays.copyOf(riders, size * 2);
+                    times = Arrays.copyOf(times, size * 2);
+                }
+                riders[size] = i;
+                times[size++] = time;
+            }
+            int[] order = ArgSort.argsort(size == times.length ? times : Arrays.copyOf(times, size));
+            int[] placed = new int[size];
+            int[] points = new int[size];
+            int place = 0;
+            for (int j = 0; j < size; j++) {
+                if (j > 0 && times[order[j]] != times[order[j - 1]]) place = j;
+                placed[j] = riders[order[j]];
+                points[j] = table[place];
+            }
+            return new Award(placed, points, size);
+        }
+
+        /**
+         * Adds the points to the riders' totals.
+         *
+         * @param totals the riders' points so far.
+         */
+        void addTo(int[] totals) {
+            for (int j = 0; j < size; j++) totals[riders[j]] += points[j];
+        }
+    }
+    private static int[] toArray(ArrayList<Integer> points) {
+        return points.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
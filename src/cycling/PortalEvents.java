@@ -0,0 +1,107 @@
+package cycling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events of the portal's hot paths, so a recording shows which stages, and which calls on
+ * them, are expensive.
+ * <p>
+ * Each event is begun before the work and committed after it, and its fields are only filled in if
+ * {@link Event#shouldCommit()}. When no recording is running the events are not instrumented, so {@code begin()} and
+ * {@code commit()} do nothing and the JIT removes the event altogether: the events cost nothing unless they are being
+ * recorded.
+ *
+ * @author Marcus Carter
+ */
+final class PortalEvents {
+    static final String CATEGORY = "Cycling Portal";
+
+    private PortalEvents() {
+    }
+
+    /**
+     * An event about one stage.
+     */
+    @Category(CATEGORY)
+    @StackTrace(false)
+    abstract static class StageEvent extends Event {
+        @Label("Stage Id")
+        int stageId;
+        @Label("Rider Count")
+        @Description("The number of riders with results in the stage, or in the batch registered")
+        int riderCount;
+        @Label("Checkpoint Count")
+        int checkpointCount;
+
+        void set(Stage stage, int riderCount) {
+            stageId = stage.id;
+            this.riderCount = riderCount;
+            checkpointCount = stage.numCriticalPoints() - 2;
+        }
+    }
+
+    @Name("cycling.ResultRegistration")
+    @Label("Result Registration")
+    @Description("Results registered in a stage, one rider's or a batch")
+    static final class ResultRegistration extends StageEvent {
+    }
+
+    @Name("cycling.Ranking")
+    @Label("Stage Ranking")
+    @Description("The results of a stage ranked, after they changed")
+    static final class Ranking extends StageEvent {
+    }
+
+    @Name("cycling.Points")
+    @Label("Stage Points")
+    @Description("The points or mountain points of a stage's riders computed, after its results changed")
+    static final class Points extends StageEvent {
+        @Label("Mountain")
+        boolean mountain;
+    }
+
+    @Name("cycling.Snapshot")
+    @Label("Portal Snapshot")
+    @Description("The whole portal saved to, or loaded from, a file")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Snapshot extends Event {
+        @Label("File")
+        String file;
+        @Label("Load")
+        @Description("Whether the portal was loaded, rather than saved")
+        boolean load;
+        @Label("Format")
+        String format;
+        @Label("Stage Count")
+        int stageCount;
+        @Label("Rider Count")
+        int riderCount;
+        @Label("Checkpoint Count")
+        int checkpointCount;
+    }
+
+    /**
+     * Lookups take nanoseconds and happen on every call, so they are off unless a recording enables them.
+     */
+    @Name("cycling.Lookup")
+    @Label("Entity Lookup")
+    @Description("A race, stage, checkpoint, team or rider looked up by id")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Enabled(false)
+    static final class Lookup extends Event {
+        @Label("Entity Type")
+        String entityType;
+        @Label("Entity Id")
+        int entityId;
+        @Label("Found")
+        boolean found;
+    }
+}
@@ -0,0 +1,281 @@
+package cycling;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A JSON front end for a {@link MiniCyclingPortal}, served over HTTP by the JDK's {@link HttpServer}, with each
+ * request handled on its own virtual thread. The portal is called from many threads at once, so it must be
+ * thread-safe, such as a {@link ConcurrentCyclingPortal}.
+ * <p>
+ * Every resource belongs to a stage:
+ * <pre>
+ * GET    /stages/{stageId}/rank                                   rider ids, ranked
+ * GET    /stages/{stageId}/adjusted-elapsed-times                 adjusted elapsed times, ranked
+ * GET    /stages/{stageId}/points                                 points, ranked
+ * GET    /stages/{stageId}/mountain-points                        mountain points, ranked
+ * GET    /stages/{stageId}/results/{riderId}                      the rider's checkpoint times and elapsed time
+ * GET    /stages/{stageId}/results/{riderId}/adjusted-elapsed-time the rider's adjusted elapsed time
+ * PUT    /stages/{stageId}/results/{riderId}                      registers the rider's checkpoint times
+ * DELETE /stages/{stageId}/results/{riderId}                      deletes the rider's results
+ * </pre>
+ * Times are strings in the form of {@link LocalTime#toString()}, so the body of a PUT is an array of them, such as
+ * {@code ["12:00", "13:41:07.5", "16:02:33"]}. A PUT or DELETE answers 204 with no body. Errors are answered with
+ * {@code {"error": message}}: 404 for unknown ids or paths, 405 for unsupported methods, 409 for duplicated results
+ * or a stage in the wrong state, 422 for checkpoint times of the wrong length, 400 for a malformed request, and 500
+ * for anything else.
+ *
+ * @author Marcus Carter
+ */
+public class PortalHttpServer implements AutoCloseable {
+    private static final int DEFAULT_BACKLOG = 1024;
+    /**
+     * The largest request body read, far more than the times of any stage.
+     */
+    private static final int MAX_BODY = 1 << 16;
+    private final MiniCyclingPortal portal;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Starts serving a portal.
+     *
+     * @param portal the portal to serve, which must be thread-safe.
+     * @param address the address to listen on; port 0 picks a free port.
+     * @throws IOException if the server cannot listen on the address.
+     */
+    public PortalHttpServer(MiniCyclingPortal portal, InetSocketAddress address) throws IOException {
+        this(portal, address, DEFAULT_BACKLOG);
+    }
+
+    /**
+     * Starts serving a portal.
+     *
+     * @param portal the portal to serve, which must be thread-safe.
+     * @param address the address to listen on; port 0 picks a free port.
+     * @param backlog the number of connections that may wait to be accepted.
+     * @throws IOException if the server cannot listen on the address.
+     */
+    public PortalHttpServer(MiniCyclingPortal portal, InetSocketAddress address, int backlog) throws IOException {
+        this.portal = portal;
+        server = HttpServer.create(address, backlog);
+        server.setExecutor(executor);
+        server.createContext("/stages/", this::handle);
+        server.start();
+    }
+    @Override
+    public String toString() {
+        return "PortalHttpServer[address="+server.getAddress()+"]";
+    }
+
+    public InetSocketAddress getAddress() { return server.getAddress(); }
+    public int getPort() { return server.getAddress().getPort(); }
+
+    /**
+     * Stops accepting connections, waits for the requests being handled to finish, and stops the server.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            int status = 200;
+            String body;
+            try {
+                body = route(exchange);
+                if (body == null) status = 204;
+            } catch (IDNotRecognisedException e) {
+                status = 404;
+                body = error(e, "ID not recognised");
+            } catch (DuplicatedResultException | InvalidStageStateException e) {
+                status = 409;
+                body = error(e, "Conflict");
+            } catch (InvalidCheckpointTimesException e) {
+                status = 422;
+                body = error(e, "Invalid checkpoint times");
+            } catch (HttpError e) {
+                status = e.status;
+                body = error(e, "Error");
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                status = 400;
+                body = error(e, "Bad request");
+            } catch (RuntimeException e) {
+                status = 500;
+                body = error(e, e.toString());
+            }
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Answers a request.
+     *
+     * @return the body of the response, or null if it has none.
+     */
+    private String route(HttpExchange exchange) throws IOException, HttpError, IDNotRecognisedException,
+            DuplicatedResultException, InvalidCheckpointTimesException, InvalidStageStateException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length < 4) throw new HttpError(404, "Not found");
+        int stageId = id(path[2]);
+        String method = exchange.getRequestMethod();
+        if (path.length == 4) {
+            requireMethod(method, "GET");
+            switch (path[3]) {
+                case "rank": return json(portal.getRidersRankInStage(stageId));
+                case "adjusted-elapsed-times": return json(portal.getRankedAdjustedElapsedTimesInStage(stageId));
+                case "points": return json(portal.getRidersPointsInStage(stageId));
+                case "mountain-points": return json(portal.getRidersMountainPointsInStage(stageId));
+                default: throw new HttpError(404, "Not found");
+            }
+        }
+        if (!path[3].equals("results") || path.length > 6) throw new HttpError(404, "Not found");
+        int riderId = id(path[4]);
+        if (path.length == 6) {
+            if (!path[5].equals("adjusted-elapsed-time")) throw new HttpError(404, "Not found");
+            requireMethod(method, "GET");
+            return json(portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId));
+        }
+        switch (method) {
+            case "GET":
+                return json(portal.getRiderResultsInStage(stageId, riderId));
+            case "PUT":
+                portal.registerRiderResultsInStage(stageId, riderId, parseTimes(readBody(exchange)));
+                return null;
+            case "DELETE":
+                portal.deleteRiderResultsInStage(stageId, riderId);
+                return null;
+            default:
+                exchange.getResponseHeaders().set("Allow", "GET, PUT, DELETE");
+                throw new HttpError(405, "Method not allowed");
+        }
+    }
+    private static void requireMethod(String method, String allowed) throws HttpError {
+        if (!method.equals(allowed)) throw new HttpError(405, "Method not allowed");
+    }
+    private static int id(String segment) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an id: " + segment);
+        }
+    }
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY) throw new IllegalArgumentException("Request body too large");
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Parses a JSON array of time strings.
+     *
+     * @param body the JSON to be parsed.
+     * @return the times.
+     * @throws IllegalArgumentException if the body is not an array of strings.
+     * @throws DateTimeParseException if a string is not a time.
+     */
+    static LocalTime[] parseTimes(String body) {
+        ArrayList<LocalTime> times = new ArrayList<>();
+        int i = skipSpace(body, 0);
+        if (i == body.length() || body.charAt(i) != '[') throw new IllegalArgumentException("Expected an array of times");
+        i = skipSpace(body, i + 1);
+        if (i < body.length() && body.charAt(i) == ']') {
+            i++;
+        } else {
+            while (true) {
+                if (i == body.length() || body.charAt(i) != '"') throw new IllegalArgumentException("Expected a time string");
+                int end = body.indexOf('"', i + 1);
+                if (end < 0) throw new IllegalArgumentException("Unterminated string");
+                times.add(LocalTime.parse(body.substring(i + 1, end)));
+                i = skipSpace(body, end + 1);
+                if (i < body.length() && body.charAt(i) == ',') {
+                    i = skipSpace(body, i + 1);
+                } else if (i < body.length() && body.charAt(i) == ']') {
+                    i++;
+                    break;
+                } else {
+                    throw new IllegalArgumentException("Expected , or ]");
+                }
+            }
+        }
+        if (skipSpace(body, i) != body.length()) throw new IllegalArgumentException("Unexpected text after array");
+        return times.toArray(new LocalTime[0]);
+    }
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    static String json(int[] values) {
+        StringBuilder json = new StringBuilder(values.length * 6 + 2).append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(values[i]);
+        }
+        return json.append(']').toString();
+    }
+    static String json(LocalTime[] times) {
+        StringBuilder json = new StringBuilder(times.length * 16 + 2).append('[');
+        for (int i = 0; i < times.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(json(times[i]));
+        }
+        return json.append(']').toString();
+    }
+    static String json(LocalTime time) {
+        return time == null ? "null" : '"' + time.toString() + '"';
+    }
+    static String json(String s) {
+        StringBuilder json = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+    private static String error(Exception e, String fallback) {
+        return "{\"error\":" + json(e.getMessage() == null ? fallback : e.getMessage()) + "}";
+    }
+
+    /**
+     * A request that cannot be answered, with the status to answer it with.
+     */
+    private static class HttpError extends Exception {
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
  * @author Marcus Carter
  */
 public class Race extends Entity implements HasChildren {
+    private static final long serialVersionUID = -3228430158131291525L;
     protected final String description;
     private final ArrayList<Stage> stages = new ArrayList<>();
     public Race(int id, String name, String description) {
@@ -0,0 +1,105 @@
+package cycling;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/**
+ * Riders' results for a single {@link Stage}, to be registered together with
+ * {@link CyclingPortalImpl#registerRiderResultsInStage(int, ResultBatch)}.
+ * <p>
+ * Times are held as nanoseconds of the day in one flat array, so a batch of any size is three arrays, and can be
+ * cleared and refilled without allocating.
+ *
+ * @author Marcus Carter
+ */
+public class ResultBatch {
+    private int size;
+    private int[] riderIds;
+    private int[] rowStarts;
+    private long[] times;
+    private int numTimes;
+
+    public ResultBatch() { this(16, 16 * 4); }
+
+    /**
+     * @param expectedRows the number of rows the batch should hold without resizing.
+     * @param expectedTimes the total number of times the batch should hold without resizing.
+     */
+    public ResultBatch(int expectedRows, int expectedTimes) {
+        riderIds = new int[Math.max(1, expectedRows)];
+        rowStarts = new int[Math.max(1, expectedRows) + 1];
+        times = new long[Math.max(1, expectedTimes)];
+    }
+    @Override
+    public String toString() {
+        return "ResultBatch[numRows="+size+"]";
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int getRiderId(int row) { return riderIds[row]; }
+
+    /**
+     * @param row the index of a row.
+     * @return the number of times in the row.
+     */
+    public int getLength(int row) { return rowStarts[row + 1] - rowStarts[row]; }
+
+    /**
+     * @param row the index of a row.
+     * @param criticalPoint the index of a time within the row.
+     * @return the time, in nanoseconds of the day.
+     */
+    public long getTime(int row, int criticalPoint) { return times[rowStarts[row] + criticalPoint]; }
+
+    /**
+     * Adds a row to the batch.
+     *
+     * @param riderId the id of the rider the result belongs to.
+     * @param checkpoints the times the rider passed each critical point.
+     * @return this batch.
+     */
+    public ResultBatch add(int riderId, LocalTime... checkpoints) {
+        startRow(riderId, checkpoints.length);
+        for (LocalTime checkpoint : checkpoints) times[numTimes++] = checkpoint.toNanoOfDay();
+        return endRow();
+    }
+
+    /**
+     * Adds a row to the batch.
+     *
+     * @param riderId the id of the rider the result belongs to.
+     * @param nanosOfDay an array containing the times the rider passed each critical point, in nanoseconds of the
+     *                   day.
+     * @param from the index of the first time in the array.
+     * @param length the number of times.
+     * @return this batch.
+     */
+    public ResultBatch add(int riderId, long[] nanosOfDay, int from, int length) {
+        startRow(riderId, length);
+        System.arraycopy(nanosOfDay, from, times, numTimes, length);
+        numTimes += length;
+        return endRow();
+    }
+
+    /**
+     * Empties the batch, keeping its arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+        numTimes = 0;
+    }
+    private void startRow(int riderId, int length) {
+        if (size == riderIds.length) {
+            riderIds = Arrays.copyOf(riderIds, size * 2);
+            rowStarts = Arrays.copyOf(rowStarts, size * 2 + 1);
+        }
+        if (numTimes + length > times.length) times = Arrays.copyOf(times, Math.max(times.length * 2, numTimes + length));
+        riderIds[size] = riderId;
+        rowStarts[size] = numTimes;
+    }
+    private ResultBatch endRow() {
+        rowStarts[++size] = numTimes;
+        return this;
+    }
+}
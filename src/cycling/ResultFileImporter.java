@@ -0,0 +1,249 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Imports riders' results for a {@link Stage} from a chip-timing file, which has one row per rider:
+ * <pre>riderId,HH:MM:SS[.fffffffff],HH:MM:SS[.fffffffff],...</pre>
+ * The file is memory-mapped a window at a time and parsed byte by byte, so no row is ever turned into a
+ * {@link String}. Rows are collected into a reused {@link ResultBatch} and registered with
+ * {@link CyclingPortalImpl#registerRiderResultsInStage(int, ResultBatch)}, so they are checked exactly as other
+ * results are.
+ * <p>
+ * Each batch is registered atomically, but a file with more rows than fit in a batch is not: if a batch is invalid,
+ * the batches before it stay registered. An importer is not thread-safe.
+ *
+ * @author Marcus Carter
+ */
+public class ResultFileImporter {
+    private static final int DEFAULT_BATCH_SIZE = 1 << 16;
+    private static final long DEFAULT_WINDOW_SIZE = 1L << 26;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long[] FRACTION_SCALE = { 1_000_000_000L, 100_000_000L, 10_000_000L, 1_000_000L, 100_000L,
+            10_000L, 1_000L, 100L, 10L, 1L };
+    private final CyclingPortalImpl portal;
+    private final int batchSize;
+    private final long windowSize;
+    private final ResultBatch batch;
+    private long[] times = new long[16];
+    /**
+     * The offset in the file of the current window.
+     */
+    private long windowOffset;
+    /**
+     * The index of the next byte to be parsed in the current window.
+     */
+    private int position;
+
+    /**
+     * Report on a finished import.
+     */
+    public static final class ImportReport {
+        private final long rows;
+        private final long bytes;
+        private final long nanos;
+
+        ImportReport(long rows, long bytes, long nanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+        @Override
+        public String toString() {
+            return String.format("ImportReport[rows=%d, bytes=%d, millis=%.1f, rowsPerSecond=%.0f, MBPerSecond=%.1f]",
+                    rows, bytes, nanos / 1e6, getRowsPerSecond(), getMegabytesPerSecond());
+        }
+
+        public long getRows() { return rows; }
+        public long getBytes() { return bytes; }
+        public long getNanos() { return nanos; }
+        public double getRowsPerSecond() { return nanos == 0 ? 0 : rows * 1e9 / nanos; }
+        public double getMegabytesPerSecond() { return nanos == 0 ? 0 : bytes * 1e9 / nanos / (1 << 20); }
+    }
+
+    public ResultFileImporter(CyclingPortalImpl portal) { this(portal, DEFAULT_BATCH_SIZE, DEFAULT_WINDOW_SIZE); }
+
+    /**
+     * @param portal the portal the results are registered with.
+     * @param batchSize the number of rows registered at a time.
+     * @param windowSize the number of bytes of the file mapped at a time; no row may be longer.
+     */
+    public ResultFileImporter(CyclingPortalImpl portal, int batchSize, long windowSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+        if (windowSize < 1 || windowSize > Integer.MAX_VALUE) throw new IllegalArgumentException("Invalid windowSize");
+        this.portal = portal;
+        this.batchSize = batchSize;
+        this.windowSize = windowSize;
+        batch = new ResultBatch(batchSize, batchSize * 4);
+    }
+    @Override
+    public String toString() {
+        return "ResultFileImporter[batchSize="+batchSize+", windowSize="+windowSize+"]";
+    }
+
+    /**
+     * Registers every row of a timing file as a rider's result in a stage. Blank lines are skipped.
+     *
+     * @param stageId the id of the stage the results refer to.
+     * @param file the timing file.
+     * @return how many rows were imported, and how fast.
+     * @throws IOException if the file cannot be read, or a row is malformed.
+     * @throws IDNotRecognisedException if the id does not match to any stage in the system.
+     * @throws InvalidStageStateException if the stage is not "waiting for results".
+     * @throws InvalidResultBatchException if any row cannot be registered; its row errors are keyed by the index of
+     *                                     the row among the non-blank rows of the file, from 0, and no row of its
+     *                                     batch or after it is registered.
+     */
+    public ImportReport importResults(int stageId, Path file)
+            throws IOException, IDNotRecognisedException, InvalidStageStateException, InvalidResultBatchException {
+        long startNanos = System.nanoTime();
+        long rowsImported = 0;
+        long size;
+        batch.clear();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long offset = 0;
+            while (offset < size) {
+                long length = Math.min(windowSize, size - offset);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                int end = offset + length == size ? (int) length : lastRowEnd(window);
+                if (end == 0) throw new IOException("Row at byte " + offset + " is longer than the window");
+                windowOffset = offset;
+                position = 0;
+                while (position < end) {
+                    if (!parseRow(window, end)) continue;
+                    if (batch.size() == batchSize) {
+                        register(stageId, rowsImported);
+                        rowsImported += batchSize;
+                    }
+                }
+                offset += end;
+            }
+        }
+        long firstRow = rowsImported;
+        rowsImported += batch.size();
+        register(stageId, firstRow);
+        return new ImportReport(rowsImported, size, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Registers the batch, then empties it.
+     *
+     * @param firstRow the index among the non-blank rows of the file of the first row in the batch.
+     */
+    private void register(int stageId, long firstRow)
+            throws IDNotRecognisedException, InvalidStageStateException, InvalidResultBatchException {
+        if (batch.isEmpty()) return;
+        try {
+            portal.registerRiderResultsInStage(stageId, batch);
+        } catch (InvalidResultBatchException e) {
+            TreeMap<Integer, Exception> rowErrors = new TreeMap<>();
+            for (Map.Entry<Integer, Exception> error : e.getRowErrors().entrySet()) {
+                rowErrors.put((int) (firstRow + error.getKey()), error.getValue());
+            }
+            throw new InvalidResultBatchException(rowErrors);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return the index after the last line break in the window, or 0 if there is none.
+     */
+    private static int lastRowEnd(MappedByteBuffer window) {
+        for (int i = window.limit() - 1; i >= 0; i--) if (window.get(i) == '\n') return i + 1;
+        return 0;
+    }
+
+    /**
+     * Parses the row at the current position into the batch, and moves past its line break.
+     *
+     * @param window the mapped part of the file.
+     * @param end the index after the last byte that may be parsed.
+     * @return false if the row was blank.
+     */
+    private boolean parseRow(MappedByteBuffer window, int end) throws IOException {
+        if (skipLineBreak(window, end)) return false;
+        int riderId = (int) parseNumber(window, end, Integer.MAX_VALUE);
+        int numTimes = 0;
+        while (position < end && window.get(position) == ',') {
+            position++;
+            if (numTimes == times.length) times = Arrays.copyOf(times, numTimes * 2);
+            times[numTimes++] = parseTime(window, end);
+        }
+        if (!skipLineBreak(window, end) && position < end) throw malformed(window);
+        batch.add(riderId, times, 0, numTimes);
+        return true;
+    }
+
+    /**
+     * Parses a time of day, HH:MM:SS with up to nine digits of fractional seconds.
+     *
+     * @return the time, in nanoseconds of the day.
+     */
+    private long parseTime(MappedByteBuffer window, int end) throws IOException {
+        long hours = parseNumber(window, end, 23);
+        expect(window, end, ':');
+        long minutes = parseNumber(window, end, 59);
+        expect(window, end, ':');
+        long seconds = parseNumber(window, end, 59);
+        long nanos = ((hours * 60 + minutes) * 60 + seconds) * NANOS_PER_SECOND;
+        if (position < end && window.get(position) == '.') {
+            position++;
+            int start = position;
+            long fraction = parseNumber(window, end, Long.MAX_VALUE);
+            int digits = position - start;
+            if (digits > 9) throw malformed(window);
+            nanos += fraction * FRACTION_SCALE[digits];
+        }
+        return nanos;
+    }
+
+    /**
+     * Parses a run of at least one decimal digit.
+     *
+     * @param max the largest value allowed.
+     */
+    private long parseNumber(MappedByteBuffer window, int end, long max) throws IOException {
+        long value = 0;
+        int start = position;
+        while (position < end) {
+            int digit = window.get(position) - '0';
+            if (digit < 0 || digit > 9) break;
+            value = value * 10 + digit;
+            if (value > max) throw malformed(window);
+            position++;
+        }
+        if (position == start) throw malformed(window);
+        return value;
+    }
+    private void expect(MappedByteBuffer window, int end, char expected) throws IOException {
+        if (position >= end || window.get(position) != expected) throw malformed(window);
+        position++;
+    }
+
+    /**
+     * Moves past a line break, \n or \r\n, if there is one at the current position.
+     *
+     * @return true if there was a line break.
+     */
+    private boolean skipLineBreak(MappedByteBuffer window, int end) {
+        if (position < end && window.get(position) == '\r') position++;
+        if (position < end && window.get(position) == '\n') {
+            position++;
+            return true;
+        }
+        return false;
+    }
+    private IOException malformed(MappedByteBuffer window) {
+        char found = position < window.limit() ? (char) window.get(position) : '?';
+        return new IOException("Malformed timing row: unexpected '" + found + "' at byte " + (windowOffset + position));
+    }
+}
@@ -0,0 +1,212 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The results in a {@link Stage}, stored by column: one array of rider ids, and one array of times for each
+ * critical point. Times are nanoseconds after the start of the stage, so a result costs one int plus one long per
+ * critical point, rather than an array of {@link java.time.LocalDateTime}s.
+ * <p>
+ * Rows are found by rider id through an open-addressing table holding each rider id next to its row number, so a
+ * probe reads one slot rather than a slot and then the rider id column. Removing a result moves the last row into
+ * its place, so rows are not kept in any particular order.
+ *
+ * @author Marcus Carter
+ */
+public class ResultTable implements Serializable {
+    private static final long serialVersionUID = 8422894469275563805L;
+    private static final int MIN_CAPACITY = 8;
+    private int width;
+    private int size;
+    private int[] riderIds = new int[MIN_CAPACITY];
+    private long[][] columns = new long[0][];
+    /**
+     * Each slot holds a rider id in its high half and their row number plus one in its low half, or zero if it is
+     * empty.
+     */
+    private long[] slots = new long[MIN_CAPACITY * 2];
+
+    @Override
+    public String toString() {
+        return "ResultTable[numResults="+size+", numCriticalPoints="+width+"]";
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * @return the number of critical points in each result.
+     */
+    public int width() { return width; }
+    public int getRiderId(int row) { return riderIds[row]; }
+    public long getTime(int row, int criticalPoint) { return columns[criticalPoint][row]; }
+
+    /**
+     * Gets the times of every rider at a critical point. The array is the table's own, and only its first
+     * {@link #size()} elements are results; it must not be modified.
+     *
+     * @param criticalPoint the index of the critical point.
+     * @return the times at the critical point, by row.
+     */
+    public long[] getColumn(int criticalPoint) { return columns[criticalPoint]; }
+
+    /**
+     * @param row the row of a result.
+     * @return a copy of the times in the result.
+     */
+    public long[] getTimes(int row) {
+        long[] times = new long[width];
+        for (int i = 0; i < width; i++) times[i] = columns[i][row];
+        return times;
+    }
+
+    /**
+     * @param riderId the id of the rider whose result you want to find.
+     * @return the row of the rider's result, or -1 if they have none.
+     */
+    public int rowOf(int riderId) {
+        return (int) slots[find(riderId)] - 1;
+    }
+
+    /**
+     * Adds a result to the table.
+     *
+     * @param riderId the id of the rider the result belongs to, who must not already have one.
+     * @param times the time the rider passed each critical point, in nanoseconds after the start of the stage.
+     * @return the row of the result.
+     */
+    public int add(int riderId, long[] times) {
+        return add(riderId, times, 0, times.length);
+    }
+
+    /**
+     * Adds a result to the table, from part of an array.
+     *
+     * @param riderId the id of the rider the result belongs to, who must not already have one.
+     * @param times an array containing the time the rider passed each critical point, in nanoseconds after the start
+     *              of the stage.
+     * @param from the index of the first time in the array.
+     * @param length the number of times.
+     * @return the row of the result.
+     */
+    public int add(int riderId, long[] times, int from, int length) {
+        if (size == 0 && width != length) {
+            width = length;
+            columns = new long[width][riderIds.length];
+        }
+        if (length != width) throw new IllegalArgumentException("Expected " + width + " times");
+        int slot = find(riderId);
+        if (slots[slot] != 0) throw new IllegalArgumentException("Rider " + riderId + " already has a result");
+        if (size == riderIds.length) grow();
+        int row = size++;
+        riderIds[row] = riderId;
+        for (int i = 0; i < width; i++) columns[i][row] = times[from + i];
+        if (size * 2 > slots.length) rehash(slots.length << 1);
+        else slots[slot] = slot(riderId, row);
+        return row;
+    }
+
+    /**
+     * Removes a rider's result, moving the last row into its place.
+     *
+     * @param riderId the id of the rider whose result you want to remove.
+     * @return true if the rider had a result.
+     */
+    public boolean remove(int riderId) {
+        int slot = find(riderId);
+        int row = (int) slots[slot] - 1;
+        if (row < 0) return false;
+        deleteSlot(slot);
+        int last = --size;
+        if (row != last) {
+            riderIds[row] = riderIds[last];
+            for (long[] column : columns) column[row] = column[last];
+            slots[find(riderIds[row])] = slot(riderIds[row], row);
+        }
+        return true;
+    }
+
+    /**
+     * Makes room for a number of results, so that adding them resizes the table at most once.
+     *
+     * @param capacity the number of results the table should hold.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > riderIds.length) {
+            riderIds = Arrays.copyOf(riderIds, Integer.highestOneBit(capacity - 1) << 1);
+            for (int i = 0; i < width; i++) columns[i] = Arrays.copyOf(columns[i], riderIds.length);
+        }
+        if (capacity * 2 > slots.length) rehash(Integer.highestOneBit(capacity * 2 - 1) << 1);
+    }
+
+    /**
+     * Replaces the contents of the table with results read from a snapshot.
+     *
+     * @param width the number of critical points in each result.
+     * @param size the number of results.
+     * @param riderIds the rider id of each row; the table keeps the array.
+     * @param columns the times at each critical point, by row; the table keeps the arrays.
+     */
+    void fill(int width, int size, int[] riderIds, long[][] columns) {
+        int capacity = Math.max(MIN_CAPACITY, riderIds.length);
+        this.width = width;
+        this.size = size;
+        this.riderIds = riderIds.length < capacity ? Arrays.copyOf(riderIds, capacity) : riderIds;
+        this.columns = columns;
+        for (int i = 0; i < width; i++) {
+            if (columns[i].length < capacity) columns[i] = Arrays.copyOf(columns[i], capacity);
+        }
+        rehash(Math.max(MIN_CAPACITY * 2, Integer.highestOneBit(Math.max(1, size * 2 - 1)) << 1));
+    }
+    public void clear() {
+        size = 0;
+        Arrays.fill(slots, 0);
+    }
+
+    /**
+     * Finds the slot holding a rider's row, or the empty slot where it would be inserted.
+     *
+     * @param riderId the id of the rider.
+     * @return the index of the slot.
+     */
+    private int find(int riderId) {
+        int mask = slots.length - 1;
+        int i = home(riderId);
+        while (slots[i] != 0 && (int) (slots[i] >>> 32) != riderId) i = (i + 1) & mask;
+        return i;
+    }
+    private int home(int riderId) {
+        int hash = riderId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (slots.length - 1);
+    }
+
+    /**
+     * Empties a slot, then shifts back any slots that probed past it.
+     *
+     * @param hole the slot to be emptied.
+     */
+    private void deleteSlot(int hole) {
+        int mask = slots.length - 1;
+        for (int i = (hole + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int home = home((int) (slots[i] >>> 32));
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        slots[hole] = 0;
+    }
+    private void grow() {
+        int capacity = riderIds.length << 1;
+        riderIds = Arrays.copyOf(riderIds, capacity);
+        for (int i = 0; i < width; i++) columns[i] = Arrays.copyOf(columns[i], capacity);
+    }
+    private void rehash(int capacity) {
+        slots = new long[capacity];
+        for (int row = 0; row < size; row++) slots[find(riderIds[row])] = slot(riderIds[row], row);
+    }
+    private static long slot(int riderId, int row) {
+        return (long) riderId << 32 | (row + 1);
+    }
+}
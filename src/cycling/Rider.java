@@ -4,6 +4,7 @@ package cycling;
  * Contained within a {@link Team}.
  */
 public class Rider extends Entity {
+    private static final long serialVersionUID = -3562454349215612914L;
     protected final int yearOfBirth;
     public Rider(int id, String name, int yearOfBirth) {
         super(id, name);
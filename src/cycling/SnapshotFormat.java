@@ -0,0 +1,21 @@
+package cycling;
+
+/**
+ * The file formats {@link CyclingPortalImpl} can save itself in. Both can be loaded by
+ * {@link CyclingPortalImpl#loadCyclingPortal(String)}, which tells them apart by their first bytes.
+ *
+ * @author Marcus Carter
+ */
+public enum SnapshotFormat {
+
+	/**
+	 * The versioned binary format written by {@link BinarySnapshot}.
+	 */
+	BINARY,
+
+	/**
+	 * Java serialization of the whole object graph, as the portal used to save itself.
+	 */
+	JAVA_SERIALIZATION;
+
+}
@@ -1,8 +1,15 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Contained within a {@link Race}, contains {@link Checkpoint}s.
@@ -10,13 +17,40 @@ import java.util.*;
  * @author Marcus Carter
  */
 public class Stage extends Entity implements HasChildren {
-    protected final String description;
-    protected final double length;
-    protected final LocalDateTime start;
-    protected final StageType type;
+    private static final long serialVersionUID = -8963630895301093985L;
+    // Not final, since readObject sets them itself, to read stages saved when the results were a map.
+    protected String description;
+    protected double length;
+    protected LocalDateTime start;
+    protected StageType type;
     private String state;
-    private final ArrayList<Checkpoint> checkpoints = new ArrayList<>();
-    private final Map<Rider, LocalDateTime[]> results = new HashMap<>();
+    private ArrayList<Checkpoint> checkpoints = new ArrayList<>();
+    private ResultTable results = new ResultTable();
+    /**
+     * The results, still encoded in a memory-mapped {@link BinarySnapshot}, if they have not been read since the
+     * stage was loaded lazily; read into results the first time they are needed.
+     */
+    private transient ByteBuffer encodedResults;
+    /**
+     * The ranking of the results, filled by the first query after the results change. Once published here a ranking
+     * never changes, except to fill in points, so it can be read without holding any lock.
+     */
+    private transient volatile StageRanking ranking;
+    /**
+     * Awards points for the checkpoints, built by the first points query after the checkpoints change.
+     */
+    private transient PointsEngine pointsEngine;
+    /**
+     * The riders with results, in order; built when first needed, then updated with each result.
+     */
+    private transient Leaderboard leaderboard;
+    /**
+     * How often {@link #getRanking()} found the ranking up to date, or had to rank the results; counted with adders
+     * since queries call it from many threads at once without a lock.
+     */
+    private transient LongAdder rankingHits = new LongAdder();
+    private transient LongAdder rankingMisses = new LongAdder();
+    private static final long NANOS_PER_DAY = 86_400_000_000_000L;
     public static final EnumMap<StageType, ArrayList<Integer>> SPRINTER_POINTS = new EnumMap<>(StageType.class);
 
     static {
@@ -43,15 +77,171 @@ public class Stage extends Entity implements HasChildren {
                 "km, start="+start+", type="+type+"]";
     }
 
+    public StageType getType() { return type; }
     public String getState() { return state; }
     public void setState(String state) { this.state = state; }
     @Override
     public ArrayList<Checkpoint> getChildren() { return checkpoints; }
-    public Map<Rider, LocalDateTime[]> getResults() { return results; }
+    /**
+     * @return each rider's critical point times, in nanoseconds after the start of the stage.
+     */
+    public ResultTable getResults() {
+        if (encodedResults != null) {
+            BinarySnapshot.readResults(encodedResults, results);
+            encodedResults = null;
+        }
+        return results;
+    }
+
+    /**
+     * @return the encoded results, if they have not been read yet, or null.
+     */
+    ByteBuffer getEncodedResults() { return encodedResults; }
+    void setEncodedResults(ByteBuffer encodedResults) { this.encodedResults = encodedResults; }
+
+    /**
+     * @return the ids of the riders with results, in no particular order; their times are not read if they are still
+     *         encoded.
+     */
+    public int[] getRiderIds() {
+        if (encodedResults != null) return BinarySnapshot.readRiderIds(encodedResults);
+        int[] riderIds = new int[results.size()];
+        for (int row = 0; row < riderIds.length; row++) riderIds[row] = results.getRiderId(row);
+        return riderIds;
+    }
     public int numCriticalPoints() { return checkpoints.size() + 2; }
-    public void addResult(Rider rider, LocalDateTime[] criticalTimes) throws DuplicatedResultException {
-        if (results.containsKey(rider)) throw new DuplicatedResultException();
-        results.put(rider, criticalTimes);
+
+    /**
+     * Adds a rider's result to the stage.
+     *
+     * @param rider the rider the result belongs to.
+     * @param criticalTimes the times the rider passed each critical point, in nanoseconds after the start of the
+     *                      stage, ascending.
+     * @throws DuplicatedResultException if the rider already has a result in the stage.
+     */
+    public void addResult(Rider rider, long[] criticalTimes) throws DuplicatedResultException {
+        ResultTable results = getResults();
+        if (results.rowOf(rider.id) >= 0) throw new DuplicatedResultException();
+        int row = results.add(rider.id, criticalTimes);
+        if (leaderboard != null) leaderboard.add(elapsedTime(row), rider.id);
+        ranking = null;
+    }
+
+    /**
+     * Adds many riders' results to the stage at once, none of whom may already have a result in the stage. The
+     * ranking is invalidated once, and the leaderboard is rebuilt rather than updated if the batch is bigger than it.
+     *
+     * @param riders the riders the results belong to, each at most once.
+     * @param criticalTimes the times each rider passed each critical point, in nanoseconds after the start of the
+     *                      stage, one result after another, each ascending.
+     */
+    public void addResults(Rider[] riders, long[] criticalTimes) {
+        if (riders.length == 0) return;
+        int width = criticalTimes.length / riders.length;
+        ResultTable results = getResults();
+        results.ensureCapacity(results.size() + riders.length);
+        if (leaderboard != null && riders.length > leaderboard.size()) leaderboard = null;
+        for (int i = 0; i < riders.length; i++) {
+            int row = results.add(riders[i].id, criticalTimes, i * width, width);
+            if (leaderboard != null) leaderboard.add(elapsedTime(row), riders[i].id);
+        }
+        ranking = null;
+    }
+
+    /**
+     * Removes a rider's result from the stage, if they have one.
+     *
+     * @param rider the rider whose result you want to remove.
+     * @return true if the rider had a result.
+     */
+    public boolean removeResult(Rider rider) {
+        ResultTable results = getResults();
+        int row = results.rowOf(rider.id);
+        if (row < 0) return false;
+        if (leaderboard != null) leaderboard.remove(elapsedTime(row), rider.id);
+        results.remove(rider.id);
+        ranking = null;
+        return true;
+    }
+
+    /**
+     * @return the riders with results in the stage, ordered by their elapsed times and then their ids.
+     */
+    public Leaderboard getLeaderboard() {
+        if (leaderboard == null) leaderboard = buildLeaderboard();
+        return leaderboard;
+    }
+
+    /**
+     * @param riderId the id of a rider.
+     * @return the number of riders ranked ahead of the rider, or -1 if they have no result in the stage.
+     */
+    public int positionOf(int riderId) {
+        int row = getResults().rowOf(riderId);
+        return row < 0 ? -1 : getLeaderboard().indexOf(elapsedTime(row), riderId);
+    }
+
+    /**
+     * Gets the ranking of the results in the stage, ranking them only if they have changed since the last call.
+     *
+     * @return the ranking of the results in the stage.
+     */
+    public StageRanking getRanking() {
+        StageRanking ranking = this.ranking;
+        if (ranking != null) {
+            rankingHits.increment();
+            return ranking;
+        }
+        rankingMisses.increment();
+        PortalEvents.Ranking event = new PortalEvents.Ranking();
+        event.begin();
+        ranking = new StageRanking(this);
+        this.ranking = ranking;
+        if (event.shouldCommit()) {
+            event.set(this, ranking.size());
+            event.commit();
+        }
+        return ranking;
+    }
+
+    /**
+     * @return the ranking of the results, if it is up to date, or null; never ranks the results.
+     */
+    StageRanking getPublishedRanking() { return ranking; }
+    public PointsEngine getPointsEngine() {
+        if (pointsEngine == null) pointsEngine = new PointsEngine(this);
+        return pointsEngine;
+    }
+    public long getRankingHits() { return rankingHits.sum(); }
+    public long getRankingMisses() { return rankingMisses.sum(); }
+
+    /**
+     * Sorts the results by elapsed time, then by rider id, and builds a leaderboard from them. Large stages are
+     * sorted in parallel.
+     *
+     * @return the leaderboard.
+     */
+    private Leaderboard buildLeaderboard() {
+        ResultTable results = getResults();
+        int n = results.size();
+        boolean parallel = ParallelRanking.isParallel(n);
+        long[] idsAndRows = new long[n];
+        for (int row = 0; row < n; row++) idsAndRows[row] = (long) results.getRiderId(row) << 32 | row;
+        if (parallel) {
+            ParallelRanking.sort(idsAndRows);
+        } else {
+            Arrays.sort(idsAndRows);
+        }
+        long[] elapsed = new long[n];
+        for (int i = 0; i < n; i++) elapsed[i] = elapsedTime((int) idsAndRows[i]);
+        int[] order = parallel ? ParallelRanking.argsort(elapsed) : ArgSort.argsort(elapsed);
+        int[] riderIds = new int[n];
+        long[] elapsedTimes = new long[n];
+        for (int i = 0; i < n; i++) {
+            riderIds[i] = (int) (idsAndRows[order[i]] >>> 32);
+            elapsedTimes[i] = elapsed[order[i]];
+        }
+        return new Leaderboard(riderIds, elapsedTimes);
     }
 
     /**
@@ -62,6 +252,13 @@ public class Stage extends Entity implements HasChildren {
     public void addCheckpoint(Checkpoint checkpoint) {
         checkpoints.add(checkpoint);
         checkpoints.sort(Comparator.comparingDouble(Checkpoint::getLocation));
+        ranking = null;
+        pointsEngine = null;
+    }
+    public void removeCheckpoint(Checkpoint checkpoint) {
+        checkpoints.remove(checkpoint);
+        ranking = null;
+        pointsEngine = null;
     }
 
     /**
@@ -84,6 +281,86 @@ public class Stage extends Entity implements HasChildren {
     public Duration ttTimeElapsed(LocalDateTime riderStart, LocalDateTime riderEnd) {
         return Duration.between(riderStart, riderEnd);
     }
+
+    /**
+     * Calculates the elapsed time of a rider in this stage, whatever its type.
+     *
+     * @param row the row of the rider's result.
+     * @return the rider's elapsed time in this stage, in nanoseconds.
+     */
+    public long elapsedTime(int row) {
+        long riderEnd = results.getTime(row, results.width() - 1);
+        return isTimeTrial() ? riderEnd - results.getTime(row, 0) : riderEnd;
+    }
+
+    /**
+     * Converts a time of day to nanoseconds after the start of this stage. Times of day before the start are taken
+     * to be on the following day.
+     *
+     * @param time the time of day.
+     * @return the time, in nanoseconds after the start of this stage.
+     */
+    public long toStageTime(LocalTime time) {
+        return toStageTime(time.toNanoOfDay());
+    }
+
+    /**
+     * Converts a time of day to nanoseconds after the start of this stage. Times of day before the start are taken
+     * to be on the following day.
+     *
+     * @param nanoOfDay the time of day, in nanoseconds.
+     * @return the time, in nanoseconds after the start of this stage.
+     */
+    public long toStageTime(long nanoOfDay) {
+        long startNanoOfDay = start.toLocalTime().toNanoOfDay();
+        return nanoOfDay < startNanoOfDay ? nanoOfDay + NANOS_PER_DAY - startNanoOfDay : nanoOfDay - startNanoOfDay;
+    }
+
+    /**
+     * @param stageTime a time, in nanoseconds after the start of this stage.
+     * @return the time of day.
+     */
+    public LocalTime toLocalTime(long stageTime) {
+        return start.plusNanos(stageTime).toLocalTime();
+    }
+    /**
+     * Reads the results before the stage is serialized, since the encoded results are not.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getResults();
+        out.defaultWriteObject();
+    }
+    /**
+     * Reads a stage saved either with its results in a {@link ResultTable}, or, by older versions, in a map from each
+     * rider to their critical point times as dates and times, which are converted into a table. Starts the ranking
+     * counters from 0, since they are not serialized.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        description = (String) fields.get("description", null);
+        length = fields.get("length", 0.0);
+        start = (LocalDateTime) fields.get("start", null);
+        type = (StageType) fields.get("type", null);
+        state = (String) fields.get("state", null);
+        checkpoints = (ArrayList<Checkpoint>) fields.get("checkpoints", null);
+        Object saved = fields.get("results", null);
+        if (saved instanceof ResultTable table) {
+            results = table;
+        } else if (saved instanceof Map<?, ?> map) {
+            results = new ResultTable();
+            for (Map.Entry<Rider, LocalDateTime[]> result : ((Map<Rider, LocalDateTime[]>) map).entrySet()) {
+                LocalDateTime[] times = result.getValue();
+                long[] criticalTimes = new long[times.length];
+                for (int i = 0; i < times.length; i++) criticalTimes[i] = Duration.between(start, times[i]).toNanos();
+                results.add(result.getKey().id, criticalTimes);
+            }
+        } else {
+            throw new InvalidObjectException("Stage " + id + " has no results");
+        }
+        rankingHits = new LongAdder();
+        rankingMisses = new LongAdder();
+    }
     public boolean isTimeTrial() { return type.equals(StageType.TT); }
     public boolean isInPreparation() { return !state.equals("waiting for results"); }
 }
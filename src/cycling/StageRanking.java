@@ -0,0 +1,157 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * The riders in a {@link Stage}, ranked by their elapsed times, along with their adjusted elapsed times.
+ * <p>
+ * Riders are read in order from the stage's {@link Leaderboard}, then every adjusted elapsed time is found in a single
+ * sweep: a rider who finishes within a second of the rider ahead is given the same adjusted elapsed time as them.
+ * Time trials are not adjusted. Stages with many riders are ranked with {@link ParallelRanking}.
+ * The riders' points and mountain points are worked out the first time they are asked for, then kept. Everything else
+ * is fixed when the ranking is built, so a ranking whose points have been worked out can be read from any thread.
+ *
+ * @author Marcus Carter
+ */
+public class StageRanking {
+    /**
+     * The largest gap, in nanoseconds, between two riders in the same group.
+     */
+    public static final long GROUP_GAP = 1_000_000_000L;
+    private final Stage stage;
+    /**
+     * The rows of the riders' results in the stage's {@link ResultTable}, ranked.
+     */
+    private final int[] rows;
+    private final int[] riderIds;
+    private final long[] elapsedTimes;
+    private final long[] adjustedElapsedTimes;
+    private volatile int[] points;
+    private volatile int[] mountainPoints;
+
+    /**
+     * Ranks the riders with results in a stage, without sorting them. Riders with equal elapsed times are ranked by
+     * their ids.
+     *
+     * @param stage the stage whose results you want to rank.
+     */
+    public StageRanking(Stage stage) {
+        this.stage = stage;
+        ResultTable results = stage.getResults();
+        Leaderboard leaderboard = stage.getLeaderboard();
+        int n = leaderboard.size();
+        riderIds = new int[n];
+        elapsedTimes = new long[n];
+        leaderboard.toArrays(riderIds, elapsedTimes);
+        if (ParallelRanking.isParallel(n)) {
+            rows = ParallelRanking.rowsOf(results, riderIds);
+            adjustedElapsedTimes = stage.isTimeTrial() ? elapsedTimes : ParallelRanking.adjust(elapsedTimes, GROUP_GAP);
+            return;
+        }
+        rows = new int[n];
+        for (int i = 0; i < n; i++) rows[i] = results.rowOf(riderIds[i]);
+        adjustedElapsedTimes = stage.isTimeTrial() ? elapsedTimes : adjust(elapsedTimes);
+    }
+    @Override
+    public String toString() {
+        return "StageRanking[numRiders="+riderIds.length+"]";
+    }
+
+    public int size() { return riderIds.length; }
+
+    /**
+     * @return the ids of the riders, ranked by their elapsed times.
+     */
+    public int[] getRiderIds() { return riderIds.clone(); }
+
+    /**
+     * @return the elapsed times of the riders in nanoseconds, ranked.
+     */
+    public long[] getElapsedTimes() { return elapsedTimes.clone(); }
+
+    /**
+     * @return the adjusted elapsed times of the riders in nanoseconds, ranked.
+     */
+    public long[] getAdjustedElapsedTimes() { return adjustedElapsedTimes.clone(); }
+
+    /**
+     * @return the points of the riders, ranked.
+     */
+    public int[] getPoints() {
+        int[] points = this.points;
+        if (points == null) {
+            PortalEvents.Points event = new PortalEvents.Points();
+            event.begin();
+            points = stage.getPointsEngine().points(stage.getResults(), rows, elapsedTimes);
+            this.points = points;
+            commit(event, false);
+        }
+        return points.clone();
+    }
+    public boolean hasPoints() { return points != null; }
+
+    /**
+     * @return the mountain points of the riders, ranked.
+     */
+    public int[] getMountainPoints() {
+        int[] mountainPoints = this.mountainPoints;
+        if (mountainPoints == null) {
+            PortalEvents.Points event = new PortalEvents.Points();
+            event.begin();
+            mountainPoints = stage.getPointsEngine().mountainPoints(stage.getResults(), rows);
+            this.mountainPoints = mountainPoints;
+            commit(event, true);
+        }
+        return mountainPoints.clone();
+    }
+    public boolean hasMountainPoints() { return mountainPoints != null; }
+
+    /**
+     * Works out the points and mountain points now, rather than when first asked for, so the ranking never changes
+     * again.
+     */
+    void fillPoints() {
+        if (points == null) getPoints();
+        if (mountainPoints == null) getMountainPoints();
+    }
+
+    /**
+     * Finds the adjusted elapsed time that goes with an elapsed time in this stage.
+     *
+     * @param elapsedTime the elapsed time of a rider with a result in this stage, in nanoseconds.
+     * @return the adjusted elapsed time of the rider, in nanoseconds.
+     */
+    public long adjustedElapsedTime(long elapsedTime) {
+        int position = Arrays.binarySearch(elapsedTimes, elapsedTime);
+        if (position < 0) throw new IllegalArgumentException("No rider has an elapsed time of " + elapsedTime + "ns");
+        return adjustedElapsedTimes[position];
+    }
+
+    /**
+     * Commits a points event, if it is being recorded.
+     *
+     * @param event the event, begun before the points were computed.
+     * @param mountain whether the points computed were mountain points.
+     */
+    private void commit(PortalEvents.Points event, boolean mountain) {
+        if (!event.shouldCommit()) return;
+        event.set(stage, riderIds.length);
+        event.mountain = mountain;
+        event.commit();
+    }
+
+    /**
+     * Gives every rider the elapsed time of the first rider in their group.
+     *
+     * @param elapsedTimes the elapsed times of the riders, ascending.
+     * @return the adjusted elapsed times of the riders, ascending.
+     */
+    private static long[] adjust(long[] elapsedTimes) {
+        long[] adjusted = new long[elapsedTimes.length];
+        for (int i = 0; i < elapsedTimes.length; i++) {
+            boolean grouped = i > 0 && elapsedTimes[i] - elapsedTimes[i - 1] <= GROUP_GAP;
+            adjusted[i] = grouped ? adjusted[i - 1] : elapsedTimes[i];
+        }
+        return adjusted;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
  * @author Marcus Carter
  */
 public class Team extends Entity implements HasChildren {
+    private static final long serialVersionUID = -3913437807868970418L;
     protected final String description;
     private final ArrayList<Rider> riders = new ArrayList<>();
     public Team(int id, String name, String description) {
@@ -0,0 +1,113 @@
+package cycling;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends checkpoint crossings to a {@link TimingIngestServer}, standing in for timing hardware. Frames are buffered
+ * and written when the buffer fills, or when {@link #flush()} or {@link #close()} is called. A client is not
+ * thread-safe.
+ *
+ * @author Marcus Carter
+ */
+public class TimingIngestClient implements AutoCloseable {
+    private static final int BUFFER_FRAMES = 1 << 10;
+    private final SocketChannel channel;
+    private final ByteBuffer buffer =
+            ByteBuffer.allocateDirect(TimingIngestServer.FRAME_SIZE * BUFFER_FRAMES).order(ByteOrder.LITTLE_ENDIAN);
+    private long framesSent;
+
+    /**
+     * @param address the address of the server.
+     * @throws IOException if the server cannot be connected to.
+     */
+    public TimingIngestClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+    }
+    @Override
+    public String toString() {
+        return "TimingIngestClient[framesSent="+framesSent+"]";
+    }
+
+    public long getFramesSent() { return framesSent; }
+
+    /**
+     * Sends one crossing.
+     *
+     * @param stageId the id of the stage.
+     * @param riderId the id of the rider.
+     * @param criticalPoint the critical point crossed: 0 for the start, then each checkpoint in order, then the finish.
+     * @param nanoOfDay the time of the crossing, in nanoseconds of the day.
+     * @throws IOException if the frames cannot be written.
+     */
+    public void send(int stageId, int riderId, int criticalPoint, long nanoOfDay) throws IOException {
+        if (buffer.remaining() < TimingIngestServer.FRAME_SIZE) flush();
+        buffer.putInt(stageId).putInt(riderId).putInt(criticalPoint).putLong(nanoOfDay);
+        framesSent++;
+    }
+
+    /**
+     * Writes every buffered frame.
+     *
+     * @throws IOException if the frames cannot be written.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Replays the crossings of a stage in the order they happened, keeping the gaps between them, divided by a
+     * speed-up.
+     *
+     * @param stageId the id of the stage.
+     * @param riderIds the ids of the riders.
+     * @param times the times each rider crossed each critical point, in nanoseconds of the day.
+     * @param speedUp how many times faster than real time to replay the stage, or
+     *                {@link Double#POSITIVE_INFINITY} to send every crossing as fast as possible.
+     * @throws IOException if the frames cannot be written.
+     */
+    public void replay(int stageId, int[] riderIds, long[][] times, double speedUp) throws IOException {
+        if (!(speedUp > 0)) throw new IllegalArgumentException("speedUp must be positive");
+        int width = times.length == 0 ? 0 : times[0].length;
+        long[] crossings = new long[riderIds.length * width];
+        for (int rider = 0; rider < riderIds.length; rider++) {
+            if (times[rider].length != width) throw new IllegalArgumentException("Riders have different numbers of times");
+            System.arraycopy(times[rider], 0, crossings, rider * width, width);
+        }
+        int[] order = ArgSort.argsort(crossings);
+        if (order.length == 0) return;
+        long first = crossings[order[0]];
+        long start = System.nanoTime();
+        for (int crossing : order) {
+            long due = start + (long) ((crossings[crossing] - first) / speedUp);
+            if (due - System.nanoTime() > 0) {
+                flush();
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            send(stageId, riderIds[crossing / width], crossing % width, crossings[crossing]);
+        }
+        flush();
+    }
+
+    /**
+     * Writes every buffered frame and closes the connection.
+     *
+     * @throws IOException if the frames cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package cycling;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SortedMap;
+
+/**
+ * Receives checkpoint crossings from timing hardware over TCP and registers them with a
+ * {@link ConcurrentCyclingPortal}, so the portal can be queried, over {@link PortalHttpServer} or otherwise, while
+ * results arrive.
+ * <p>
+ * Each crossing is one fixed-size little-endian frame:
+ * <pre>
+ * frame := stageId:int32 riderId:int32 criticalPoint:int32 nanoOfDay:int64      (20 bytes)
+ * </pre>
+ * where critical point 0 is the start, the checkpoints follow in order, and the last is the finish. Frames may be
+ * split across reads in any way.
+ * <p>
+ * One thread serves every connection with a {@link Selector}. Each connection reads into its own direct buffer, and
+ * frames are decoded straight out of it, with no copy and nothing allocated per frame. A rider's crossings in a stage
+ * are held until every critical point has been crossed, then added to the stage's {@link ResultBatch}. Batches are
+ * registered once {@code batchSize} results are waiting, and otherwise whenever the connections have no more to
+ * read, so results are registered in large batches under load and without delay when it is light.
+ * <p>
+ * Frames for unknown stages or stages still being prepared, out-of-range critical points or times, and repeated
+ * crossings are counted and dropped.
+ * Results the portal rejects, such as a rider who is not recognised or already has a result, are counted and dropped
+ * without holding up the rest of their batch.
+ *
+ * @author Marcus Carter
+ */
+public class TimingIngestServer implements AutoCloseable {
+    public static final int FRAME_SIZE = 20;
+    private static final int DEFAULT_BATCH_SIZE = 1 << 12;
+    private static final int BUFFER_SIZE = FRAME_SIZE << 12;
+    private static final long NANOS_PER_DAY = 86_400_000_000_000L;
+    private final ConcurrentCyclingPortal portal;
+    private final int batchSize;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private final IntMap<StageFeed> feeds = new IntMap<>();
+    /**
+     * The feeds with results waiting to be registered.
+     */
+    private final ArrayList<StageFeed> waiting = new ArrayList<>();
+    private int numWaiting;
+    // written only by the server's thread
+    private volatile long framesReceived;
+    private volatile long framesRejected;
+    private volatile long resultsRegistered;
+    private volatile long resultsRejected;
+    private volatile IOException failure;
+
+    /**
+     * The crossings received for one stage.
+     */
+    private static final class StageFeed {
+        private final int stageId;
+        private final int width;
+        /**
+         * The times of the riders who have not crossed every critical point yet, by rider id, with the number of
+         * critical points crossed in the last element. Times not yet received are -1.
+         */
+        private final IntMap<long[]> pending = new IntMap<>();
+        private final ResultBatch batch = new ResultBatch();
+
+        StageFeed(int stageId, int width) {
+            this.stageId = stageId;
+            this.width = width;
+        }
+    }
+
+    /**
+     * Starts listening for timing connections.
+     *
+     * @param portal the portal to register results with.
+     * @param address the address to listen on; port 0 picks a free port.
+     * @throws IOException if the server cannot listen on the address.
+     */
+    public TimingIngestServer(ConcurrentCyclingPortal portal, InetSocketAddress address) throws IOException {
+        this(portal, address, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Starts listening for timing connections.
+     *
+     * @param portal the portal to register results with.
+     * @param address the address to listen on; port 0 picks a free port.
+     * @param batchSize the number of complete results to wait for before registering them.
+     * @throws IOException if the server cannot listen on the address.
+     */
+    public TimingIngestServer(ConcurrentCyclingPortal portal, InetSocketAddress address, int batchSize)
+            throws IOException {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+        this.portal = portal;
+        this.batchSize = batchSize;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this::serve, "timing-ingest");
+        thread.start();
+    }
+    @Override
+    public String toString() {
+        return "TimingIngestServer[port="+getPort()+", framesReceived="+framesReceived+", resultsRegistered="+
+                resultsRegistered+"]";
+    }
+
+    public int getPort() { return serverChannel.socket().getLocalPort(); }
+    public long getFramesReceived() { return framesReceived; }
+    public long getFramesRejected() { return framesRejected; }
+    public long getResultsRegistered() { return resultsRegistered; }
+    public long getResultsRejected() { return resultsRejected; }
+
+    /**
+     * Stops the server, registering any complete results still waiting, and closes every connection. Riders who
+     * have not crossed every critical point are dropped.
+     *
+     * @throws IOException if the server stopped early because its selector failed.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select(this::ready);
+                flush();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            flush();
+            for (SelectionKey key : selector.keys()) close(key);
+            try {
+                selector.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+    }
+    private void ready(SelectionKey key) {
+        try {
+            if (key.isAcceptable()) {
+                SocketChannel channel = serverChannel.accept();
+                if (channel == null) return;
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ,
+                        ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+            } else if (key.isReadable()) {
+                read(key);
+            }
+        } catch (IOException e) {
+            close(key);
+        }
+    }
+    private void read(SelectionKey key) throws IOException {
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        int read = ((SocketChannel) key.channel()).read(buffer);
+        int end = buffer.position();
+        int position = 0;
+        for (; end - position >= FRAME_SIZE; position += FRAME_SIZE) {
+            crossing(buffer.getInt(position), buffer.getInt(position + 4), buffer.getInt(position + 8),
+                    buffer.getLong(position + 12));
+        }
+        buffer.limit(end).position(position);
+        buffer.compact();
+        if (numWaiting >= batchSize) flush();
+        if (read < 0) {
+            if (buffer.position() > 0) framesRejected++;
+            close(key);
+        }
+    }
+
+    /**
+     * Records that a rider crossed a critical point of a stage.
+     */
+    private void crossing(int stageId, int riderId, int criticalPoint, long nanoOfDay) {
+        framesReceived++;
+        StageFeed feed = feed(stageId);
+        if (feed == null || criticalPoint < 0 || criticalPoint >= feed.width || nanoOfDay < 0
+                || nanoOfDay >= NANOS_PER_DAY) {
+            framesRejected++;
+            return;
+        }
+        long[] times = feed.pending.get(riderId);
+        if (times == null) {
+            times = new long[feed.width + 1];
+            Arrays.fill(times, 0, feed.width, -1);
+            feed.pending.put(riderId, times);
+        } else if (times[criticalPoint] >= 0) {
+            framesRejected++;
+            return;
+        }
+        times[criticalPoint] = nanoOfDay;
+        if (++times[feed.width] < feed.width) return;
+        feed.pending.remove(riderId);
+        if (feed.batch.isEmpty()) waiting.add(feed);
+        feed.batch.add(riderId, times, 0, feed.width);
+        numWaiting++;
+    }
+
+    /**
+     * Gets the feed of a stage, creating it once the stage is waiting for results, when its checkpoints, and so the
+     * number of times in a result, are fixed. Until then crossings of the stage are rejected, and each one looks the
+     * stage up again.
+     *
+     * @return the feed of a stage, or null if the portal has no such stage or it is still being prepared.
+     */
+    private StageFeed feed(int stageId) {
+        StageFeed feed = feeds.get(stageId);
+        if (feed != null) return feed;
+        int width = portal.getResultWidth(stageId);
+        if (width == 0) return null;
+        feed = new StageFeed(stageId, width);
+        feeds.put(stageId, feed);
+        return feed;
+    }
+
+    /**
+     * Registers every complete result waiting, dropping any the portal rejects. A batch with rejected rows is retried
+     * without them until the rest register; a stage that is gone, or no longer takes results, is forgotten.
+     */
+    private void flush() {
+        for (StageFeed feed : waiting) {
+            ResultBatch batch = feed.batch;
+            try {
+                while (!batch.isEmpty()) {
+                    try {
+                        portal.registerRiderResultsInStage(feed.stageId, batch);
+                        resultsRegistered += batch.size();
+                        break;
+                    } catch (InvalidResultBatchException e) {
+                        ResultBatch valid = without(batch, e.getRowErrors());
+                        resultsRejected += batch.size() - valid.size();
+                        if (valid.size() == batch.size()) {
+                            // rejected as a whole, with no row to blame
+                            resultsRejected += batch.size();
+                            break;
+                        }
+                        batch = valid;
+                    }
+                }
+            } catch (IDNotRecognisedException | InvalidStageStateException e) {
+                resultsRejected += batch.size();
+                feeds.remove(feed.stageId);
+            }
+            feed.batch.clear();
+        }
+        waiting.clear();
+        numWaiting = 0;
+    }
+    private static ResultBatch without(ResultBatch batch, SortedMap<Integer, Exception> rows) {
+        ResultBatch valid = new ResultBatch(batch.size(), batch.size() * batch.getLength(0));
+        long[] times = new long[batch.getLength(0)];
+        for (int row = 0; row < batch.size(); row++) {
+            if (rows.containsKey(row)) continue;
+            for (int i = 0; i < times.length; i++) times[i] = batch.getTime(row, i);
+            valid.add(batch.getRiderId(row), times, 0, times.length);
+        }
+        return valid;
+    }
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+}
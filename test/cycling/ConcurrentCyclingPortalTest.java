@@ -0,0 +1,217 @@
+package cycling;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentCyclingPortalTest {
+    static final int THREADS = 8;
+    static final int RIDERS = 500;
+    LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+    ConcurrentCyclingPortal portal = new ConcurrentCyclingPortal(4);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    int[] riders() throws Exception {
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int[] riderIds = new int[RIDERS];
+        for (int i = 0; i < RIDERS; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990);
+        return riderIds;
+    }
+    int[] stages(int count) throws Exception {
+        int raceId = portal.createRace("Egg&Spoon", null);
+        int[] stageIds = new int[count];
+        for (int s = 0; s < count; s++) {
+            stageIds[s] = portal.addStageToRace(raceId, "Stage" + s, null, 100, start, StageType.FLAT);
+            portal.addIntermediateSprintToStage(stageIds[s], 50);
+            portal.concludeStagePreparation(stageIds[s]);
+        }
+        return stageIds;
+    }
+    LocalTime[] times(int stage, int rider) {
+        LocalTime noon = start.toLocalTime();
+        return new LocalTime[] { noon, noon.plusSeconds(1000 + rider), noon.plusSeconds(5000 + (rider * 7 + stage) % RIDERS) };
+    }
+
+    @org.junit.jupiter.api.Test
+    void registerRiderResultsInStage_stagesInParallel() throws Exception {
+        // arrange
+        int[] riderIds = riders();
+        int[] stageIds = stages(THREADS * 2);
+        CyclingPortalImpl sequential = new CyclingPortalImpl();
+        sequential.loadCyclingPortal(save());
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        // act
+        for (int s = 0; s < stageIds.length; s++) {
+            int stage = s;
+            futures.add(executor.submit(() -> {
+                for (int r = 0; r < RIDERS; r++) {
+                    portal.registerRiderResultsInStage(stageIds[stage], riderIds[r], times(stage, r));
+                    if (r % 50 == 0) portal.getRidersRankInStage(stageIds[stage]);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        for (int s = 0; s < stageIds.length; s++) {
+            for (int r = 0; r < RIDERS; r++) sequential.registerRiderResultsInStage(stageIds[s], riderIds[r], times(s, r));
+        }
+        // assert
+        for (int stageId : stageIds) {
+            assertArrayEquals(sequential.getRidersRankInStage(stageId), portal.getRidersRankInStage(stageId));
+            assertArrayEquals(sequential.getRidersPointsInStage(stageId), portal.getRidersPointsInStage(stageId));
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void registerRiderResultsInStage_sameStageWhileStructureChanges() throws Exception {
+        // arrange
+        int[] riderIds = riders();
+        int stageId = stages(1)[0];
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        // act
+        for (int t = 0; t < THREADS - 1; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int r = thread; r < RIDERS; r += THREADS - 1) {
+                    portal.registerRiderResultsInStage(stageId, riderIds[r], times(0, r));
+                    portal.getRiderPositionInStage(stageId, riderIds[r]);
+                }
+                return null;
+            }));
+        }
+        futures.add(executor.submit(() -> {
+            for (int i = 0; i < 50; i++) portal.removeTeam(portal.createTeam("Team" + i, null));
+            return null;
+        }));
+        for (Future<?> future : futures) future.get();
+        // assert
+        int[] rank = portal.getRidersRankInStage(stageId);
+        assertEquals(RIDERS, rank.length);
+        for (int position = 1; position <= RIDERS; position++) {
+            assertEquals(rank[position - 1], portal.getRiderAtPositionInStage(stageId, position));
+        }
+        assertEquals(1, portal.getTeams().length);
+    }
+    @org.junit.jupiter.api.Test
+    void getRidersRankInStage_readWithoutLocksWhileWriting() throws Exception {
+        // arrange
+        int[] riderIds = riders();
+        int stageId = stages(1)[0];
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        // act
+        futures.add(executor.submit(() -> {
+            for (int r = 0; r < RIDERS; r++) portal.registerRiderResultsInStage(stageId, riderIds[r], times(0, r));
+            return null;
+        }));
+        for (int t = 0; t < THREADS - 1; t++) {
+            futures.add(executor.submit(() -> {
+                int seen = 0;
+                while (seen < RIDERS) {
+                    int[] rank = portal.getRidersRankInStage(stageId);
+                    int[] points = portal.getRidersPointsInStage(stageId);
+                    assertTrue(rank.length >= seen);
+                    assertEquals(rank.length, Arrays.stream(rank).distinct().count());
+                    assertTrue(points.length <= RIDERS);
+                    seen = rank.length;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        portal.getRidersRankInStage(stageId);
+        long hits = portal.getRankingCacheHits();
+        long misses = portal.getRankingCacheMisses();
+        for (int i = 0; i < 10; i++) portal.getRidersRankInStage(stageId);
+        // assert
+        assertEquals(hits + 10, portal.getRankingCacheHits());
+        assertEquals(misses, portal.getRankingCacheMisses());
+    }
+    @org.junit.jupiter.api.Test
+    void getRidersPointsInStage_afterWrites_rankedByTheWriters() throws Exception {
+        // arrange
+        int[] riderIds = riders();
+        int stageId = stages(1)[0];
+        for (int r = 0; r < RIDERS; r++) portal.registerRiderResultsInStage(stageId, riderIds[r], times(0, r));
+        portal.deleteRiderResultsInStage(stageId, riderIds[0]);
+        portal.removeRider(riderIds[1]);
+        long hits = portal.getRankingCacheHits();
+        long misses = portal.getRankingCacheMisses();
+        // act
+        int[] rank = portal.getRidersRankInStage(stageId);
+        LocalTime[] times = portal.getRankedAdjustedElapsedTimesInStage(stageId);
+        int[] points = portal.getRidersPointsInStage(stageId);
+        int[] mountainPoints = portal.getRidersMountainPointsInStage(stageId);
+        // assert
+        assertEquals(RIDERS - 2, rank.length);
+        assertEquals(RIDERS - 2, times.length);
+        assertEquals(RIDERS - 2, points.length);
+        assertEquals(RIDERS - 2, mountainPoints.length);
+        assertEquals(hits + 4, portal.getRankingCacheHits());
+        assertEquals(misses, portal.getRankingCacheMisses());
+    }
+    @org.junit.jupiter.api.Test
+    void removeRider_afterResultsInStagesInParallel_leavesNoResults() throws Exception {
+        // arrange
+        int rounds = 25;
+        int stagesPerRound = 8;
+        int[] riderIds = riders();
+        int[] stageIds = stages(THREADS * rounds * stagesPerRound);
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int round = 0; round < rounds; round++) {
+                    // every thread adds the same riders, in the same order, to stages of its own, all at once, for
+                    // long enough to be preempted partway through even on one processor
+                    barrier.await();
+                    for (int s = 0; s < stagesPerRound; s++) {
+                        int stage = (round * THREADS + thread) * stagesPerRound + s;
+                        registerThenDeleteSome(stageIds[stage], stage, riderIds, thread % 2 == 0);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        // act
+        for (int riderId : riderIds) portal.removeRider(riderId);
+        // assert
+        for (int stageId : stageIds) assertEquals(0, portal.getRidersRankInStage(stageId).length);
+    }
+
+    /**
+     * Registers a result in a stage for every rider, in one batch or one by one, then deletes every eighth.
+     */
+    void registerThenDeleteSome(int stageId, int stage, int[] riderIds, boolean batched) throws Exception {
+        if (batched) {
+            ResultBatch batch = new ResultBatch();
+            for (int r = 0; r < RIDERS; r++) batch.add(riderIds[r], times(stage, r));
+            portal.registerRiderResultsInStage(stageId, batch);
+        } else {
+            for (int r = 0; r < RIDERS; r++) portal.registerRiderResultsInStage(stageId, riderIds[r], times(stage, r));
+        }
+        for (int r = stage % THREADS; r < RIDERS; r += THREADS) portal.deleteRiderResultsInStage(stageId, riderIds[r]);
+    }
+
+    /**
+     * @return a temporary file holding the portal as it is.
+     */
+    String save() throws Exception {
+        File file = File.createTempFile("portal", ".snapshot");
+        file.deleteOnExit();
+        portal.saveCyclingPortal(file.getPath());
+        return file.getPath();
+    }
+}
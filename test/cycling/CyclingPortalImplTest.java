@@ -2,6 +2,8 @@ package cycling;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -15,7 +17,8 @@ class CyclingPortalImplTest {
     final String filename = "miniCyclingPortal.ser";
     MiniCyclingPortal portal = new CyclingPortalImpl();
     @org.junit.jupiter.api.AfterEach
-    void tearDown() {
+    void tearDown() throws IOException {
+        DeltaSnapshot.deleteChain(Path.of(filename));
         File file = new File(filename);
         if (file.exists() && file.delete()) System.out.println(filename + " deleted.");
         portal.eraseCyclingPortal();
@@ -38,6 +41,34 @@ class CyclingPortalImplTest {
         assertThrows(InvalidNameException.class, () -> portal.createTeam("", "Zoo escapees"));
     }
     @org.junit.jupiter.api.Test
+    void createTeam_duplicateNameThrowsException() throws InvalidNameException, IllegalNameException {
+        portal.createTeam("Ape", "Zoo escapees");
+        assertThrows(IllegalNameException.class, () -> portal.createTeam("Ape", "Zoo escapees"));
+    }
+    @org.junit.jupiter.api.Test
+    void createTeam_nameOfRemovedTeam() throws InvalidNameException, IllegalNameException, IDNotRecognisedException {
+        // arrange
+        int teamId = portal.createTeam("Ape", "Zoo escapees");
+        portal.removeTeam(teamId);
+        // act
+        int newTeamId = portal.createTeam("Ape", "Zoo escapees");
+        // assert
+        assertArrayEquals(new int[] { newTeamId }, portal.getTeams());
+    }
+    @org.junit.jupiter.api.Test
+    void addStageToRace_duplicateStageNameThrowsException() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException {
+        // arrange
+        LocalDateTime eggStartTime = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int otherRaceId = portal.createRace("Chimps&Gorillas", "...are apes");
+        portal.addStageToRace(raceId, "Egg", "Carry an egg", 3.141 + 3, eggStartTime, StageType.FLAT);
+        // assert
+        assertThrows(IllegalNameException.class, () -> portal.addStageToRace(otherRaceId, "Egg",
+                "Carry an egg", 3.141 + 3, eggStartTime, StageType.FLAT));
+        assertDoesNotThrow(() -> portal.addStageToRace(raceId, "Chimps&Gorillas",
+                "Carry an ape", 3.141 + 3, eggStartTime, StageType.FLAT));
+    }
+    @org.junit.jupiter.api.Test
     void removeTeam_idDoesNotExistThrowsException() {
         assertThrows(IDNotRecognisedException.class, () -> portal.removeTeam(1));
     }
@@ -171,6 +202,133 @@ class CyclingPortalImplTest {
         assertEquals(1, portal.getRaceStages(raceId).length);
     }
     @org.junit.jupiter.api.Test
+    void removeRaceById_removesStages() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException {
+        // arrange
+        LocalDateTime eggStartTime = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int stageId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, eggStartTime, StageType.MEDIUM_MOUNTAIN);
+        // act
+        portal.removeRaceById(raceId);
+        // assert
+        assertThrows(IDNotRecognisedException.class, () -> portal.getStageLength(stageId));
+        assertThrows(IDNotRecognisedException.class, () -> portal.removeRaceById(raceId));
+    }
+    @org.junit.jupiter.api.Test
+    void loadCyclingPortal_idsRecognised() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, IOException, ClassNotFoundException {
+        // arrange
+        LocalDateTime eggStartTime = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int stageId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, eggStartTime, StageType.MEDIUM_MOUNTAIN);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int riderId = portal.createRider(teamId, "Daniel", 1999);
+        portal.saveCyclingPortal(filename);
+        portal.eraseCyclingPortal();
+        // act
+        portal.loadCyclingPortal(filename);
+        // assert
+        assertEquals(3.141 + 3, portal.getStageLength(stageId));
+        assertArrayEquals(new int[] { riderId }, portal.getTeamRiders(teamId));
+        portal.removeRider(riderId);
+        assertArrayEquals(new int[0], portal.getTeamRiders(teamId));
+    }
+    @org.junit.jupiter.api.Test
+    void loadCyclingPortal_javaSerializationFallback() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException, IOException, ClassNotFoundException {
+        // arrange
+        CyclingPortalImpl snapshotPortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int stageId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", null);
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        portal.concludeStagePreparation(stageId);
+        portal.registerRiderResultsInStage(stageId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) }));
+        snapshotPortal.saveCyclingPortal(filename, SnapshotFormat.JAVA_SERIALIZATION);
+        portal.eraseCyclingPortal();
+        // act
+        portal.loadCyclingPortal(filename);
+        portal.saveCyclingPortal(filename);
+        portal.eraseCyclingPortal();
+        portal.loadCyclingPortal(filename);
+        // assert
+        assertArrayEquals(new int[] { danId }, portal.getRidersRankInStage(stageId));
+        assertArrayEquals(new int[] { 50 }, portal.getRidersPointsInStage(stageId));
+        assertThrows(IllegalNameException.class, () -> portal.createTeam("Apes", "Zoo escapees"));
+    }
+    @org.junit.jupiter.api.Test
+    void loadCyclingPortal_savedByBaseline() throws Exception {
+        // arrange
+        MiniCyclingPortal expected = new CyclingPortalImpl();
+        int[] stageIds = fillBaselinePortal(expected);
+        String fixture = Path.of(getClass().getResource("baseline-portal.ser").toURI()).toString();
+        // act
+        portal.loadCyclingPortal(fixture);
+        // assert
+        assertArrayEquals(expected.getRaceIds(), portal.getRaceIds());
+        assertArrayEquals(expected.getTeams(), portal.getTeams());
+        for (int stageId : stageIds) {
+            assertArrayEquals(expected.getStageCheckpoints(stageId), portal.getStageCheckpoints(stageId));
+            assertArrayEquals(expected.getRidersRankInStage(stageId), portal.getRidersRankInStage(stageId));
+            assertArrayEquals(expected.getRankedAdjustedElapsedTimesInStage(stageId),
+                    portal.getRankedAdjustedElapsedTimesInStage(stageId));
+            assertArrayEquals(expected.getRidersPointsInStage(stageId), portal.getRidersPointsInStage(stageId));
+            assertArrayEquals(expected.getRidersMountainPointsInStage(stageId),
+                    portal.getRidersMountainPointsInStage(stageId));
+            for (int riderId : expected.getRidersRankInStage(stageId)) {
+                assertArrayEquals(expected.getRiderResultsInStage(stageId, riderId),
+                        portal.getRiderResultsInStage(stageId, riderId));
+            }
+        }
+        assertEquals(expected.createTeam("Cats", null), portal.createTeam("Cats", null));
+    }
+
+    /**
+     * Makes the calls that built baseline-portal.ser, which was saved by the first version of the portal, before any
+     * of its classes pinned their serialVersionUIDs or stages kept their results in a {@link ResultTable}.
+     *
+     * @return the ids of the stages.
+     */
+    static int[] fillBaselinePortal(MiniCyclingPortal portal) throws Exception {
+        LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+        LocalTime noon = start.toLocalTime();
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int flatId = portal.addStageToRace(raceId, "Egg", "Carry an egg", 120, start, StageType.FLAT);
+        portal.addIntermediateSprintToStage(flatId, 40);
+        portal.addCategorizedClimbToStage(flatId, 80.0, CheckpointType.C3, 4.5, 3.0);
+        portal.concludeStagePreparation(flatId);
+        int ttId = portal.addStageToRace(raceId, "Spoon", null, 30, start.plusDays(1), StageType.TT);
+        portal.concludeStagePreparation(ttId);
+        int apesId = portal.createTeam("Apes", "Zoo escapees");
+        int humansId = portal.createTeam("Humans", null);
+        int[] riderIds = {
+                portal.createRider(apesId, "Daniel", 1999),
+                portal.createRider(apesId, "Joel", 2001),
+                portal.createRider(humansId, "Marcus", 2004),
+                portal.createRider(humansId, "Zookeeper", 1980) };
+        for (int i = 0; i < riderIds.length; i++) {
+            portal.registerRiderResultsInStage(flatId, riderIds[i], noon, noon.plusMinutes(60 + i),
+                    noon.plusMinutes(120 - i), noon.plusMinutes(180 + (i % 2)).plusSeconds(i));
+            portal.registerRiderResultsInStage(ttId, riderIds[i], noon.plusMinutes(2 * i),
+                    noon.plusMinutes(40 + 3 * i).plusSeconds(7 * i));
+        }
+        return new int[] { flatId, ttId };
+    }
+    @org.junit.jupiter.api.Test
+    void loadCyclingPortal_corruptSnapshotRejected() throws InvalidNameException, IllegalNameException, IOException, ClassNotFoundException {
+        // arrange
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        portal.saveCyclingPortal(filename);
+        byte[] bytes = Files.readAllBytes(Path.of(filename));
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(Path.of(filename), bytes);
+        // act
+        assertThrows(IOException.class, () -> portal.loadCyclingPortal(filename));
+        // assert
+        assertArrayEquals(new int[] { raceId }, portal.getRaceIds());
+    }
+    @org.junit.jupiter.api.Test
     void addCategorizedClimbToStage() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, InvalidLocationException, InvalidStageTypeException {
         // arrange
         LocalDateTime eggStartTime = LocalDateTime.now().plusDays(1);
@@ -609,6 +767,116 @@ class CyclingPortalImplTest {
         assertArrayEquals(expectedRankedPoints, rankedPoints);
     }
     @org.junit.jupiter.api.Test
+    void rankingCache_invalidatedByResultChanges() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException {
+        // arrange
+        CyclingPortalImpl cachedPortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int stageId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        int joelId = portal.createRider(teamId, "Joel", 2001);
+        portal.concludeStagePreparation(stageId);
+        portal.registerRiderResultsInStage(stageId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) }));
+        portal.registerRiderResultsInStage(stageId, joelId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(554) }));
+        // act
+        int[] riderIds = portal.getRidersRankInStage(stageId);
+        int[] points = portal.getRidersPointsInStage(stageId);
+        portal.getRankedAdjustedElapsedTimesInStage(stageId);
+        portal.getRidersMountainPointsInStage(stageId);
+        // assert
+        assertArrayEquals(new int[] { joelId, danId }, riderIds);
+        assertArrayEquals(new int[] { 50, 30 }, points);
+        assertEquals(1, cachedPortal.getRankingCacheMisses());
+        assertEquals(3, cachedPortal.getRankingCacheHits());
+        portal.deleteRiderResultsInStage(stageId, joelId);
+        assertArrayEquals(new int[] { danId }, portal.getRidersRankInStage(stageId));
+        portal.removeRider(danId);
+        assertArrayEquals(new int[0], portal.getRidersRankInStage(stageId));
+        assertEquals(3, cachedPortal.getRankingCacheMisses());
+    }
+    @org.junit.jupiter.api.Test
+    void getRiderPositionInStage_updatedAfterEachResult() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException {
+        // arrange
+        CyclingPortalImpl livePortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int stageId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        int joelId = portal.createRider(teamId, "Joel", 2001);
+        int myId = portal.createRider(teamId, "Marcus", 2004);
+        portal.concludeStagePreparation(stageId);
+        // act
+        portal.registerRiderResultsInStage(stageId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) }));
+        assertEquals(1, livePortal.getRiderPositionInStage(stageId, danId));
+        portal.registerRiderResultsInStage(stageId, joelId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(554) }));
+        assertEquals(2, livePortal.getRiderPositionInStage(stageId, danId));
+        portal.registerRiderResultsInStage(stageId, myId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(556) }));
+        portal.deleteRiderResultsInStage(stageId, joelId);
+        // assert
+        assertEquals(0, livePortal.getRiderPositionInStage(stageId, joelId));
+        assertEquals(danId, livePortal.getRiderAtPositionInStage(stageId, 1));
+        assertEquals(myId, livePortal.getRiderAtPositionInStage(stageId, 2));
+        assertThrows(IllegalArgumentException.class, () -> livePortal.getRiderAtPositionInStage(stageId, 3));
+    }
+    @org.junit.jupiter.api.Test
+    void registerRiderResultsInStage_batch() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, InvalidResultBatchException {
+        // arrange
+        CyclingPortalImpl batchPortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int stageId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        int joelId = portal.createRider(teamId, "Joel", 2001);
+        portal.concludeStagePreparation(stageId);
+        ResultBatch batch = new ResultBatch()
+                .add(danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) }))
+                .add(joelId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(554) }));
+        // act
+        batchPortal.registerRiderResultsInStage(stageId, batch);
+        // assert
+        assertArrayEquals(new int[] { joelId, danId }, portal.getRidersRankInStage(stageId));
+        assertArrayEquals(new int[] { 50, 30 }, portal.getRidersPointsInStage(stageId));
+        assertEquals(1, batchPortal.getRankingCacheMisses());
+    }
+    @org.junit.jupiter.api.Test
+    void registerRiderResultsInStage_invalidBatchRejected() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException {
+        // arrange
+        CyclingPortalImpl batchPortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int stageId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        int joelId = portal.createRider(teamId, "Joel", 2001);
+        int myId = portal.createRider(teamId, "Marcus", 2004);
+        portal.concludeStagePreparation(stageId);
+        LocalTime[] times = toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) });
+        portal.registerRiderResultsInStage(stageId, danId, times);
+        ResultBatch batch = new ResultBatch()
+                .add(myId, times)
+                .add(danId, times)
+                .add(joelId, times[0])
+                .add(-1, times)
+                .add(myId, times);
+        // act
+        InvalidResultBatchException exception = assertThrows(InvalidResultBatchException.class,
+                () -> batchPortal.registerRiderResultsInStage(stageId, batch));
+        // assert
+        assertEquals(List.of(1, 2, 3, 4), new ArrayList<>(exception.getRowErrors().keySet()));
+        assertInstanceOf(DuplicatedResultException.class, exception.getRowErrors().get(1));
+        assertInstanceOf(InvalidCheckpointTimesException.class, exception.getRowErrors().get(2));
+        assertInstanceOf(IDNotRecognisedException.class, exception.getRowErrors().get(3));
+        assertInstanceOf(DuplicatedResultException.class, exception.getRowErrors().get(4));
+        assertArrayEquals(new int[] { danId }, portal.getRidersRankInStage(stageId));
+    }
+    @org.junit.jupiter.api.Test
     void concludeStagePreparation() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException {
         // arrange
         LocalDateTime eggStartTime = LocalDateTime.now().plusDays(1);
@@ -706,6 +974,154 @@ class CyclingPortalImplTest {
     void loadCyclingPortal_throws() {
         assertThrows(IOException.class, () -> portal.loadCyclingPortal(filename));
     }
+    @org.junit.jupiter.api.Test
+    void saveCyclingPortalDelta_chainLoaded() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException, IOException, ClassNotFoundException {
+        // arrange
+        CyclingPortalImpl deltaPortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int eggRaceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int sackRaceId = portal.createRace("Sack", null);
+        int stageId = portal.addStageToRace(eggRaceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int apesId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(apesId, "Daniel", 1999);
+        portal.concludeStagePreparation(stageId);
+        deltaPortal.saveCyclingPortalDelta(filename);
+        // act
+        int joelId = portal.createRider(apesId, "Joel", 2001);
+        portal.registerRiderResultsInStage(stageId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) }));
+        portal.registerRiderResultsInStage(stageId, joelId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(554) }));
+        deltaPortal.saveCyclingPortalDelta(filename);
+        portal.removeRaceById(sackRaceId);
+        int catsId = portal.createTeam("Cats", null);
+        portal.deleteRiderResultsInStage(stageId, joelId);
+        deltaPortal.saveCyclingPortalDelta(filename);
+        portal.eraseCyclingPortal();
+        portal.loadCyclingPortal(filename);
+        // assert
+        assertEquals(2, DeltaSnapshot.chainLength(Path.of(filename)));
+        assertArrayEquals(new int[] { eggRaceId }, portal.getRaceIds());
+        assertArrayEquals(new int[] { apesId, catsId }, portal.getTeams());
+        assertArrayEquals(new int[] { danId, joelId }, portal.getTeamRiders(apesId));
+        assertArrayEquals(new int[] { danId }, portal.getRidersRankInStage(stageId));
+        assertEquals(catsId + 1, portal.createRace("Relay", "..."));
+    }
+    @org.junit.jupiter.api.Test
+    void compactCyclingPortal_staleDeltasIgnored() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, IOException, ClassNotFoundException {
+        // arrange
+        CyclingPortalImpl deltaPortal = (CyclingPortalImpl) portal;
+        int apesId = portal.createTeam("Apes", "Zoo escapees");
+        deltaPortal.saveCyclingPortalDelta(filename);
+        int danId = portal.createRider(apesId, "Daniel", 1999);
+        deltaPortal.saveCyclingPortalDelta(filename);
+        Path stale = DeltaSnapshot.deltaFile(Path.of(filename), 1);
+        byte[] staleBytes = Files.readAllBytes(stale);
+        // act
+        deltaPortal.compactCyclingPortal(filename);
+        Files.write(stale, staleBytes);
+        portal.removeRider(danId);
+        deltaPortal.saveCyclingPortalDelta(filename);
+        Files.write(DeltaSnapshot.deltaFile(Path.of(filename), 2), staleBytes);
+        portal.eraseCyclingPortal();
+        portal.loadCyclingPortal(filename);
+        // assert
+        assertArrayEquals(new int[] { apesId }, portal.getTeams());
+        assertArrayEquals(new int[0], portal.getTeamRiders(apesId));
+    }
+    @org.junit.jupiter.api.Test
+    void mapCyclingPortal_resultsReadWhenFirstNeeded() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException, IOException, ClassNotFoundException {
+        // arrange
+        CyclingPortalImpl mappedPortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int eggId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int spoonId = portal.addStageToRace(raceId, "Spoon",
+                "Carry a spoon", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        int joelId = portal.createRider(teamId, "Joel", 2001);
+        portal.concludeStagePreparation(eggId);
+        portal.concludeStagePreparation(spoonId);
+        portal.registerRiderResultsInStage(eggId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) }));
+        portal.registerRiderResultsInStage(eggId, joelId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(554) }));
+        portal.registerRiderResultsInStage(spoonId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(5) }));
+        portal.saveCyclingPortal(filename);
+        // act
+        portal.eraseCyclingPortal();
+        mappedPortal.mapCyclingPortal(filename);
+        BinarySnapshot snapshot = BinarySnapshot.read(Path.of(filename), true);
+        Stage spoon = ((Race) snapshot.getRaces().get(0)).getChildren().get(1);
+        // assert
+        assertNotNull(spoon.getEncodedResults());
+        assertEquals(danId, spoon.getResults().getRiderId(0));
+        assertNull(spoon.getEncodedResults());
+        assertArrayEquals(new int[] { joelId, danId }, portal.getRidersRankInStage(eggId));
+        portal.saveCyclingPortal(filename);
+        mappedPortal.saveCyclingPortal(filename, SnapshotFormat.JAVA_SERIALIZATION);
+        portal.eraseCyclingPortal();
+        portal.loadCyclingPortal(filename);
+        assertArrayEquals(new int[] { joelId, danId }, portal.getRidersRankInStage(eggId));
+        assertArrayEquals(new int[] { danId }, portal.getRidersRankInStage(spoonId));
+    }
+    @org.junit.jupiter.api.Test
+    void removeRider_touchesOnlyStagesWithTheirResults() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException, IOException, ClassNotFoundException {
+        // arrange
+        CyclingPortalImpl mappedPortal = (CyclingPortalImpl) portal;
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int eggId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int spoonId = portal.addStageToRace(raceId, "Spoon",
+                "Carry a spoon", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        int joelId = portal.createRider(teamId, "Joel", 2001);
+        portal.concludeStagePreparation(eggId);
+        portal.concludeStagePreparation(spoonId);
+        portal.registerRiderResultsInStage(eggId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(555) }));
+        portal.registerRiderResultsInStage(eggId, joelId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(554) }));
+        portal.registerRiderResultsInStage(spoonId, danId, toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(5) }));
+        portal.saveCyclingPortal(filename);
+        portal.eraseCyclingPortal();
+        mappedPortal.mapCyclingPortal(filename);
+        // act
+        portal.removeRider(joelId);
+        // assert
+        assertNotNull(mappedPortal.getStageOrNull(spoonId).getEncodedResults());
+        assertArrayEquals(new int[] { danId }, portal.getRidersRankInStage(eggId));
+        assertArrayEquals(new int[] { danId }, portal.getRidersRankInStage(spoonId));
+    }
+    @org.junit.jupiter.api.Test
+    void removeTeam_afterResultsDeletedAndStageRemoved() throws InvalidNameException, IllegalNameException, IDNotRecognisedException, InvalidLengthException, InvalidStageStateException, DuplicatedResultException, InvalidCheckpointTimesException {
+        // arrange
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        int eggId = portal.addStageToRace(raceId, "Egg",
+                "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int spoonId = portal.addStageToRace(raceId, "Spoon",
+                "Carry a spoon", 3.141 + 3, start, StageType.FLAT);
+        int apesId = portal.createTeam("Apes", "Zoo escapees");
+        int monkeysId = portal.createTeam("Monkeys", "Also escapees");
+        int danId = portal.createRider(apesId, "Daniel", 1999);
+        int joelId = portal.createRider(monkeysId, "Joel", 2001);
+        portal.concludeStagePreparation(eggId);
+        portal.concludeStagePreparation(spoonId);
+        LocalTime[] times = toLocalTimeArray(new LocalDateTime[] { start, start.plusMinutes(5) });
+        for (int stageId : new int[] { eggId, spoonId }) {
+            portal.registerRiderResultsInStage(stageId, danId, times);
+            portal.registerRiderResultsInStage(stageId, joelId, times);
+        }
+        // act
+        portal.deleteRiderResultsInStage(eggId, danId);
+        portal.registerRiderResultsInStage(eggId, danId, times);
+        portal.removeStageById(spoonId);
+        portal.removeTeam(apesId);
+        // assert
+        assertArrayEquals(new int[] { joelId }, portal.getRidersRankInStage(eggId));
+        portal.removeTeam(monkeysId);
+        assertArrayEquals(new int[0], portal.getRidersRankInStage(eggId));
+    }
     private static LocalTime[] toLocalTimeArray(LocalDateTime[] times) {
         return Arrays.stream(times)
                 .map(LocalDateTime::toLocalTime)
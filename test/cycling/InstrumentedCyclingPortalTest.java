@@ -0,0 +1,65 @@
+package cycling;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentedCyclingPortalTest {
+    InstrumentedCyclingPortal portal = new InstrumentedCyclingPortal(new CyclingPortalImpl());
+
+    @org.junit.jupiter.api.Test
+    void calls_countedWithTheirExceptions() throws Exception {
+        // arrange
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int riderId = portal.createRider(teamId, "Ape", 1990);
+        int stageId = portal.addStageToRace(portal.createRace("Egg&Spoon", null), "Stage", null, 100,
+                LocalDateTime.of(2024, 7, 1, 12, 0), StageType.FLAT);
+        portal.concludeStagePreparation(stageId);
+        // act
+        portal.registerRiderResultsInStage(stageId, riderId, LocalTime.NOON, LocalTime.of(14, 0));
+        assertThrows(DuplicatedResultException.class,
+                () -> portal.registerRiderResultsInStage(stageId, riderId, LocalTime.NOON, LocalTime.of(14, 0)));
+        assertThrows(IDNotRecognisedException.class,
+                () -> portal.registerRiderResultsInStage(stageId + 1, riderId, LocalTime.NOON, LocalTime.of(14, 0)));
+        assertThrows(IDNotRecognisedException.class, () -> portal.getRidersRankInStage(stageId + 1));
+        portal.getRidersRankInStage(stageId);
+        // assert
+        Map<String, InstrumentedCyclingPortal.OperationStats> stats = portal.snapshot();
+        InstrumentedCyclingPortal.OperationStats register = stats.get("registerRiderResultsInStage");
+        assertEquals(3, register.getCalls());
+        assertEquals(Map.of("DuplicatedResultException", 1L, "IDNotRecognisedException", 1L), register.getExceptions());
+        assertEquals(2, stats.get("getRidersRankInStage").getCalls());
+        assertEquals(1, stats.get("getRidersRankInStage").getExceptionCount());
+        assertEquals(0, stats.get("removeTeam").getCalls());
+        assertEquals(31, stats.size());
+    }
+    @org.junit.jupiter.api.Test
+    void reset_startsAgain() throws Exception {
+        // arrange
+        portal.createTeam("Apes", null);
+        assertThrows(IllegalNameException.class, () -> portal.createTeam("Apes", null));
+        // act
+        Map<String, InstrumentedCyclingPortal.OperationStats> before = portal.reset();
+        portal.getTeams();
+        // assert
+        assertEquals(2, before.get("createTeam").getCalls());
+        assertEquals(1, before.get("createTeam").getExceptionCount());
+        assertEquals(0, portal.snapshot().get("createTeam").getCalls());
+        assertEquals(0, portal.snapshot().get("createTeam").getExceptionCount());
+        assertEquals(1, portal.snapshot().get("getTeams").getCalls());
+    }
+    @org.junit.jupiter.api.Test
+    void sampling_countsEveryCall() {
+        // arrange
+        InstrumentedCyclingPortal sampled = new InstrumentedCyclingPortal(new CyclingPortalImpl(), 10);
+        // act
+        for (int i = 0; i < 10_000; i++) sampled.getRaceIds();
+        // assert
+        InstrumentedCyclingPortal.OperationStats stats = sampled.snapshot().get("getRaceIds");
+        assertEquals(16, sampled.getSampleInterval());
+        assertEquals(10_000, stats.getCalls());
+        assertTrue(stats.getLatencies().getCount() > 300 && stats.getLatencies().getCount() < 1_000);
+    }
+}
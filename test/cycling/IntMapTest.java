@@ -0,0 +1,56 @@
+package cycling;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntMapTest {
+    IntMap<String> map = new IntMap<>();
+
+    @org.junit.jupiter.api.Test
+    void put_get() {
+        // act
+        map.put(1, "Ape");
+        map.put(2, "Chimp");
+        // assert
+        assertEquals("Ape", map.get(1));
+        assertEquals("Chimp", map.get(2));
+        assertNull(map.get(3));
+        assertEquals(2, map.size());
+    }
+    @org.junit.jupiter.api.Test
+    void put_replaces() {
+        map.put(1, "Ape");
+        assertEquals("Ape", map.put(1, "Chimp"));
+        assertEquals("Chimp", map.get(1));
+        assertEquals(1, map.size());
+    }
+    @org.junit.jupiter.api.Test
+    void remove_keepsCollidingKeys() {
+        // arrange
+        for (int key = 0; key < 1000; key++) map.put(key, Integer.toString(key));
+        // act
+        for (int key = 0; key < 1000; key += 2) map.remove(key);
+        // assert
+        assertEquals(500, map.size());
+        for (int key = 0; key < 1000; key++) {
+            assertEquals(key % 2 == 0 ? null : Integer.toString(key), map.get(key));
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void randomOperations_matchHashMap() {
+        // arrange
+        HashMap<Integer, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        // act
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextBoolean()) assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+            else assertEquals(expected.remove(key), map.remove(key));
+        }
+        // assert
+        assertEquals(expected.size(), map.size());
+        for (int key : map.keys()) assertEquals(expected.get(key), map.get(key));
+    }
+}
@@ -0,0 +1,217 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournaledCyclingPortalTest {
+    Path directory;
+    LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    /**
+     * Fills a portal with a stage and results, leaving its last changes unsynced.
+     *
+     * @return the id of the stage.
+     */
+    int fill(JournaledCyclingPortal portal) throws Exception {
+        int raceId = portal.createRace("Egg&Spoon", null);
+        int stageId = portal.addStageToRace(raceId, "Egg", "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        portal.addIntermediateSprintToStage(stageId, 2);
+        portal.concludeStagePreparation(stageId);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        int danId = portal.createRider(teamId, "Daniel", 1999);
+        int joelId = portal.createRider(teamId, "Joel", 2001);
+        int myId = portal.createRider(teamId, "Marcus", 2004);
+        LocalTime noon = start.toLocalTime();
+        portal.registerRiderResultsInStage(stageId, danId, noon, noon.plusMinutes(50), noon.plusMinutes(555));
+        portal.registerRiderResultsInStage(stageId, new ResultBatch()
+                .add(joelId, noon, noon.plusMinutes(51), noon.plusMinutes(554))
+                .add(myId, noon, noon.plusMinutes(52), noon.plusMinutes(556)));
+        portal.deleteRiderResultsInStage(stageId, myId);
+        return stageId;
+    }
+
+    @org.junit.jupiter.api.Test
+    void recover_replaysJournal() throws Exception {
+        // arrange
+        JournaledCyclingPortal portal = new JournaledCyclingPortal(directory, 1000, 0, 0);
+        int stageId = fill(portal);
+        int[] rank = portal.getRidersRankInStage(stageId);
+        int[] points = portal.getRidersPointsInStage(stageId);
+        portal.sync();
+        // act
+        JournaledCyclingPortal recovered = new JournaledCyclingPortal(directory, 1000, 0, 0);
+        // assert
+        assertArrayEquals(rank, recovered.getRidersRankInStage(stageId));
+        assertArrayEquals(points, recovered.getRidersPointsInStage(stageId));
+        assertThrows(IllegalNameException.class, () -> recovered.createTeam("Apes", null));
+        assertEquals(1, portal.getSyncCount());
+        recovered.close();
+        portal.close();
+    }
+    @org.junit.jupiter.api.Test
+    void recover_afterCheckpoint() throws Exception {
+        // arrange
+        JournaledCyclingPortal portal = new JournaledCyclingPortal(directory, 2, 0, 0);
+        int stageId = fill(portal);
+        int apesId = portal.getTeams()[0];
+        portal.checkpoint();
+        int teamId = portal.createTeam("Humans", "Zookeepers");
+        portal.close();
+        // act
+        JournaledCyclingPortal recovered = new JournaledCyclingPortal(directory);
+        // assert
+        assertTrue(Files.exists(directory.resolve("snapshot-1.bin")));
+        assertFalse(Files.exists(directory.resolve("journal-0.log")));
+        assertEquals(2, recovered.getRidersRankInStage(stageId).length);
+        assertArrayEquals(new int[] { apesId, teamId }, recovered.getTeams());
+        recovered.close();
+    }
+    @org.junit.jupiter.api.Test
+    void recover_tornRecordCutOff() throws Exception {
+        // arrange
+        JournaledCyclingPortal portal = new JournaledCyclingPortal(directory, 1, 0, 0);
+        int raceId = portal.createRace("Egg&Spoon", null);
+        portal.createTeam("Apes", "Zoo escapees");
+        portal.close();
+        Path journal = directory.resolve("journal-0.log");
+        long intact;
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            intact = channel.size();
+            channel.truncate(intact - 3);
+        }
+        // act
+        JournaledCyclingPortal recovered = new JournaledCyclingPortal(directory, 1, 0, 0);
+        int teamId = recovered.createTeam("Humans", "Zookeepers");
+        recovered.close();
+        // assert
+        assertArrayEquals(new int[] { raceId }, recovered.getRaceIds());
+        assertArrayEquals(new int[] { teamId }, recovered.getTeams());
+        assertTrue(Files.size(journal) < intact + 20);
+    }
+    @org.junit.jupiter.api.Test
+    void recover_afterFailedWriteRetried() throws Exception {
+        // arrange
+        FailingChannel[] channel = new FailingChannel[1];
+        JournaledCyclingPortal portal = new JournaledCyclingPortal(directory, 1, 0, 0,
+                journal -> channel[0] = new FailingChannel(journal));
+        int raceId = portal.createRace("Egg&Spoon", null);
+        channel[0].failAfter = 5;
+        // act
+        assertThrows(UncheckedIOException.class, () -> portal.createTeam("Apes", "Zoo escapees"));
+        int teamId = portal.getTeams()[0];
+        int riderId = portal.createRider(teamId, "Daniel", 1999);
+        portal.close();
+        JournaledCyclingPortal recovered = new JournaledCyclingPortal(directory, 1, 0, 0);
+        // assert
+        assertArrayEquals(new int[] { raceId }, recovered.getRaceIds());
+        assertArrayEquals(new int[] { teamId }, recovered.getTeams());
+        assertArrayEquals(new int[] { riderId }, recovered.getTeamRiders(teamId));
+        recovered.close();
+    }
+
+    /**
+     * A journal that, once armed, writes only some of the bytes it is given, then fails the next write and carries on
+     * as normal after that.
+     */
+    static class FailingChannel extends FileChannel {
+        final FileChannel channel;
+        /**
+         * The number of bytes to write before failing, or -1 never to fail.
+         */
+        int failAfter = -1;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failAfter < 0) return channel.write(src);
+            if (failAfter == 0) {
+                failAfter = -1;
+                throw new IOException("No space left on device");
+            }
+            ByteBuffer part = src.slice(src.position(), Math.min(failAfter, src.remaining()));
+            int written = channel.write(part);
+            src.position(src.position() + written);
+            failAfter -= written;
+            return written;
+        }
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public int read(ByteBuffer dst) throws IOException { return channel.read(dst); }
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+        @Override
+        public long position() throws IOException { return channel.position(); }
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+        @Override
+        public long size() throws IOException { return channel.size(); }
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+        @Override
+        public void force(boolean metaData) throws IOException { channel.force(metaData); }
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException { return channel.read(dst, position); }
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException { return channel.write(src, position); }
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+        @Override
+        protected void implCloseChannel() throws IOException { channel.close(); }
+    }
+}
@@ -0,0 +1,61 @@
+package cycling;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    @org.junit.jupiter.api.Test
+    void bucket_coversEveryValueWithinPrecision() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> 1 + random.nextInt(63);
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket >= 0 && bucket < LatencyHistogram.NUM_BUCKETS);
+            assertTrue(LatencyHistogram.lowestValue(bucket) <= value && value <= LatencyHistogram.highestValue(bucket));
+            assertTrue(LatencyHistogram.highestValue(bucket) - LatencyHistogram.lowestValue(bucket)
+                    <= LatencyHistogram.lowestValue(bucket) / LatencyHistogram.HALF_SUB_BUCKETS);
+        }
+        assertEquals(LatencyHistogram.NUM_BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+    @org.junit.jupiter.api.Test
+    void percentiles_matchSortedValues() {
+        // arrange
+        Random random = new Random(2);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) values[i] = (long) Math.exp(random.nextDouble() * 20);
+        // act
+        for (long value : values) histogram.record(value);
+        // assert
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double percentile : new double[] { 1, 50, 90, 99, 99.9 }) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(actual >= expected && actual <= expected + expected / 32, percentile + ": " + actual);
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void reset_movesEveryValueOnce() throws Exception {
+        // arrange
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) histogram.record(i);
+            });
+        }
+        // act
+        for (Thread thread : threads) thread.start();
+        long moved = 0;
+        while (threads[threads.length - 1].isAlive()) moved += histogram.reset().getCount();
+        for (Thread thread : threads) thread.join();
+        moved += histogram.reset().getCount();
+        // assert
+        assertEquals(threads.length * 100_000L, moved);
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,56 @@
+package cycling;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaderboardTest {
+    @org.junit.jupiter.api.Test
+    void randomOperations_matchSortedSet() {
+        // arrange
+        Leaderboard leaderboard = new Leaderboard();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(3);
+        // act
+        for (int i = 0; i < 20_000; i++) {
+            long elapsedTime = random.nextInt(500);
+            int riderId = random.nextInt(100);
+            long key = elapsedTime << 32 | riderId;
+            if (expected.contains(key)) {
+                leaderboard.remove(elapsedTime, riderId);
+                expected.remove(key);
+            } else {
+                leaderboard.add(elapsedTime, riderId);
+                expected.add(key);
+            }
+        }
+        // assert
+        Long[] keys = expected.toArray(new Long[0]);
+        assertEquals(keys.length, leaderboard.size());
+        int[] riderIds = new int[keys.length];
+        long[] elapsedTimes = new long[keys.length];
+        leaderboard.toArrays(riderIds, elapsedTimes);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i] >>> 32, elapsedTimes[i]);
+            assertEquals((int) (long) keys[i], riderIds[i]);
+            assertEquals(riderIds[i], leaderboard.get(i));
+            assertEquals(i, leaderboard.indexOf(elapsedTimes[i], riderIds[i]));
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void build_fromSortedRiders() {
+        // arrange
+        int[] riderIds = { 4, 2, 9, 1, 3 };
+        long[] elapsedTimes = { 10, 20, 20, 30, 40 };
+        // act
+        Leaderboard leaderboard = new Leaderboard(riderIds, elapsedTimes);
+        leaderboard.add(20, 5);
+        // assert
+        int[] rankedRiderIds = new int[6];
+        leaderboard.toArrays(rankedRiderIds, new long[6]);
+        assertArrayEquals(new int[] { 4, 2, 5, 9, 1, 3 }, rankedRiderIds);
+        assertEquals(2, leaderboard.indexOf(20, 5));
+        assertThrows(IllegalArgumentException.class, () -> leaderboard.indexOf(20, 6));
+    }
+}
@@ -0,0 +1,104 @@
+package cycling;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortalEventsTest {
+    CyclingPortalImpl portal = new CyclingPortalImpl();
+    int stageId;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() throws Exception {
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        stageId = portal.addStageToRace(portal.createRace("Egg&Spoon", null), "Stage", null, 100,
+                LocalDateTime.of(2024, 7, 1, 12, 0), StageType.MEDIUM_MOUNTAIN);
+        portal.addIntermediateSprintToStage(stageId, 30);
+        portal.addCategorizedClimbToStage(stageId, 60.0, CheckpointType.C2, 6.0, 5.0);
+        portal.concludeStagePreparation(stageId);
+        ResultBatch batch = new ResultBatch();
+        for (int i = 0; i < 10; i++) {
+            LocalTime start = LocalTime.NOON;
+            batch.add(portal.createRider(teamId, "Rider" + i, 1990), start, start.plusMinutes(50 + i),
+                    start.plusMinutes(100 + i), start.plusMinutes(150 + i));
+        }
+        portal.registerRiderResultsInStage(stageId, batch);
+    }
+
+    @org.junit.jupiter.api.Test
+    void stageEvents_carryTheStage() throws Exception {
+        // act
+        List<RecordedEvent> events = record(() -> {
+            portal.getRidersRankInStage(stageId);
+            portal.getRidersPointsInStage(stageId);
+            portal.getRidersMountainPointsInStage(stageId);
+            portal.getRidersPointsInStage(stageId);
+        }, "cycling.Ranking", "cycling.Points");
+        // assert
+        assertEquals(3, events.size());
+        assertEquals("cycling.Ranking", events.get(0).getEventType().getName());
+        assertFalse(events.get(1).getBoolean("mountain"));
+        assertTrue(events.get(2).getBoolean("mountain"));
+        for (RecordedEvent event : events) {
+            assertEquals(stageId, event.getInt("stageId"));
+            assertEquals(10, event.getInt("riderCount"));
+            assertEquals(2, event.getInt("checkpointCount"));
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void snapshotAndLookupEvents() throws Exception {
+        // arrange
+        Path file = Files.createTempFile("portal", ".bin");
+        // act
+        List<RecordedEvent> events = record(() -> {
+            portal.saveCyclingPortal(file.toString());
+            new CyclingPortalImpl().loadCyclingPortal(file.toString());
+            assertThrows(IDNotRecognisedException.class, () -> portal.getStageLength(stageId + 999));
+        }, "cycling.Snapshot", "cycling.Lookup");
+        Files.delete(file);
+        // assert
+        assertEquals(3, events.size());
+        for (RecordedEvent event : events.subList(0, 2)) {
+            assertEquals("BINARY", event.getString("format"));
+            assertEquals(1, event.getInt("stageCount"));
+            assertEquals(10, event.getInt("riderCount"));
+            assertEquals(2, event.getInt("checkpointCount"));
+        }
+        assertFalse(events.get(0).getBoolean("load"));
+        assertTrue(events.get(1).getBoolean("load"));
+        assertEquals("Stage", events.get(2).getString("entityType"));
+        assertFalse(events.get(2).getBoolean("found"));
+    }
+
+    interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * @return the events of the given types recorded while an action ran, in order.
+     */
+    static List<RecordedEvent> record(Action action, String... eventNames) throws Exception {
+        Path file = Files.createTempFile("portal", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : eventNames) recording.enable(name).withoutThreshold();
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> List.of(eventNames).contains(event.getEventType().getName()))
+                    .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                    .toList();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package cycling;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortalHttpServerTest {
+    static final int RIDERS = 200;
+    LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+    ConcurrentCyclingPortal portal = new ConcurrentCyclingPortal();
+    HttpClient client = HttpClient.newHttpClient();
+    PortalHttpServer server;
+    int stageId;
+    int[] riderIds = new int[RIDERS];
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() throws Exception {
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        for (int i = 0; i < RIDERS; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990);
+        int raceId = portal.createRace("Egg&Spoon", null);
+        stageId = portal.addStageToRace(raceId, "Stage", null, 100, start, StageType.MEDIUM_MOUNTAIN);
+        portal.addIntermediateSprintToStage(stageId, 30);
+        portal.addCategorizedClimbToStage(stageId, 60.0, CheckpointType.C2, 6.0, 5.0);
+        portal.concludeStagePreparation(stageId);
+        server = new PortalHttpServer(portal, new InetSocketAddress("localhost", 0));
+    }
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @org.junit.jupiter.api.Test
+    void registerRiderResultsInStage_concurrentPutsThenQueries() throws Exception {
+        // arrange
+        ArrayList<CompletableFuture<HttpResponse<String>>> puts = new ArrayList<>();
+        // act
+        for (int r = 0; r < RIDERS; r++) {
+            String body = "[\"12:00\", \"" + LocalTime.of(13, 0).plusSeconds((r * 7) % 50) + "\", \""
+                    + LocalTime.of(14, 0).plusSeconds(r % 30) + "\", \"" + LocalTime.of(16, 0).plusSeconds(r * 3) + "\"]";
+            puts.add(client.sendAsync(request("/results/" + riderIds[r]).PUT(HttpRequest.BodyPublishers.ofString(body))
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> put : puts) assertEquals(204, put.get().statusCode());
+        HttpResponse<String> rank = get("/rank");
+        HttpResponse<String> points = get("/points");
+        HttpResponse<String> mountainPoints = get("/mountain-points");
+        HttpResponse<String> results = get("/results/" + riderIds[1]);
+        // assert
+        assertEquals(200, rank.statusCode());
+        assertEquals("application/json", rank.headers().firstValue("Content-Type").orElse(null));
+        assertEquals(PortalHttpServer.json(portal.getRidersRankInStage(stageId)), rank.body());
+        assertEquals(PortalHttpServer.json(portal.getRidersPointsInStage(stageId)), points.body());
+        assertEquals(PortalHttpServer.json(portal.getRidersMountainPointsInStage(stageId)), mountainPoints.body());
+        assertEquals("[\"13:00:07\",\"14:00:01\",\"04:00:03\"]", results.body());
+    }
+    @org.junit.jupiter.api.Test
+    void errors_mappedToStatusCodes() throws Exception {
+        // arrange
+        HttpRequest.BodyPublisher times = HttpRequest.BodyPublishers.ofString("[\"12:00\",\"13:00\",\"14:00\",\"16:00\"]");
+        // act
+        int registered = client.send(request("/results/" + riderIds[0]).PUT(times).build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode();
+        HttpResponse<String> duplicated = client.send(request("/results/" + riderIds[0]).PUT(times).build(),
+                HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> tooFewTimes = client.send(request("/results/" + riderIds[1])
+                .PUT(HttpRequest.BodyPublishers.ofString("[\"12:00\"]")).build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> malformed = client.send(request("/results/" + riderIds[1])
+                .PUT(HttpRequest.BodyPublishers.ofString("[12:00]")).build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> unknownStage = client.send(HttpRequest.newBuilder(uri("/stages/" + (stageId + 999) + "/rank"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> unknownPath = get("/standings");
+        HttpResponse<String> wrongMethod = client.send(request("/rank").DELETE().build(),
+                HttpResponse.BodyHandlers.ofString());
+        int deleted = client.send(request("/results/" + riderIds[0]).DELETE().build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode();
+        // assert
+        assertEquals(204, registered);
+        assertEquals(409, duplicated.statusCode());
+        assertEquals(422, tooFewTimes.statusCode());
+        assertEquals(400, malformed.statusCode());
+        assertEquals(404, unknownStage.statusCode());
+        assertTrue(unknownStage.body().startsWith("{\"error\":"));
+        assertEquals(404, unknownPath.statusCode());
+        assertEquals(405, wrongMethod.statusCode());
+        assertEquals(204, deleted);
+        assertEquals(0, portal.getRidersRankInStage(stageId).length);
+    }
+    @org.junit.jupiter.api.Test
+    void parseTimes_acceptsWhitespaceAndEmptyArray() {
+        // act
+        LocalTime[] times = PortalHttpServer.parseTimes(" [ \"12:00\" ,\"12:00:01.5\" ] ");
+        // assert
+        assertArrayEquals(new LocalTime[] { LocalTime.NOON, LocalTime.of(12, 0, 1, 500_000_000) }, times);
+        assertEquals(0, PortalHttpServer.parseTimes("[]").length);
+        assertThrows(IllegalArgumentException.class, () -> PortalHttpServer.parseTimes("[\"12:00\"] x"));
+    }
+
+    URI uri(String path) {
+        return URI.create("http://localhost:" + server.getPort() + path);
+    }
+    HttpRequest.Builder request(String stagePath) {
+        return HttpRequest.newBuilder(uri("/stages/" + stageId + stagePath));
+    }
+    HttpResponse<String> get(String stagePath) throws Exception {
+        return client.send(request(stagePath).build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
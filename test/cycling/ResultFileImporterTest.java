@@ -0,0 +1,74 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultFileImporterTest {
+    CyclingPortalImpl portal = new CyclingPortalImpl();
+    LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+    int stageId;
+    int[] riderIds = new int[5];
+    Path file;
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() throws Exception {
+        int raceId = portal.createRace("Egg&Spoon", "...on a bike");
+        stageId = portal.addStageToRace(raceId, "Egg", "Carry an egg", 3.141 + 3, start, StageType.FLAT);
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        for (int i = 0; i < riderIds.length; i++) riderIds[i] = portal.createRider(teamId, "Rider", 1999);
+        portal.concludeStagePreparation(stageId);
+        file = Files.createTempFile("results", ".csv");
+    }
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @org.junit.jupiter.api.Test
+    void importResults_acrossWindowsAndBatches() throws Exception {
+        // arrange
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < riderIds.length; i++) {
+            rows.append(riderIds[i]).append(",12:00:00,13:0").append(i).append(":00.25\r\n");
+        }
+        rows.append("\n");
+        Files.writeString(file, rows);
+        ResultFileImporter importer = new ResultFileImporter(portal, 2, 32);
+        // act
+        ResultFileImporter.ImportReport report = importer.importResults(stageId, file);
+        // assert
+        assertEquals(riderIds.length, report.getRows());
+        assertEquals(Files.size(file), report.getBytes());
+        assertArrayEquals(riderIds, portal.getRidersRankInStage(stageId));
+        assertArrayEquals(new LocalTime[] { LocalTime.of(1, 4, 0, 250_000_000) },
+                portal.getRiderResultsInStage(stageId, riderIds[4]));
+    }
+    @org.junit.jupiter.api.Test
+    void importResults_rowErrorsKeyedByRowInFile() throws Exception {
+        // arrange
+        Files.writeString(file, riderIds[0] + ",12:00:00,13:00:00\n" + riderIds[1] + ",12:00:00,13:00:00\n"
+                + riderIds[2] + ",12:00:00\n" + riderIds[3] + ",12:00:00,13:00:00");
+        ResultFileImporter importer = new ResultFileImporter(portal, 2, 1 << 10);
+        // act
+        InvalidResultBatchException exception = assertThrows(InvalidResultBatchException.class,
+                () -> importer.importResults(stageId, file));
+        // assert
+        assertEquals(2, exception.getRowErrors().firstKey());
+        assertInstanceOf(InvalidCheckpointTimesException.class, exception.getRowErrors().get(2));
+        assertEquals(2, portal.getRidersRankInStage(stageId).length);
+    }
+    @org.junit.jupiter.api.Test
+    void importResults_malformedRow() throws IOException {
+        // arrange
+        Files.writeString(file, riderIds[0] + ",12:00:00,13:61:00\n");
+        ResultFileImporter importer = new ResultFileImporter(portal);
+        // act
+        IOException exception = assertThrows(IOException.class, () -> importer.importResults(stageId, file));
+        // assert
+        assertTrue(exception.getMessage().contains("Malformed"));
+    }
+}
@@ -0,0 +1,211 @@
+package cycling;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StageRankingTest {
+    final LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+
+    @org.junit.jupiter.api.Test
+    void adjustedElapsedTimes_matchPairwiseDefinition() throws DuplicatedResultException {
+        // arrange
+        Stage stage = bunchedStage(StageType.FLAT, 2_000, new Random(7));
+        // act
+        StageRanking ranking = new StageRanking(stage);
+        // assert
+        int[] riderIds = ranking.getRiderIds();
+        long[] adjustedElapsedTimes = ranking.getAdjustedElapsedTimes();
+        for (int i = 0; i < riderIds.length; i++) {
+            assertEquals(pairwiseAdjustedElapsedTime(stage, riderIds[i]), adjustedElapsedTimes[i]);
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void riderIds_rankedByElapsedTimeThenId() throws DuplicatedResultException {
+        // arrange
+        Stage stage = bunchedStage(StageType.TT, 500, new Random(11));
+        // act
+        StageRanking ranking = new StageRanking(stage);
+        // assert
+        long[] elapsedTimes = ranking.getElapsedTimes();
+        int[] riderIds = ranking.getRiderIds();
+        for (int i = 1; i < riderIds.length; i++) {
+            assertTrue(elapsedTimes[i - 1] < elapsedTimes[i] ||
+                    elapsedTimes[i - 1] == elapsedTimes[i] && riderIds[i - 1] < riderIds[i]);
+        }
+        assertArrayEquals(elapsedTimes, ranking.getAdjustedElapsedTimes());
+    }
+    @org.junit.jupiter.api.Test
+    void award_tiedRidersSharePlace() {
+        // arrange
+        long[] times = { 30, 10, 20, 10, 40 };
+        int[] totals = { 1, 1, 1, 1, 1 };
+        // act
+        PointsEngine.award(times, new int[] { 5, 3, 2, 1 }, totals);
+        // assert
+        assertArrayEquals(new int[] { 1 + 1, 1 + 5, 1 + 2, 1 + 5, 1 }, totals);
+    }
+
+    @org.junit.jupiter.api.Test
+    void parallelRanking_matchesSequential() throws DuplicatedResultException {
+        // arrange
+        int numRiders = 50_000;
+        int threshold = ParallelRanking.getThreshold();
+        long[] keys = new Random(3).longs(numRiders, 0, numRiders / 4).toArray();
+        long[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        StageRanking sequential;
+        StageRanking parallel;
+        long[] parallelSortedKeys = keys.clone();
+        int[] parallelOrder;
+        // act
+        try {
+            ParallelRanking.setThreshold(Integer.MAX_VALUE);
+            sequential = new StageRanking(shuffledStage(numRiders, new Random(5)));
+            ParallelRanking.setThreshold(1);
+            parallel = new StageRanking(shuffledStage(numRiders, new Random(5)));
+            ParallelRanking.sort(parallelSortedKeys);
+            parallelOrder = ParallelRanking.argsort(keys);
+        } finally {
+            ParallelRanking.setThreshold(threshold);
+        }
+        // assert
+        assertArrayEquals(sequential.getRiderIds(), parallel.getRiderIds());
+        assertArrayEquals(sequential.getElapsedTimes(), parallel.getElapsedTimes());
+        assertArrayEquals(sequential.getAdjustedElapsedTimes(), parallel.getAdjustedElapsedTimes());
+        assertArrayEquals(sequential.getPoints(), parallel.getPoints());
+        assertArrayEquals(sortedKeys, parallelSortedKeys);
+        assertArrayEquals(ArgSort.argsort(keys), parallelOrder);
+    }
+    @org.junit.jupiter.api.Test
+    void award_matchesFullSort() {
+        // arrange
+        Random random = new Random(13);
+        int[] table = { 20, 15, 12, 10, 8, 6, 5, 4, 3, 2, 1 };
+        for (int trial = 0; trial < 200; trial++) {
+            long[] times = random.longs(random.nextInt(40), 0, 1 + random.nextInt(20)).toArray();
+            int[] expected = new int[times.length];
+            int[] order = ArgSort.argsort(times);
+            for (int k = 0, place = 0; k < order.length; k++) {
+                if (k > 0 && times[order[k]] != times[order[k - 1]]) place = k;
+                if (place < table.length) expected[order[k]] += table[place];
+            }
+            int[] totals = new int[times.length];
+            // act
+            PointsEngine.award(times, table, totals);
+            // assert
+            assertArrayEquals(expected, totals);
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void points_noResults() throws DuplicatedResultException {
+        // arrange
+        Stage stage = mountainStage(0, new Random(19));
+        // act
+        StageRanking ranking = new StageRanking(stage);
+        // assert
+        assertEquals(0, ranking.getPoints().length);
+        assertEquals(0, ranking.getMountainPoints().length);
+    }
+    @org.junit.jupiter.api.Test
+    void parallelCheckpoints_matchSequential() throws DuplicatedResultException {
+        // arrange
+        int threshold = ParallelRanking.getThreshold();
+        StageRanking sequential;
+        StageRanking parallel;
+        // act
+        try {
+            ParallelRanking.setThreshold(Integer.MAX_VALUE);
+            sequential = new StageRanking(mountainStage(5_000, new Random(17)));
+            ParallelRanking.setThreshold(1);
+            parallel = new StageRanking(mountainStage(5_000, new Random(17)));
+        } finally {
+            ParallelRanking.setThreshold(threshold);
+        }
+        // assert
+        assertArrayEquals(sequential.getPoints(), parallel.getPoints());
+        assertArrayEquals(sequential.getMountainPoints(), parallel.getMountainPoints());
+        assertTrue(Arrays.stream(parallel.getMountainPoints()).sum() > 0);
+    }
+    /**
+     * Creates a stage whose riders finish in bunches, some of them with identical times.
+     */
+    private Stage bunchedStage(StageType type, int numRiders, Random random) throws DuplicatedResultException {
+        Stage stage = new Stage(1, "Egg", "Carry an egg", 100, start, type);
+        stage.setState("waiting for results");
+        long finish = Duration.ofHours(4).toNanos();
+        for (int id = 1; id <= numRiders; id++) {
+            if (random.nextInt(10) > 0) finish += random.nextInt(3) * 500_000_000L + random.nextInt(2);
+            long riderStart = type == StageType.TT ? random.nextInt(60) * 1_000_000_000L : 0;
+            stage.addResult(new Rider(id, "Rider" + id, 1990), new long[] { riderStart, finish });
+        }
+        return stage;
+    }
+
+    /**
+     * Creates a stage whose riders finish in bunches, with their results added in a random order of their ids.
+     */
+    private Stage shuffledStage(int numRiders, Random random) throws DuplicatedResultException {
+        Stage stage = new Stage(1, "Egg", "Carry an egg", 100, start, StageType.FLAT);
+        stage.setState("waiting for results");
+        int[] ids = new int[numRiders];
+        for (int i = 0; i < numRiders; i++) ids[i] = i + 1;
+        for (int i = numRiders - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+        long finish = Duration.ofHours(4).toNanos();
+        for (int id : ids) {
+            if (random.nextInt(10) > 0) finish += random.nextInt(3) * 500_000_000L + random.nextInt(2);
+            stage.addResult(new Rider(id, "Rider" + id, 1990), new long[] { 0, finish });
+        }
+        return stage;
+    }
+    /**
+     * Creates a mountain stage with two sprints and four climbs, at which riders arrive in bunches.
+     */
+    private Stage mountainStage(int numRiders, Random random) throws DuplicatedResultException {
+        Stage stage = new Stage(1, "Egg", "Carry an egg up a hill", 100, start, StageType.HIGH_MOUNTAIN);
+        CheckpointType[] types = { CheckpointType.SPRINT, CheckpointType.C3, CheckpointType.C1, CheckpointType.SPRINT,
+                CheckpointType.HC, CheckpointType.C2 };
+        for (int i = 0; i < types.length; i++) {
+            stage.addCheckpoint(types[i] == CheckpointType.SPRINT ? new Checkpoint(i + 1, "Sprint" + i, types[i], 10 * i + 5)
+                    : new Climb(i + 1, "Hill" + i, types[i], 10 * i + 5, 6.5, 4));
+        }
+        stage.setState("waiting for results");
+        for (int id = 1; id <= numRiders; id++) {
+            long[] times = new long[types.length + 2];
+            for (int i = 1; i < times.length; i++) {
+                times[i] = times[i - 1] + Duration.ofMinutes(30).toNanos() + random.nextInt(20) * 1_000_000_000L;
+            }
+            stage.addResult(new Rider(id, "Rider" + id, 1990), times);
+        }
+        return stage;
+    }
+    /**
+     * Finds a rider's adjusted elapsed time by walking back through every earlier finish time.
+     */
+    private long pairwiseAdjustedElapsedTime(Stage stage, int riderId) {
+        ResultTable results = stage.getResults();
+        long[] ends = Arrays.copyOf(results.getColumn(results.width() - 1), results.size());
+        long riderEnd = ends[results.rowOf(riderId)];
+        long[] sortedEnds = Arrays.stream(ends)
+                .filter(end -> end < riderEnd)
+                .boxed()
+                .sorted(Comparator.reverseOrder())
+                .mapToLong(Long::longValue)
+                .toArray();
+        long adjustedRiderEnd = riderEnd;
+        for (long end : sortedEnds) {
+            if (adjustedRiderEnd < end + Duration.ofSeconds(1).toNanos() + 1) adjustedRiderEnd = end;
+            else break;
+        }
+        return adjustedRiderEnd;
+    }
+}
@@ -0,0 +1,202 @@
+package cycling;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingIngestServerTest {
+    static final int RIDERS = 300;
+    LocalDateTime start = LocalDateTime.of(2024, 7, 1, 12, 0);
+    ConcurrentCyclingPortal portal = new ConcurrentCyclingPortal();
+    int[] riderIds = new int[RIDERS];
+    int stageId;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() throws Exception {
+        int teamId = portal.createTeam("Apes", "Zoo escapees");
+        for (int i = 0; i < RIDERS; i++) riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990);
+        int raceId = portal.createRace("Egg&Spoon", null);
+        stageId = portal.addStageToRace(raceId, "Stage", null, 100, start, StageType.MEDIUM_MOUNTAIN);
+        portal.addIntermediateSprintToStage(stageId, 30);
+        portal.addCategorizedClimbToStage(stageId, 60.0, CheckpointType.C2, 6.0, 5.0);
+        portal.concludeStagePreparation(stageId);
+    }
+
+    @org.junit.jupiter.api.Test
+    void replay_registersEveryResult() throws Exception {
+        // arrange
+        long[][] times = times(new Random(3));
+        CyclingPortalImpl expected = new CyclingPortalImpl();
+        for (int i = 0; i < RIDERS; i++) expected.createRider(expected.createTeam("Team" + i, null), "Rider" + i, 1990);
+        int expectedStageId = expected.addStageToRace(expected.createRace("Egg&Spoon", null), "Stage", null, 100,
+                start, StageType.MEDIUM_MOUNTAIN);
+        expected.addIntermediateSprintToStage(expectedStageId, 30);
+        expected.addCategorizedClimbToStage(expectedStageId, 60.0, CheckpointType.C2, 6.0, 5.0);
+        expected.concludeStagePreparation(expectedStageId);
+        for (int i = 0; i < RIDERS; i++) {
+            expected.registerRiderResultsInStage(expectedStageId, expected.getTeamRiders(expected.getTeams()[i])[0],
+                    localTimes(times[i]));
+        }
+        // act
+        try (TimingIngestServer server = new TimingIngestServer(portal, new InetSocketAddress("localhost", 0), 64)) {
+            try (TimingIngestClient client = new TimingIngestClient(new InetSocketAddress("localhost", server.getPort()))) {
+                client.replay(stageId, riderIds, times, Double.POSITIVE_INFINITY);
+            }
+            awaitResults(server, RIDERS);
+            // assert
+            assertEquals(RIDERS * 4L, server.getFramesReceived());
+            assertEquals(0, server.getFramesRejected());
+        }
+        assertArrayEquals(expected.getRidersPointsInStage(expectedStageId), portal.getRidersPointsInStage(stageId));
+        assertArrayEquals(expected.getRankedAdjustedElapsedTimesInStage(expectedStageId),
+                portal.getRankedAdjustedElapsedTimesInStage(stageId));
+        for (int i = 0; i < RIDERS; i++) {
+            assertArrayEquals(expected.getRiderResultsInStage(expectedStageId,
+                    expected.getTeamRiders(expected.getTeams()[i])[0]), portal.getRiderResultsInStage(stageId, riderIds[i]));
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void frames_splitAcrossWritesAndInvalidOnesDropped() throws Exception {
+        // arrange
+        ByteBuffer frames = ByteBuffer.allocate(TimingIngestServer.FRAME_SIZE * 7).order(ByteOrder.LITTLE_ENDIAN);
+        long noon = LocalTime.NOON.toNanoOfDay();
+        for (int point = 0; point < 4; point++) frame(frames, stageId, riderIds[0], point, noon + point * 1_000_000_000L);
+        frame(frames, stageId, riderIds[1], 0, noon);
+        frame(frames, stageId, riderIds[1], 0, noon);
+        frame(frames, stageId + 999, riderIds[1], 1, noon);
+        frames.flip();
+        // act
+        TimingIngestServer server = new TimingIngestServer(portal, new InetSocketAddress("localhost", 0));
+        try (server) {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+                channel.socket().setTcpNoDelay(true);
+                for (int chunk = 7; frames.hasRemaining(); chunk += 5) {
+                    channel.write(frames.slice(frames.position(), Math.min(chunk, frames.remaining())));
+                    frames.position(Math.min(frames.limit(), frames.position() + chunk));
+                    Thread.sleep(1);
+                }
+            }
+            awaitFrames(server, 7);
+            awaitResults(server, 1);
+        }
+        // assert
+        assertEquals(7, server.getFramesReceived());
+        assertEquals(2, server.getFramesRejected());
+        assertArrayEquals(new int[] { riderIds[0] }, portal.getRidersRankInStage(stageId));
+    }
+    @org.junit.jupiter.api.Test
+    void frames_beforePreparationConcluded_rejectedUntilItIs() throws Exception {
+        // arrange
+        int preparedStageId = portal.addStageToRace(portal.getRaceIds()[0], "Prepared", null, 100, start,
+                StageType.FLAT);
+        long noon = LocalTime.NOON.toNanoOfDay();
+        ByteBuffer early = ByteBuffer.allocate(TimingIngestServer.FRAME_SIZE * 2).order(ByteOrder.LITTLE_ENDIAN);
+        frame(early, preparedStageId, riderIds[0], 0, noon);
+        frame(early, preparedStageId, riderIds[0], 1, noon + 3_600_000_000_000L);
+        ByteBuffer late = ByteBuffer.allocate(TimingIngestServer.FRAME_SIZE * 3).order(ByteOrder.LITTLE_ENDIAN);
+        for (int point = 0; point < 3; point++) {
+            frame(late, preparedStageId, riderIds[0], point, noon + point * 3_600_000_000_000L);
+        }
+        // act
+        TimingIngestServer server = new TimingIngestServer(portal, new InetSocketAddress("localhost", 0));
+        try (server) {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+                channel.write(early.flip());
+                awaitFrames(server, 2);
+                portal.addIntermediateSprintToStage(preparedStageId, 50);
+                portal.concludeStagePreparation(preparedStageId);
+                channel.write(late.flip());
+            }
+            awaitResults(server, 1);
+        }
+        // assert
+        assertEquals(2, server.getFramesRejected());
+        assertEquals(0, server.getResultsRejected());
+        assertArrayEquals(new int[] { riderIds[0] }, portal.getRidersRankInStage(preparedStageId));
+    }
+    @org.junit.jupiter.api.Test
+    void flush_batchRejectedAgainOnRetry_registersTheRest() throws Exception {
+        // arrange
+        ConcurrentCyclingPortal rivalled = new ConcurrentCyclingPortal() {
+            int rivalRegistrations;
+
+            /**
+             * Registers the last rider of the first two batches just before them, as a rival feed would.
+             */
+            @Override
+            public void registerRiderResultsInStage(int stageId, ResultBatch batch)
+                    throws IDNotRecognisedException, InvalidStageStateException, InvalidResultBatchException {
+                if (rivalRegistrations++ < 2) {
+                    int row = batch.size() - 1;
+                    try {
+                        registerRiderResultsInStage(stageId, batch.getRiderId(row),
+                                LocalTime.ofNanoOfDay(batch.getTime(row, 0)), LocalTime.ofNanoOfDay(batch.getTime(row, 1)));
+                    } catch (DuplicatedResultException | InvalidCheckpointTimesException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                super.registerRiderResultsInStage(stageId, batch);
+            }
+        };
+        int teamId = rivalled.createTeam("Apes", null);
+        int[] riders = new int[3];
+        for (int i = 0; i < riders.length; i++) riders[i] = rivalled.createRider(teamId, "Rider" + i, 1990);
+        int rivalledStageId = rivalled.addStageToRace(rivalled.createRace("Egg&Spoon", null), "Stage", null, 100,
+                start, StageType.TT);
+        rivalled.concludeStagePreparation(rivalledStageId);
+        ByteBuffer frames = ByteBuffer.allocate(TimingIngestServer.FRAME_SIZE * 6).order(ByteOrder.LITTLE_ENDIAN);
+        long noon = LocalTime.NOON.toNanoOfDay();
+        for (int i = 0; i < riders.length; i++) {
+            frame(frames, rivalledStageId, riders[i], 0, noon);
+            frame(frames, rivalledStageId, riders[i], 1, noon + (600L + i) * 1_000_000_000L);
+        }
+        frames.flip();
+        // act
+        TimingIngestServer server = new TimingIngestServer(rivalled, new InetSocketAddress("localhost", 0), 3);
+        try (server) {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+                channel.write(frames);
+            }
+            awaitFrames(server, 6);
+            awaitResults(server, 1);
+        }
+        // assert
+        assertEquals(1, server.getResultsRegistered());
+        assertEquals(2, server.getResultsRejected());
+        assertEquals(3, rivalled.getRidersRankInStage(rivalledStageId).length);
+    }
+
+    /**
+     * Times for every rider at the start, the two checkpoints and the finish, in nanoseconds of the day.
+     */
+    long[][] times(Random random) {
+        long[][] times = new long[RIDERS][4];
+        for (long[] rider : times) {
+            rider[0] = LocalTime.NOON.toNanoOfDay();
+            for (int i = 1; i < rider.length; i++) rider[i] = rider[i - 1] + (3600L + random.nextInt(30)) * 1_000_000_000L;
+        }
+        return times;
+    }
+    static LocalTime[] localTimes(long[] nanosOfDay) {
+        LocalTime[] times = new LocalTime[nanosOfDay.length];
+        for (int i = 0; i < times.length; i++) times[i] = LocalTime.ofNanoOfDay(nanosOfDay[i]);
+        return times;
+    }
+    static void frame(ByteBuffer frames, int stageId, int riderId, int criticalPoint, long nanoOfDay) {
+        frames.putInt(stageId).putInt(riderId).putInt(criticalPoint).putLong(nanoOfDay);
+    }
+    static void awaitFrames(TimingIngestServer server, long frames) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (server.getFramesReceived() < frames && System.nanoTime() < deadline) Thread.sleep(5);
+    }
+    static void awaitResults(TimingIngestServer server, long results) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (server.getResultsRegistered() < results && System.nanoTime() < deadline) Thread.sleep(5);
+    }
+}